@@ -0,0 +1,78 @@
+package gov.ismonnet.blindgambling;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.android.OpenCVLoader;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.opencv.core.Core.CMP_NE;
+import static org.opencv.core.Core.compare;
+import static org.opencv.core.Core.countNonZero;
+
+/**
+ * Checks that binarizing the image in bands gives the same binary image
+ * as binarizing it whole, on noise, where any difference in the blur shows up.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BandBinarizerTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+
+    // Down to bands shorter than the rows around them they depend on
+    private static final int[] BAND_HEIGHTS = { 0, 1, 3, 7, 16, 40 };
+    private static final int[] THREADS = { 1, 3, 4 };
+
+    private Mat grey;
+    private Mat diff;
+
+    @Before
+    public void setUp() {
+        assertTrue("Couldn't load OpenCV", OpenCVLoader.initDebug());
+
+        Core.setRNGSeed(0);
+        grey = new Mat(HEIGHT, WIDTH, CvType.CV_8UC1);
+        Core.randu(grey, 0, 256);
+        diff = new Mat();
+    }
+
+    @After
+    public void tearDown() {
+        diff.release();
+        grey.release();
+    }
+
+    @Test
+    public void bandsMatchWholeImage() {
+        for(boolean morphologyEnabled : new boolean[] { true, false }) {
+            final Binarizer binarizer = Binarizer.forFullResolution();
+            binarizer.setMorphologyEnabled(morphologyEnabled);
+            binarizer.start(WIDTH, HEIGHT);
+            final Mat expected = binarizer.binarize(grey);
+
+            for(int threads : THREADS) {
+                for(int bandHeight : BAND_HEIGHTS) {
+                    final Binarizer bandBinarizer = Binarizer.forFullResolution();
+                    bandBinarizer.setMorphologyEnabled(morphologyEnabled);
+                    bandBinarizer.setStrategy(Binarizer.STRATEGY_BANDS);
+                    bandBinarizer.setBands(threads, bandHeight);
+                    bandBinarizer.start(WIDTH, HEIGHT);
+
+                    compare(bandBinarizer.binarize(grey), expected, diff, CMP_NE);
+                    assertEquals("Differing pixels with " + threads + " threads, bands of " + bandHeight +
+                            " rows and morphology " + morphologyEnabled, 0, countNonZero(diff));
+                    bandBinarizer.stop();
+                }
+            }
+            binarizer.stop();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package gov.ismonnet.blindgambling;
+
+import android.os.Debug;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.android.OpenCVLoader;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertTrue;
+import static org.opencv.imgproc.Imgproc.COLOR_GRAY2RGBA;
+import static org.opencv.imgproc.Imgproc.FILLED;
+import static org.opencv.imgproc.Imgproc.FONT_HERSHEY_SIMPLEX;
+import static org.opencv.imgproc.Imgproc.cvtColor;
+import static org.opencv.imgproc.Imgproc.putText;
+import static org.opencv.imgproc.Imgproc.rectangle;
+
+/**
+ * Runs {@link CardDetector} over synthetic frames and checks that,
+ * once warmed up, neither the Java heap nor the native heap keep growing.
+ *
+ * The native heap is sampled while the frames are processed, without forcing the finalizers,
+ * which would free the memory of the Mats left to them right before it's measured.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CardDetectorMemoryTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+
+    private static final int WARMUP_FRAMES = 500;
+    private static final int FRAMES = 10000;
+
+    private static final long MAX_JAVA_GROWTH = 512 * 1024;
+    private static final long MAX_NATIVE_GROWTH = 1024 * 1024;
+    private static final int NATIVE_SAMPLE_FRAMES = 50;
+
+    private CardDetector detector;
+    private Mat[] greyFrames;
+    private Mat[] rgbaFrames;
+
+    @Before
+    public void setUp() {
+        assertTrue("Couldn't load OpenCV", OpenCVLoader.initDebug());
+
+        greyFrames = new Mat[4];
+        rgbaFrames = new Mat[greyFrames.length];
+        for(int i = 0; i < greyFrames.length; i++) {
+            greyFrames[i] = syntheticFrame(i * 15);
+            rgbaFrames[i] = new Mat();
+            cvtColor(greyFrames[i], rgbaFrames[i], COLOR_GRAY2RGBA);
+        }
+
+        detector = new CardDetector();
+        detector.start(WIDTH, HEIGHT);
+    }
+
+    @After
+    public void tearDown() {
+        detector.stop();
+        for(int i = 0; i < greyFrames.length; i++) {
+            greyFrames[i].release();
+            rgbaFrames[i].release();
+        }
+    }
+
+    @Test
+    public void steadyStateDoesNotGrowHeaps() {
+        for(int i = 0; i < WARMUP_FRAMES; i++)
+            processFrame(i);
+
+        final long javaBefore = usedJavaHeap();
+        final long nativeBefore = Debug.getNativeHeapAllocatedSize();
+
+        long nativeGrowth = 0;
+        for(int i = 0; i < FRAMES; i++) {
+            processFrame(i);
+            if(i % NATIVE_SAMPLE_FRAMES == 0)
+                nativeGrowth = Math.max(nativeGrowth, Debug.getNativeHeapAllocatedSize() - nativeBefore);
+        }
+        nativeGrowth = Math.max(nativeGrowth, Debug.getNativeHeapAllocatedSize() - nativeBefore);
+
+        final long javaGrowth = usedJavaHeap() - javaBefore;
+
+        assertTrue("Java heap grew by " + javaGrowth + " bytes", javaGrowth < MAX_JAVA_GROWTH);
+        assertTrue("Native heap grew by " + nativeGrowth + " bytes", nativeGrowth < MAX_NATIVE_GROWTH);
+    }
+
+    private void processFrame(int frame) {
+        final int idx = frame % greyFrames.length;
+        detector.process(greyFrames[idx], rgbaFrames[idx]);
+    }
+
+    private static Mat syntheticFrame(int offset) {
+        // Dark felt with two white cards, each with a few dark marks on it
+
+        final Mat frame = new Mat(HEIGHT, WIDTH, CvType.CV_8UC1, new Scalar(40));
+        for(int card = 0; card < 2; card++) {
+            final int x = 60 + card * 280 + offset;
+            final int y = 80 + offset;
+
+            rectangle(frame, new Point(x, y), new Point(x + 180, y + 260), new Scalar(230), FILLED);
+            putText(frame, "A", new Point(x + 10, y + 40), FONT_HERSHEY_SIMPLEX, 1.2, new Scalar(20), 3);
+            for(int pip = 0; pip < 3; pip++)
+                rectangle(frame,
+                        new Point(x + 70, y + 60 + pip * 60),
+                        new Point(x + 110, y + 100 + pip * 60),
+                        new Scalar(20), FILLED);
+        }
+        return frame;
+    }
+
+    private static long usedJavaHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        for(int i = 0; i < 3; i++) {
+            System.gc();
+            System.runFinalization();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
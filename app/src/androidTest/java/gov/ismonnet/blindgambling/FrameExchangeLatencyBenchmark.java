@@ -0,0 +1,95 @@
+package gov.ismonnet.blindgambling;
+
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.android.FrameExchange;
+import org.opencv.android.LockFreeFrameExchange;
+import org.opencv.android.MonitorFrameExchange;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the time between a frame being offered by the camera callback thread
+ * and the processing thread starting to work on it, which is what JavaCameraView
+ * reports as the delivery latency, for each of the frame delivery strategies.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FrameExchangeLatencyBenchmark {
+
+    private static final String TAG = "FrameExchangeBenchmark";
+
+    private static final int BUFFERS = 3;
+    private static final int FRAMES = 3000;
+    // Roughly a 30 fps camera and a frame processed in 5ms
+    private static final long FRAME_INTERVAL_NANOS = 33_000_000L;
+    private static final long PROCESSING_NANOS = 5_000_000L;
+
+    @Test
+    public void monitorExchange() throws InterruptedException {
+        run("monitor", new MonitorFrameExchange());
+    }
+
+    @Test
+    public void lockFreeExchange() throws InterruptedException {
+        run("lock-free", new LockFreeFrameExchange());
+    }
+
+    private void run(String name, FrameExchange exchange) throws InterruptedException {
+        final long[] timestamps = new long[BUFFERS];
+        final long[] latencies = new long[FRAMES];
+        final int[] delivered = new int[1];
+
+        final Thread consumer = new Thread(() -> {
+            int idx;
+            while ((idx = exchange.take()) >= 0) {
+                final long latency = System.nanoTime() - timestamps[idx];
+                if(delivered[0] < latencies.length)
+                    latencies[delivered[0]++] = latency;
+                busyWait(PROCESSING_NANOS);
+            }
+        }, name + "-consumer");
+        consumer.start();
+
+        int dropped = 0;
+        for(int i = 0; i < FRAMES; i++) {
+            final int idx = i % BUFFERS;
+            timestamps[idx] = System.nanoTime();
+            if(exchange.offer(idx) >= 0)
+                dropped++;
+            LockSupport.parkNanos(FRAME_INTERVAL_NANOS);
+        }
+
+        exchange.stop();
+        consumer.join();
+
+        final long[] sorted = Arrays.copyOf(latencies, delivered[0]);
+        Arrays.sort(sorted);
+        Log.i(TAG, String.format("%s: %d delivered, %d dropped, p50 %dus, p99 %dus, max %dus",
+                name, sorted.length, dropped,
+                percentile(sorted, 0.50) / 1000,
+                percentile(sorted, 0.99) / 1000,
+                sorted[sorted.length - 1] / 1000));
+
+        assertTrue(sorted.length > 0);
+        assertEquals(FRAMES, sorted.length + dropped, 1);
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.round(percentile * (sorted.length - 1)))];
+    }
+
+    private static void busyWait(long nanos) {
+        final long end = System.nanoTime() + nanos;
+        while (System.nanoTime() < end) {
+            // Simulate processing
+        }
+    }
+}
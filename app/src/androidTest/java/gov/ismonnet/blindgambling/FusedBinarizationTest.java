@@ -0,0 +1,90 @@
+package gov.ismonnet.blindgambling;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.android.OpenCVLoader;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.opencv.core.Core.CMP_NE;
+import static org.opencv.core.Core.compare;
+import static org.opencv.core.Core.countNonZero;
+
+/**
+ * Checks that the fused binarization gives the same binary image as the blur, the threshold
+ * and the opening run one after the other, on noise, where any difference in the rounding shows up.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FusedBinarizationTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+
+    // Inside the image, against each border and down to a single pixel
+    private static final Rect[] REGIONS = {
+            new Rect(101, 57, 333, 211),
+            new Rect(0, 0, 50, 40),
+            new Rect(590, 420, 50, 60),
+            new Rect(3, 470, 630, 10),
+            new Rect(320, 0, 1, 1),
+            new Rect(0, 0, WIDTH, HEIGHT),
+    };
+
+    private Mat grey;
+    private Mat diff;
+
+    @Before
+    public void setUp() {
+        assertTrue("Couldn't load OpenCV", OpenCVLoader.initDebug());
+
+        Core.setRNGSeed(0);
+        grey = new Mat(HEIGHT, WIDTH, CvType.CV_8UC1);
+        Core.randu(grey, 0, 256);
+        diff = new Mat();
+    }
+
+    @After
+    public void tearDown() {
+        diff.release();
+        grey.release();
+    }
+
+    @Test
+    public void fusedMatchesSeparateStages() {
+        for(boolean morphologyEnabled : new boolean[] { true, false }) {
+            final Binarizer binarizer = Binarizer.forFullResolution();
+            binarizer.setMorphologyEnabled(morphologyEnabled);
+            binarizer.start(WIDTH, HEIGHT);
+            final Binarizer fusedBinarizer = Binarizer.forFullResolution();
+            fusedBinarizer.setMorphologyEnabled(morphologyEnabled);
+            fusedBinarizer.setStrategy(Binarizer.STRATEGY_FUSED);
+            fusedBinarizer.start(WIDTH, HEIGHT);
+
+            final Mat expected = binarizer.binarize(grey);
+            compare(fusedBinarizer.binarize(grey), expected, diff, CMP_NE);
+            assertEquals("Differing pixels with morphology " + morphologyEnabled, 0, countNonZero(diff));
+
+            // A region comes out the same as the same region of the whole binary image
+            for(Rect region : REGIONS) {
+                final Mat roiGrey = grey.submat(region);
+                final Mat roiExpected = expected.submat(region);
+                compare(fusedBinarizer.binarize(roiGrey, region), roiExpected, diff, CMP_NE);
+                assertEquals("Differing pixels in " + region + " with morphology " + morphologyEnabled,
+                        0, countNonZero(diff));
+                roiExpected.release();
+                roiGrey.release();
+            }
+
+            fusedBinarizer.stop();
+            binarizer.stop();
+        }
+    }
+}
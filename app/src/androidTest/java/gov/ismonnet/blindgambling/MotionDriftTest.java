@@ -0,0 +1,73 @@
+package gov.ismonnet.blindgambling;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.android.OpenCVLoader;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a slow change below the threshold is still reported once it adds up,
+ * even while motion elsewhere is reported on every frame.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MotionDriftTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    private static final Rect DRIFTING = new Rect(0, 0, 64, 64);
+    private static final Rect MOVING = new Rect(240, 160, 64, 64);
+    // Below the threshold each frame, above it in three
+    private static final int DRIFT_STEP = 5;
+
+    private Mat grey;
+    private Mat drifting;
+    private Mat moving;
+
+    @Before
+    public void setUp() {
+        assertTrue("Couldn't load OpenCV", OpenCVLoader.initDebug());
+
+        grey = new Mat(HEIGHT, WIDTH, CvType.CV_8UC1, new Scalar(100));
+        drifting = grey.submat(DRIFTING);
+        moving = grey.submat(MOVING);
+    }
+
+    @After
+    public void tearDown() {
+        moving.release();
+        drifting.release();
+        grey.release();
+    }
+
+    @Test
+    public void driftAddsUpWhileOtherCellsMove() {
+        final MotionDetector detector = new MotionDetector();
+        detector.start(WIDTH, HEIGHT);
+        assertEquals(MotionDetector.GLOBAL, detector.detect(grey));
+
+        boolean driftReported = false;
+        for(int frame = 1; frame <= 3; frame++) {
+            drifting.setTo(new Scalar(100 + frame * DRIFT_STEP));
+            moving.setTo(new Scalar(frame % 2 == 0 ? 100 : 200));
+
+            assertEquals("Motion on frame " + frame, MotionDetector.REGIONS, detector.detect(grey));
+            final Rect[] regions = detector.getRegions();
+            for(int i = 0; i < detector.getRegionCount(); i++)
+                driftReported |= regions[i].contains(DRIFTING.tl());
+        }
+        detector.stop();
+
+        assertTrue("The drift was never reported", driftReported);
+    }
+}
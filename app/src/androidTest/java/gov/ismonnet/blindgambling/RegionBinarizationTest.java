@@ -0,0 +1,98 @@
+package gov.ismonnet.blindgambling;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.android.OpenCVLoader;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.opencv.core.Core.CMP_NE;
+import static org.opencv.core.Core.compare;
+import static org.opencv.core.Core.countNonZero;
+
+/**
+ * Checks that binarizing a region of the image gives the same region of the whole binary image,
+ * whatever the earlier frames left in the Mats around it.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RegionBinarizationTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+
+    // Inside the image, against each border and down to a single pixel
+    private static final Rect[] REGIONS = {
+            new Rect(101, 57, 333, 211),
+            new Rect(0, 0, 50, 40),
+            new Rect(590, 420, 50, 60),
+            new Rect(3, 470, 630, 10),
+            new Rect(320, 0, 1, 1),
+            new Rect(0, 0, WIDTH, HEIGHT),
+    };
+
+    private static final int[] STRATEGIES = { Binarizer.STRATEGY_SEPARATE, Binarizer.STRATEGY_FUSED };
+
+    private Mat previousGrey;
+    private Mat grey;
+    private Mat diff;
+
+    @Before
+    public void setUp() {
+        assertTrue("Couldn't load OpenCV", OpenCVLoader.initDebug());
+
+        Core.setRNGSeed(0);
+        previousGrey = new Mat(HEIGHT, WIDTH, CvType.CV_8UC1);
+        Core.randu(previousGrey, 0, 256);
+        grey = new Mat(HEIGHT, WIDTH, CvType.CV_8UC1);
+        Core.randu(grey, 0, 256);
+        diff = new Mat();
+    }
+
+    @After
+    public void tearDown() {
+        diff.release();
+        grey.release();
+        previousGrey.release();
+    }
+
+    @Test
+    public void regionsDoNotDependOnEarlierFrames() {
+        for(boolean morphologyEnabled : new boolean[] { true, false }) {
+            final Binarizer binarizer = Binarizer.forFullResolution();
+            binarizer.setMorphologyEnabled(morphologyEnabled);
+            binarizer.start(WIDTH, HEIGHT);
+            final Mat expected = binarizer.binarize(grey).clone();
+            binarizer.stop();
+
+            for(int strategy : STRATEGIES) {
+                final Binarizer regionBinarizer = Binarizer.forFullResolution();
+                regionBinarizer.setMorphologyEnabled(morphologyEnabled);
+                regionBinarizer.setStrategy(strategy);
+                regionBinarizer.start(WIDTH, HEIGHT);
+
+                for(Rect region : REGIONS) {
+                    // Leaves another frame in the Mats around the region
+                    regionBinarizer.binarize(previousGrey);
+
+                    final Mat roiGrey = grey.submat(region);
+                    final Mat roiExpected = expected.submat(region);
+                    compare(regionBinarizer.binarize(roiGrey, region), roiExpected, diff, CMP_NE);
+                    assertEquals("Differing pixels in " + region + " with strategy " + strategy +
+                            " and morphology " + morphologyEnabled, 0, countNonZero(diff));
+                    roiExpected.release();
+                    roiGrey.release();
+                }
+                regionBinarizer.stop();
+            }
+            expected.release();
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package gov.ismonnet.blindgambling;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static org.opencv.imgproc.Imgproc.ADAPTIVE_THRESH_MEAN_C;
+import static org.opencv.imgproc.Imgproc.GaussianBlur;
+import static org.opencv.imgproc.Imgproc.MORPH_OPEN;
+import static org.opencv.imgproc.Imgproc.THRESH_BINARY;
+import static org.opencv.imgproc.Imgproc.adaptiveThreshold;
+import static org.opencv.imgproc.Imgproc.morphologyEx;
+
+/**
+ * Runs the {@link Binarizer} stages on horizontal bands of the image in parallel, on a fork-join pool.
+ *
+ * Each band is extended above and below by the rows the blur, the threshold and the opening reach,
+ * binarized on Mats of its own and only its own rows copied to the result,
+ * so that the binary image is the same as the one of the whole image.
+ * The extended rows are copied out of the image before being blurred, as OpenCV only uses
+ * its bit-exact blur on whole images and the blur of a view of the rows can round differently.
+ * The copy's own border rows blur wrong, which is what the blur's share of the extension is for.
+ *
+ * The views each band keeps on the image and on the result are only rebuilt when those change,
+ * so binarizing the frames of a camera which reuses its buffers doesn't allocate.
+ */
+class BandBinarizer {
+
+    private final Size gaussianKernel;
+    private final int thresholdBlockSize;
+    private final double thresholdOffset;
+    private final Mat morphKernel;
+    private final int halo;
+    private final int threads;
+    private final int bandHeight;
+
+    private ForkJoinPool pool;
+    private Band[] bands;
+    @SuppressWarnings("serial")
+    private final RecursiveAction root = new RecursiveAction() {
+        @Override
+        protected void compute() {
+            invokeAll(bands);
+        }
+    };
+
+    private boolean morphologyEnabled = true;
+    // Mats the views of the bands look into
+    private Mat grey;
+    private long greyData;
+    private Mat out;
+    private long outData;
+
+    /**
+     * @param threads number of bands binarized at the same time
+     * @param bandHeight rows of each band, without the ones around it, or 0 for one band per thread
+     */
+    BandBinarizer(int gaussianKernelSize, int thresholdBlockSize, Mat morphKernel, double thresholdOffset,
+                  int threads, int bandHeight) {
+        if(threads < 1)
+            throw new IllegalArgumentException("At least one thread is needed");
+        if(bandHeight < 0)
+            throw new IllegalArgumentException("The band height can't be negative");
+
+        this.gaussianKernel = new Size(gaussianKernelSize, gaussianKernelSize);
+        this.thresholdBlockSize = thresholdBlockSize;
+        this.thresholdOffset = thresholdOffset;
+        this.morphKernel = morphKernel;
+        this.halo = gaussianKernelSize / 2 + thresholdBlockSize / 2 + morphKernel.rows() / 2 * 2;
+        this.threads = threads;
+        this.bandHeight = bandHeight;
+    }
+
+    void setMorphologyEnabled(boolean morphologyEnabled) {
+        this.morphologyEnabled = morphologyEnabled;
+    }
+
+    void start(int width, int height) {
+        final int rows = bandHeight > 0 ? bandHeight : (height + threads - 1) / threads;
+        bands = new Band[(height + rows - 1) / rows];
+        for(int i = 0; i < bands.length; i++)
+            bands[i] = new Band(width, height, i * rows, Math.min(height, (i + 1) * rows));
+        pool = new ForkJoinPool(threads);
+    }
+
+    void stop() {
+        pool.shutdown();
+        pool = null;
+        for(Band band : bands)
+            band.release();
+        bands = null;
+        grey = null;
+        out = null;
+    }
+
+    int getBandCount() {
+        return bands.length;
+    }
+
+    /**
+     * @param grey image to binarize, of the size given to {@link #start(int, int)}
+     * @param out where to write the binary image
+     */
+    void binarize(Mat grey, Mat out) {
+        final boolean greyChanged = grey != this.grey || grey.dataAddr() != greyData;
+        final boolean outChanged = out != this.out || out.dataAddr() != outData;
+        this.grey = grey;
+        this.greyData = grey.dataAddr();
+        this.out = out;
+        this.outData = out.dataAddr();
+
+        root.reinitialize();
+        for(Band band : bands) {
+            if(greyChanged)
+                band.setGrey(grey);
+            if(outChanged)
+                band.setOut(out);
+            band.reinitialize();
+        }
+        pool.invoke(root);
+    }
+
+    @SuppressWarnings("serial")
+    private class Band extends RecursiveAction {
+
+        // Rows of the band, and of the band extended by the halo
+        private final int start;
+        private final int end;
+        private final int extendedStart;
+        private final int extendedEnd;
+
+        private final Mat greyMat;
+        private final Mat blurMat;
+        private final Mat thresholdMat;
+        private final Mat morphMat;
+        // Views on the rows of the band
+        private final Mat bandThreshold;
+        private final Mat bandMorph;
+        private Mat bandGrey;
+        private Mat bandOut;
+
+        Band(int width, int height, int start, int end) {
+            this.start = start;
+            this.end = end;
+            this.extendedStart = Math.max(0, start - halo);
+            this.extendedEnd = Math.min(height, end + halo);
+
+            final int rows = extendedEnd - extendedStart;
+            greyMat = new Mat(rows, width, CvType.CV_8UC1);
+            blurMat = new Mat(rows, width, CvType.CV_8UC1);
+            thresholdMat = new Mat(rows, width, CvType.CV_8UC1);
+            morphMat = new Mat(rows, width, CvType.CV_8UC1);
+            bandThreshold = thresholdMat.rowRange(start - extendedStart, end - extendedStart);
+            bandMorph = morphMat.rowRange(start - extendedStart, end - extendedStart);
+        }
+
+        void setGrey(Mat grey) {
+            if(bandGrey != null)
+                bandGrey.release();
+            bandGrey = grey.rowRange(extendedStart, extendedEnd);
+        }
+
+        void setOut(Mat out) {
+            if(bandOut != null)
+                bandOut.release();
+            bandOut = out.rowRange(start, end);
+        }
+
+        @Override
+        protected void compute() {
+            bandGrey.copyTo(greyMat);
+            GaussianBlur(greyMat, blurMat, gaussianKernel, 0);
+            adaptiveThreshold(blurMat, thresholdMat,
+                    255,
+                    ADAPTIVE_THRESH_MEAN_C,
+                    THRESH_BINARY,
+                    thresholdBlockSize, thresholdOffset);
+
+            // Each band only writes its own rows
+            if(morphologyEnabled) {
+                morphologyEx(thresholdMat, morphMat, MORPH_OPEN, morphKernel);
+                bandMorph.copyTo(bandOut);
+            } else {
+                bandThreshold.copyTo(bandOut);
+            }
+        }
+
+        void release() {
+            if(bandGrey != null)
+                bandGrey.release();
+            if(bandOut != null)
+                bandOut.release();
+            bandThreshold.release();
+            bandMorph.release();
+            greyMat.release();
+            blurMat.release();
+            thresholdMat.release();
+            morphMat.release();
+        }
+    }
+}
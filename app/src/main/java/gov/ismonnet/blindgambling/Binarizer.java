@@ -0,0 +1,302 @@
+package gov.ismonnet.blindgambling;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+
+import static org.opencv.core.Core.BORDER_ISOLATED;
+import static org.opencv.core.Core.BORDER_REFLECT_101;
+import static org.opencv.imgproc.Imgproc.ADAPTIVE_THRESH_MEAN_C;
+import static org.opencv.imgproc.Imgproc.CV_SHAPE_RECT;
+import static org.opencv.imgproc.Imgproc.GaussianBlur;
+import static org.opencv.imgproc.Imgproc.MORPH_OPEN;
+import static org.opencv.imgproc.Imgproc.THRESH_BINARY;
+import static org.opencv.imgproc.Imgproc.adaptiveThreshold;
+import static org.opencv.imgproc.Imgproc.getStructuringElement;
+import static org.opencv.imgproc.Imgproc.morphologyEx;
+
+/**
+ * Blur, adaptive threshold and morphological opening applied to a grey image,
+ * with all the intermediate Mats preallocated for a given maximum size.
+ *
+ * The stages either run as separate OpenCV calls, fused in a single pass by a {@link FusedBinarizer},
+ * which gives the same binary image without writing the intermediate ones,
+ * or on bands of the image in parallel with a {@link BandBinarizer}.
+ */
+class Binarizer {
+
+    // Blur, threshold and opening each as a call over the whole image
+    static final int STRATEGY_SEPARATE = 0;
+    // All the stages in a single pass over the rows of the image
+    static final int STRATEGY_FUSED = 1;
+    // The separate calls on horizontal bands of the image, in parallel
+    static final int STRATEGY_BANDS = 2;
+
+    private static final int THRESHOLD_OFFSET = 8;
+
+    private final Size gaussianKernel;
+    private final int thresholdBlockSize;
+    private final int morphKernelSize;
+    private final FusedBinarizer fused;
+
+    private Mat blurMat;
+    private Mat thresholdMat;
+    private Mat morphKernel;
+    private Mat morphMat;
+    private Mat roiMorphMat;
+    // Where the grey region lies in its parent image, filled in by locateROI
+    private final Size roiWholeSize = new Size();
+    private final Point roiOffset = new Point();
+    // Region being binarized, together with the pixels around it the stages depend on
+    private final Rect paddedRoi = new Rect();
+
+    private StageProfiler profiler = StageProfiler.DISABLED;
+    private boolean morphologyEnabled = true;
+    private int strategy = STRATEGY_SEPARATE;
+    private int bandThreads = Runtime.getRuntime().availableProcessors();
+    private int bandHeight;
+    private BandBinarizer bandBinarizer;
+
+    Binarizer(int gaussianKernelSize, int thresholdBlockSize, int morphKernelSize) {
+        this.gaussianKernel = new Size(gaussianKernelSize, gaussianKernelSize);
+        this.thresholdBlockSize = thresholdBlockSize;
+        this.morphKernelSize = morphKernelSize;
+        this.fused = new FusedBinarizer(gaussianKernelSize, thresholdBlockSize, morphKernelSize, THRESHOLD_OFFSET);
+    }
+
+    static Binarizer forFullResolution() {
+        return new Binarizer(5, 15, 5);
+    }
+
+    static Binarizer forHalfResolution() {
+        return new Binarizer(3, 7, 3);
+    }
+
+    void setProfiler(StageProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    /**
+     * @param morphologyEnabled false to skip the opening, returning the thresholded image as is
+     */
+    void setMorphologyEnabled(boolean morphologyEnabled) {
+        this.morphologyEnabled = morphologyEnabled;
+        fused.setMorphologyEnabled(morphologyEnabled);
+        if(bandBinarizer != null)
+            bandBinarizer.setMorphologyEnabled(morphologyEnabled);
+    }
+
+    /**
+     * @param strategy one of {@link #STRATEGY_SEPARATE}, {@link #STRATEGY_FUSED} or {@link #STRATEGY_BANDS}
+     */
+    void setStrategy(int strategy) {
+        if(strategy != STRATEGY_SEPARATE && strategy != STRATEGY_FUSED && strategy != STRATEGY_BANDS)
+            throw new IllegalArgumentException("Unknown binarization strategy " + strategy);
+        this.strategy = strategy;
+    }
+
+    int getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * Sets how the image is split by {@link #STRATEGY_BANDS}, from the next {@link #start(int, int)}.
+     *
+     * @param threads number of bands binarized at the same time
+     * @param bandHeight rows of each band, or 0 for one band per thread
+     */
+    void setBands(int threads, int bandHeight) {
+        if(threads < 1)
+            throw new IllegalArgumentException("At least one thread is needed");
+        if(bandHeight < 0)
+            throw new IllegalArgumentException("The band height can't be negative");
+        this.bandThreads = threads;
+        this.bandHeight = bandHeight;
+    }
+
+    void start(int width, int height) {
+        blurMat = new Mat(height, width, CvType.CV_8UC1);
+        thresholdMat = new Mat(height, width, CvType.CV_8UC1);
+        morphMat = new Mat(height, width, CvType.CV_8UC1);
+        morphKernel = getStructuringElement(CV_SHAPE_RECT, new Size(morphKernelSize, morphKernelSize));
+        fused.start(width, height);
+    }
+
+    void stop() {
+        releaseRoi();
+        blurMat.release();
+        thresholdMat.release();
+        morphMat.release();
+        morphKernel.release();
+        fused.stop();
+        if(bandBinarizer != null) {
+            bandBinarizer.stop();
+            bandBinarizer = null;
+        }
+    }
+
+    Mat binarize(Mat grey) {
+        if(strategy == STRATEGY_FUSED)
+            return binarizeFused(grey, morphMat);
+        if(strategy == STRATEGY_BANDS)
+            return binarizeBands(grey);
+        return open(threshold(blur(grey)));
+    }
+
+    private Mat binarizeBands(Mat grey) {
+        final long start = profiler.start();
+        // Only allocated once used. Regions are binarized with the separate calls, so the bands cover whole images
+        if(bandBinarizer == null) {
+            bandBinarizer = new BandBinarizer((int) gaussianKernel.width, thresholdBlockSize, morphKernel,
+                    THRESHOLD_OFFSET, bandThreads, bandHeight);
+            bandBinarizer.setMorphologyEnabled(morphologyEnabled);
+            bandBinarizer.start(morphMat.cols(), morphMat.rows());
+        }
+        bandBinarizer.binarize(grey, morphMat);
+        profiler.stop(StageProfiler.BINARIZE, start);
+        return morphMat;
+    }
+
+    private Mat binarizeFused(Mat grey, Mat out) {
+        final long start = profiler.start();
+        fused.binarize(grey, out);
+        profiler.stop(StageProfiler.BINARIZE, start);
+        return out;
+    }
+
+    // Single stages, so that they can be benchmarked on their own
+
+    Mat blur(Mat grey) {
+        final long start = profiler.start();
+        GaussianBlur(grey, blurMat, gaussianKernel, 0);
+        profiler.stop(StageProfiler.BLUR, start);
+        return blurMat;
+    }
+
+    Mat threshold(Mat blurred) {
+        final long start = profiler.start();
+        adaptiveThreshold(blurred, thresholdMat,
+                255,
+                ADAPTIVE_THRESH_MEAN_C,
+                THRESH_BINARY,
+                thresholdBlockSize, THRESHOLD_OFFSET);
+        profiler.stop(StageProfiler.THRESHOLD, start);
+        return thresholdMat;
+    }
+
+    Mat open(Mat thresholded) {
+        if(!morphologyEnabled)
+            return thresholded;
+
+        final long start = profiler.start();
+        morphologyEx(thresholded, morphMat, MORPH_OPEN, morphKernel);
+        profiler.stop(StageProfiler.MORPHOLOGY, start);
+        return morphMat;
+    }
+
+    /**
+     * Binarizes a region of the image, using the same region of the preallocated Mats.
+     * The returned Mat is valid until the next call.
+     *
+     * The region is binarized together with the pixels around it the stages depend on, then cropped,
+     * so that it comes out the same as the same region of the whole binarized image,
+     * whatever earlier calls left around it in the Mats.
+     *
+     * @param roiGrey region of the grey image, a view on the whole image
+     * @param roi position of the region in the preallocated Mats
+     */
+    Mat binarize(Mat roiGrey, Rect roi) {
+        releaseRoi();
+        final Mat paddedGrey = padRegion(roiGrey, roi);
+        roiMorphMat = morphMat.submat(roi);
+        if(strategy == STRATEGY_FUSED)
+            binarizeFused(paddedGrey, roi);
+        else
+            binarizeSeparate(paddedGrey, roi);
+        paddedGrey.release();
+        return roiMorphMat;
+    }
+
+    /**
+     * Extends the region by the reach of the stages, as far as the image and the Mats go.
+     *
+     * @return view on the padded region of the grey image, whose position is left in paddedRoi
+     */
+    private Mat padRegion(Mat roiGrey, Rect roi) {
+        roiGrey.locateROI(roiWholeSize, roiOffset);
+
+        // The same for every strategy
+        final int reach = fused.getReach();
+        final int left = Math.min(reach, Math.min(roi.x, (int) roiOffset.x));
+        final int top = Math.min(reach, Math.min(roi.y, (int) roiOffset.y));
+        final int right = Math.min(reach, Math.min(morphMat.cols() - roi.x - roi.width,
+                (int) roiWholeSize.width - (int) roiOffset.x - roi.width));
+        final int bottom = Math.min(reach, Math.min(morphMat.rows() - roi.y - roi.height,
+                (int) roiWholeSize.height - (int) roiOffset.y - roi.height));
+
+        paddedRoi.x = roi.x - left;
+        paddedRoi.y = roi.y - top;
+        paddedRoi.width = roi.width + left + right;
+        paddedRoi.height = roi.height + top + bottom;
+        return roiGrey.submat(0, roi.height, 0, roi.width).adjustROI(top, bottom, left, right);
+    }
+
+    private void binarizeSeparate(Mat paddedGrey, Rect roi) {
+        final Mat paddedBlurMat = blurMat.submat(paddedRoi);
+        final Mat paddedThresholdMat = thresholdMat.submat(paddedRoi);
+
+        // OpenCV only uses its bit-exact blur on whole images or isolated regions.
+        // The border made up around the region only changes pixels of the padding
+        long start = profiler.start();
+        GaussianBlur(paddedGrey, paddedBlurMat, gaussianKernel, 0, 0, BORDER_REFLECT_101 | BORDER_ISOLATED);
+        profiler.stop(StageProfiler.BLUR, start);
+
+        start = profiler.start();
+        adaptiveThreshold(paddedBlurMat, paddedThresholdMat,
+                255,
+                ADAPTIVE_THRESH_MEAN_C,
+                THRESH_BINARY,
+                thresholdBlockSize, THRESHOLD_OFFSET);
+        profiler.stop(StageProfiler.THRESHOLD, start);
+
+        if(morphologyEnabled) {
+            // Writes the region of the result, and the padding around it
+            final Mat paddedMorphMat = morphMat.submat(paddedRoi);
+            start = profiler.start();
+            morphologyEx(paddedThresholdMat, paddedMorphMat, MORPH_OPEN, morphKernel);
+            profiler.stop(StageProfiler.MORPHOLOGY, start);
+            paddedMorphMat.release();
+        } else {
+            final Mat roiThresholdMat = thresholdMat.submat(roi);
+            roiThresholdMat.copyTo(roiMorphMat);
+            roiThresholdMat.release();
+        }
+
+        paddedThresholdMat.release();
+        paddedBlurMat.release();
+    }
+
+    private void binarizeFused(Mat paddedGrey, Rect roi) {
+        final long start = profiler.start();
+        // The blurred Mat isn't used by the fused stages, so it holds the padded binary region
+        final Mat paddedBinary = blurMat.submat(paddedRoi);
+        final Mat binary = paddedBinary.submat(roi.y - paddedRoi.y, roi.y - paddedRoi.y + roi.height,
+                roi.x - paddedRoi.x, roi.x - paddedRoi.x + roi.width);
+
+        fused.binarize(paddedGrey, paddedBinary);
+        binary.copyTo(roiMorphMat);
+
+        binary.release();
+        paddedBinary.release();
+        profiler.stop(StageProfiler.BINARIZE, start);
+    }
+
+    private void releaseRoi() {
+        if(roiMorphMat != null) {
+            roiMorphMat.release();
+            roiMorphMat = null;
+        }
+    }
+}
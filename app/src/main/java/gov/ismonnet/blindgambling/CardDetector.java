@@ -0,0 +1,697 @@
+package gov.ismonnet.blindgambling;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.opencv.imgproc.Imgproc.CHAIN_APPROX_SIMPLE;
+import static org.opencv.imgproc.Imgproc.RETR_TREE;
+import static org.opencv.imgproc.Imgproc.fillConvexPoly;
+import static org.opencv.imgproc.Imgproc.findContours;
+import static org.opencv.imgproc.Imgproc.pyrDown;
+
+/**
+ * Frame processing pipeline used by {@link FullscreenActivity#onCameraFrame}.
+ *
+ * Every buffer needed to process a frame is allocated in {@link #start(int, int)},
+ * reused for all the following frames and released in {@link #stop()}, so that
+ * in the steady state the pipeline doesn't depend on Mat finalizers
+ * to give native memory back.
+ *
+ * {@link #detect(Mat)} and {@link #render(Mat)} can be called from two different
+ * threads: the detection result is double buffered and swapped once it's complete.
+ *
+ * In pyramid mode, card candidates are searched on a half resolution image
+ * and then searched again at full resolution only inside the region around each candidate.
+ *
+ * In component mode, the contours of a binary image are only extracted inside the regions
+ * of the connected components big enough to be a card, found by {@link ComponentCandidates}.
+ */
+public class CardDetector {
+
+    // Blur, threshold and opening each as a call over the whole image
+    public static final int BINARIZE_SEPARATE = Binarizer.STRATEGY_SEPARATE;
+    // All the stages in a single pass over the rows of the image
+    public static final int BINARIZE_FUSED = Binarizer.STRATEGY_FUSED;
+    // The separate calls on horizontal bands of the image, in parallel
+    public static final int BINARIZE_BANDS = Binarizer.STRATEGY_BANDS;
+
+    private static final int CARD_MIN_AREA = 25000;
+    // Frame size CARD_MIN_AREA is meant for, smaller frames scale it down
+    private static final int CARD_MIN_AREA_FRAME = 1280 * 720;
+    private static final int MIN_CONTOUR_AREA = 100;
+    // Accuracy of the quad approximation, as a fraction of the contour perimeter
+    private static final double QUAD_EPSILON = 0.01;
+
+    // Padding, in full resolution pixels, around the candidates found in pyramid mode and the cards kept by detectRegions
+    private static final int ROI_PADDING = 10;
+    // Distance, in pixels, under which two refined quads are as close to a candidate
+    private static final float MATCH_TIE_DISTANCE = 2;
+
+    private final Binarizer fullBinarizer = Binarizer.forFullResolution();
+    private final Binarizer smallBinarizer = Binarizer.forHalfResolution();
+
+    private boolean pyramidMode;
+    private boolean componentMode;
+    private final ComponentCandidates fullComponents = new ComponentCandidates();
+    private final ComponentCandidates smallComponents = new ComponentCandidates();
+    private boolean morphologyEnabled = true;
+    private volatile boolean maskEnabled = true;
+    private Mat smallGrey;
+    private final CardQuads candidates = new CardQuads();
+    private final CardQuads roiCards = new CardQuads();
+    private Rect roi;
+    // Regions refined by detectPyramid, grown with the number of candidates
+    private Rect[] candidateRois = new Rect[0];
+    // Regions detected again by detectRegions, grown to the cards they overlap
+    private final Rect[] changedRois = new Rect[MotionDetector.MAX_REGIONS];
+    private Rect frameBounds;
+    private Rect smallFrameBounds;
+    private int cardMinArea;
+
+    private Mat hierarchy;
+    private List<MatOfPoint> contours;
+    private final ContourAnalyzer contourAnalyzer = new ContourAnalyzer();
+
+    private Scalar black;
+    private Scalar white;
+    private final Object resultLock = new Object();
+    private Mat detectMask;
+    private Mat mask;
+    // Bounding box of the white pixels of each mask
+    private Rect detectMaskBounds;
+    private Rect maskBounds;
+    private CardQuads detectCards = new CardQuads();
+    private CardQuads cards = new CardQuads();
+    private Mat masked;
+    private MatOfPoint rectPoints;
+    private int[] rectPointsBuffer;
+    private final float[] rectBuffer = new float[8];
+
+    private StageProfiler profiler = StageProfiler.DISABLED;
+
+    private boolean started;
+
+    public CardDetector() {
+        for(int i = 0; i < changedRois.length; i++)
+            changedRois[i] = new Rect();
+    }
+
+    public void start(int width, int height) {
+        if(started)
+            stop();
+
+        fullBinarizer.start(width, height);
+        smallBinarizer.start((width + 1) / 2, (height + 1) / 2);
+        smallGrey = new Mat((height + 1) / 2, (width + 1) / 2, CvType.CV_8UC1);
+        roi = new Rect();
+        frameBounds = new Rect(0, 0, width, height);
+        smallFrameBounds = new Rect(0, 0, (width + 1) / 2, (height + 1) / 2);
+        // Cards fill the same part of the frame whatever its resolution, like a low resolution detection stream
+        cardMinArea = (int) Math.min(CARD_MIN_AREA, (long) CARD_MIN_AREA * width * height / CARD_MIN_AREA_FRAME);
+
+        hierarchy = new Mat();
+        contours = new ArrayList<>(256);
+        fullComponents.start(width, height);
+        smallComponents.start((width + 1) / 2, (height + 1) / 2);
+
+        black = new Scalar(0);
+        white = new Scalar(255);
+        detectMask = new Mat(height, width, CvType.CV_8UC1, black);
+        mask = new Mat(height, width, CvType.CV_8UC1, black);
+        detectMaskBounds = new Rect();
+        maskBounds = new Rect();
+        masked = new Mat(height, width, CvType.CV_8UC4);
+        rectPoints = new MatOfPoint();
+        rectPoints.alloc(4);
+        rectPointsBuffer = new int[8];
+
+        detectCards.clear();
+        cards.clear();
+
+        started = true;
+    }
+
+    public void stop() {
+        if(!started)
+            return;
+        started = false;
+
+        fullBinarizer.stop();
+        smallBinarizer.stop();
+        fullComponents.stop();
+        smallComponents.stop();
+        smallGrey.release();
+
+        hierarchy.release();
+
+        releaseContours();
+
+        detectMask.release();
+        mask.release();
+        masked.release();
+        rectPoints.release();
+    }
+
+    /**
+     * @param profiler where to record how long each stage of the detection takes
+     */
+    public void setProfiler(StageProfiler profiler) {
+        this.profiler = profiler;
+        fullBinarizer.setProfiler(profiler);
+        smallBinarizer.setProfiler(profiler);
+    }
+
+    public boolean isStarted() {
+        return started;
+    }
+
+    /**
+     * Enables or disables the pyramid mode, where candidates are searched on
+     * a half resolution image and refined at full resolution.
+     *
+     * The regions of overlapping candidates are merged and refined together, so the cost
+     * is the half resolution search plus the full resolution chain over the area the cards cover:
+     * it halves the detection with a couple of cards, but not when they cover much of the frame.
+     * The mask is only filled inside the refined regions, so contours away from
+     * the cards, which the full resolution search would mask too, are left out.
+     *
+     * @param pyramidMode true to enable pyramid mode
+     */
+    public void setPyramidMode(boolean pyramidMode) {
+        this.pyramidMode = pyramidMode;
+    }
+
+    public boolean isPyramidMode() {
+        return pyramidMode;
+    }
+
+    /**
+     * Enables or disables the search of the cards only inside the connected components which can be one.
+     * The specks of the table are then discarded in bulk instead of each getting a contour,
+     * but the mask only covers the regions searched.
+     *
+     * @param componentMode true to extract the contours only around the candidate components
+     */
+    public void setComponentMode(boolean componentMode) {
+        this.componentMode = componentMode;
+    }
+
+    public boolean isComponentMode() {
+        return componentMode;
+    }
+
+    /**
+     * Enables or disables the morphological opening after the threshold, which removes
+     * the noise of the table at the cost of a pass over the whole image.
+     *
+     * @param morphologyEnabled false to skip the opening
+     */
+    public void setMorphologyEnabled(boolean morphologyEnabled) {
+        this.morphologyEnabled = morphologyEnabled;
+        fullBinarizer.setMorphologyEnabled(morphologyEnabled);
+        smallBinarizer.setMorphologyEnabled(morphologyEnabled);
+    }
+
+    public boolean isMorphologyEnabled() {
+        return morphologyEnabled;
+    }
+
+    /**
+     * Sets how the blur, the threshold and the opening are run. The binary image is the same either way.
+     *
+     * @param strategy one of {@link #BINARIZE_SEPARATE}, {@link #BINARIZE_FUSED} or {@link #BINARIZE_BANDS}
+     */
+    public void setBinarizationStrategy(int strategy) {
+        fullBinarizer.setStrategy(strategy);
+        smallBinarizer.setStrategy(strategy);
+    }
+
+    public int getBinarizationStrategy() {
+        return fullBinarizer.getStrategy();
+    }
+
+    /**
+     * Sets how the frames are split by {@link #BINARIZE_BANDS}, from the next {@link #start(int, int)}.
+     *
+     * @param threads number of bands binarized at the same time
+     * @param bandHeight rows of each band, or 0 for one band per thread
+     */
+    public void setBinarizationBands(int threads, int bandHeight) {
+        fullBinarizer.setBands(threads, bandHeight);
+        smallBinarizer.setBands(threads, bandHeight);
+    }
+
+    /**
+     * Enables or disables the mask used by {@link #render(Mat)}. When the results are drawn
+     * some other way, like outlines on top of the preview, the mask isn't needed.
+     *
+     * @param maskEnabled false to stop filling the mask, which will be left empty
+     */
+    public void setMaskEnabled(boolean maskEnabled) {
+        this.maskEnabled = maskEnabled;
+    }
+
+    public boolean isMaskEnabled() {
+        return maskEnabled;
+    }
+
+    public Mat process(Mat grey, Mat toDraw) {
+        detect(grey);
+        return render(toDraw);
+    }
+
+    public void detect(Mat grey) {
+        final long start = profiler.start();
+        clearDetectMask();
+        detectCards.clear();
+
+        if(pyramidMode)
+            detectPyramid(grey);
+        else
+            detectFull(grey);
+
+        publishResults();
+        profiler.stop(StageProfiler.DETECT, start);
+    }
+
+    /**
+     * Detects the cards again only inside the given regions of the frame, and keeps the given cards
+     * found outside them as they are. Used when only some parts of the frame changed since the cards were found.
+     *
+     * The regions are grown to contain the whole of the cards they overlap,
+     * so that a card is either kept or detected again, never cut in half.
+     *
+     * @param grey frame to detect the cards in
+     * @param regions regions which changed, in frame coordinates
+     * @param count number of regions
+     * @param previous cards found in the previous frames
+     */
+    public void detectRegions(Mat grey, Rect[] regions, int count, CardQuads previous) {
+        if(count > changedRois.length)
+            throw new IllegalArgumentException("At most " + changedRois.length + " regions can be detected at once");
+
+        final long start = profiler.start();
+        // The mask outside of the regions is the one of the last detection
+        clearDetectMask();
+        if(maskEnabled) {
+            synchronized (resultLock) {
+                if(maskBounds.width > 0 && maskBounds.height > 0) {
+                    final Mat src = mask.submat(maskBounds);
+                    final Mat dst = detectMask.submat(maskBounds);
+                    src.copyTo(dst);
+                    src.release();
+                    dst.release();
+                }
+                detectMaskBounds.x = maskBounds.x;
+                detectMaskBounds.y = maskBounds.y;
+                detectMaskBounds.width = maskBounds.width;
+                detectMaskBounds.height = maskBounds.height;
+            }
+        }
+
+        int rois = 0;
+        for(int i = 0; i < count; i++) {
+            final Rect changedRoi = changedRois[rois++];
+            changedRoi.x = regions[i].x;
+            changedRoi.y = regions[i].y;
+            changedRoi.width = regions[i].width;
+            changedRoi.height = regions[i].height;
+        }
+
+        // Growing a region to a card may make it overlap another one, so repeat until nothing changes
+        boolean grown = true;
+        while (grown) {
+            grown = false;
+            for(int card = 0; card < previous.size(); card++) {
+                cardRoi(previous, card, grey.cols(), grey.rows(), roi);
+                for(int i = 0; i < rois; i++) {
+                    if(intersects(changedRois[i], roi) && !contains(changedRois[i], roi)) {
+                        union(changedRois[i], roi);
+                        grown = true;
+                    }
+                }
+            }
+            rois = MotionDetector.mergeOverlapping(changedRois, rois);
+        }
+
+        detectCards.clear();
+        for(int card = 0; card < previous.size(); card++) {
+            cardRoi(previous, card, grey.cols(), grey.rows(), roi);
+            boolean changed = false;
+            for(int i = 0; i < rois && !changed; i++)
+                changed = intersects(changedRois[i], roi);
+            if(!changed)
+                detectCards.add(previous.corners(), card * CardQuads.FLOATS_PER_CARD);
+        }
+
+        for(int i = 0; i < rois; i++) {
+            final Rect changedRoi = changedRois[i];
+            if(maskEnabled) {
+                final Mat dirty = detectMask.submat(changedRoi);
+                dirty.setTo(black);
+                dirty.release();
+            }
+
+            // Binarized with the pixels the stages reach around it, so that any motion box
+            // gives the same binary image as the whole frame would have inside it
+            final Mat roiGrey = grey.submat(changedRoi);
+            final Mat roiBinary = fullBinarizer.binarize(roiGrey, changedRoi);
+            extractContours(roiBinary, changedRoi);
+            roiGrey.release();
+
+            if(maskEnabled)
+                fillLeafContours(detectMask);
+            findCards(cardMinArea, 1, changedRoi, detectCards);
+        }
+
+        publishResults();
+        profiler.stop(StageProfiler.DETECT, start);
+    }
+
+    private void publishResults() {
+        synchronized (resultLock) {
+            final Mat tmpMask = mask;
+            mask = detectMask;
+            detectMask = tmpMask;
+
+            final Rect tmpBounds = maskBounds;
+            maskBounds = detectMaskBounds;
+            detectMaskBounds = tmpBounds;
+
+            final CardQuads tmpCards = cards;
+            cards = detectCards;
+            detectCards = tmpCards;
+        }
+    }
+
+    private void clearDetectMask() {
+        // Only the region filled by the detection which used this mask last needs to be cleared
+        if(detectMaskBounds.width > 0 && detectMaskBounds.height > 0) {
+            final Mat dirty = detectMask.submat(detectMaskBounds);
+            dirty.setTo(black);
+            dirty.release();
+        }
+        detectMaskBounds.x = detectMaskBounds.y = detectMaskBounds.width = detectMaskBounds.height = 0;
+    }
+
+    private void detectFull(Mat grey) {
+        final Mat binary = fullBinarizer.binarize(grey);
+        if(componentMode && findComponentCards(fullComponents, binary, cardMinArea, 1, detectCards, maskEnabled))
+            return;
+
+        extractContours(binary, null);
+
+        if(maskEnabled)
+            fillLeafContours(detectMask);
+        findCards(cardMinArea, 1, frameBounds, detectCards);
+    }
+
+    private void detectPyramid(Mat grey) {
+        // Search candidates at half resolution
+
+        pyrDown(grey, smallGrey);
+        final Mat smallBinary = smallBinarizer.binarize(smallGrey);
+        candidates.clear();
+        if(!componentMode || !findComponentCards(smallComponents, smallBinary, cardMinArea / 4, 2, candidates, false)) {
+            extractContours(smallBinary, null);
+            findCards(cardMinArea / 4, 2, smallFrameBounds, candidates);
+        }
+
+        // Run the full resolution pipeline only around the candidates,
+        // once for the cards close enough for their regions to overlap
+
+        candidateRois = ensureRects(candidateRois, candidates.size());
+        for(int card = 0; card < candidates.size(); card++)
+            cardRoi(candidates, card, grey.cols(), grey.rows(), candidateRois[card]);
+        final int rois = MotionDetector.mergeOverlapping(candidateRois, candidates.size());
+
+        roiCards.clear();
+        for(int i = 0; i < rois; i++) {
+            final Rect candidateRoi = candidateRois[i];
+            final Mat roiGrey = grey.submat(candidateRoi);
+            final Mat roiBinary = fullBinarizer.binarize(roiGrey, candidateRoi);
+            extractContours(roiBinary, candidateRoi);
+            roiGrey.release();
+
+            if(maskEnabled)
+                fillLeafContours(detectMask);
+            findCards(cardMinArea, 1, candidateRoi, roiCards);
+        }
+
+        for(int card = 0; card < candidates.size(); card++) {
+            // If the refinement fails, keep the half resolution quad instead of losing the card
+            final int refined = matchCard(roiCards, candidates, card);
+            if(refined != -1)
+                detectCards.add(roiCards.corners(), refined * CardQuads.FLOATS_PER_CARD);
+            else
+                detectCards.add(candidates.corners(), card * CardQuads.FLOATS_PER_CARD);
+        }
+    }
+
+    public Mat render(Mat toDraw) {
+        masked.setTo(black);
+        synchronized (resultLock) {
+            toDraw.copyTo(masked, mask);
+        }
+        return masked;
+    }
+
+    /**
+     * Like {@link #render(Mat)}, but only the given region of the frame is needed,
+     * which should be the one returned by {@link #getRenderBounds(Rect)}.
+     *
+     * @param roiToDraw region of the frame to draw
+     * @param roi position of the region in the frame
+     * @return the masked frame
+     */
+    public Mat render(Mat roiToDraw, Rect roi) {
+        masked.setTo(black);
+        if(roi.width <= 0 || roi.height <= 0)
+            return masked;
+
+        final Mat maskedRoi = masked.submat(roi);
+        synchronized (resultLock) {
+            final Mat maskRoi = mask.submat(roi);
+            roiToDraw.copyTo(maskedRoi, maskRoi);
+            maskRoi.release();
+        }
+        maskedRoi.release();
+        return masked;
+    }
+
+    /**
+     * Copies the region of the frame which is visible after the masking of the last completed detection,
+     * so that only that region of the frame needs to be converted to RGBA.
+     *
+     * @param out where to copy the region to, empty if nothing is visible
+     */
+    public void getRenderBounds(Rect out) {
+        synchronized (resultLock) {
+            out.x = maskBounds.x;
+            out.y = maskBounds.y;
+            out.width = maskBounds.width;
+            out.height = maskBounds.height;
+        }
+    }
+
+    /**
+     * Copies the cards found by the last completed detection.
+     *
+     * @param out where to copy the cards to
+     */
+    public void getCards(CardQuads out) {
+        synchronized (resultLock) {
+            out.copyFrom(cards);
+        }
+    }
+
+    private void extractContours(Mat binary, Rect offset) {
+        // The MatOfPoint instances created by the previous call need to be
+        // released by hand, otherwise their native memory waits for the finalizer
+
+        final long start = profiler.start();
+        releaseContours();
+        if(offset == null)
+            findContours(binary, contours, hierarchy, RETR_TREE, CHAIN_APPROX_SIMPLE);
+        else
+            findContours(binary, contours, hierarchy, RETR_TREE, CHAIN_APPROX_SIMPLE,
+                    new Point(offset.x, offset.y));
+        contourAnalyzer.load(contours, hierarchy);
+        profiler.stop(StageProfiler.CONTOURS, start);
+    }
+
+    /**
+     * Extracts the contours and searches the cards only inside the regions of the candidate components.
+     *
+     * @return false if there were too many candidates, and the whole image needs to be searched instead
+     */
+    private boolean findComponentCards(ComponentCandidates components, Mat binary, double minArea, float scale,
+                                       CardQuads out, boolean fillMask) {
+        final long start = profiler.start();
+        final int count = components.find(binary, minArea);
+        profiler.stop(StageProfiler.COMPONENTS, start);
+        if(count == ComponentCandidates.TOO_MANY)
+            return false;
+
+        final Rect[] regions = components.getRegions();
+        for(int i = 0; i < count; i++) {
+            final Mat regionBinary = binary.submat(regions[i]);
+            extractContours(regionBinary, regions[i]);
+            regionBinary.release();
+
+            if(fillMask)
+                fillLeafContours(detectMask);
+            findCards(minArea, scale, regions[i], out);
+        }
+        return true;
+    }
+
+    private void fillLeafContours(Mat mask) {
+        final long start = profiler.start();
+        for (int i = 0; i < contourAnalyzer.count(); i++) {
+            if(!contourAnalyzer.isLeaf(i))
+                continue;
+
+            final double area = contourAnalyzer.area(i);
+            if(area < MIN_CONTOUR_AREA)
+                continue;
+
+            contourAnalyzer.minAreaRect(i, rectBuffer);
+            fillRect(mask, rectBuffer, white);
+            growMaskBounds(rectBuffer, mask.cols(), mask.rows());
+        }
+        profiler.stop(StageProfiler.MASK, start);
+    }
+
+    private void findCards(double minArea, float scale, Rect bounds, CardQuads out) {
+        final long start = profiler.start();
+        contourAnalyzer.findQuads(minArea, QUAD_EPSILON, bounds, scale, out);
+        profiler.stop(StageProfiler.CARD_FILTER, start);
+    }
+
+    private static void cardRoi(CardQuads cards, int card, int width, int height, Rect out) {
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        for(int corner = 0; corner < 4; corner++) {
+            minX = Math.min(minX, cards.getX(card, corner));
+            minY = Math.min(minY, cards.getY(card, corner));
+            maxX = Math.max(maxX, cards.getX(card, corner));
+            maxY = Math.max(maxY, cards.getY(card, corner));
+        }
+
+        out.x = Math.max(0, (int) minX - ROI_PADDING);
+        out.y = Math.max(0, (int) minY - ROI_PADDING);
+        out.width = Math.min(width, (int) Math.ceil(maxX) + ROI_PADDING) - out.x;
+        out.height = Math.min(height, (int) Math.ceil(maxY) + ROI_PADDING) - out.y;
+    }
+
+    private static Rect[] ensureRects(Rect[] rects, int count) {
+        if(rects.length >= count)
+            return rects;
+
+        final Rect[] grown = Arrays.copyOf(rects, Math.max(count, rects.length * 2));
+        for(int i = rects.length; i < grown.length; i++)
+            grown[i] = new Rect();
+        return grown;
+    }
+
+    private static boolean intersects(Rect a, Rect b) {
+        return a.x < b.x + b.width && b.x < a.x + a.width &&
+                a.y < b.y + b.height && b.y < a.y + a.height;
+    }
+
+    private static boolean contains(Rect a, Rect b) {
+        return b.x >= a.x && b.y >= a.y &&
+                b.x + b.width <= a.x + a.width && b.y + b.height <= a.y + a.height;
+    }
+
+    private static void union(Rect a, Rect b) {
+        final int right = Math.max(a.x + a.width, b.x + b.width);
+        final int bottom = Math.max(a.y + a.height, b.y + b.height);
+        a.x = Math.min(a.x, b.x);
+        a.y = Math.min(a.y, b.y);
+        a.width = right - a.x;
+        a.height = bottom - a.y;
+    }
+
+    /**
+     * Finds the quad refining a half resolution candidate among the ones found in its region.
+     * A neighbouring card of the same size can be in the same region, so the quads are matched
+     * by the distance of their centres, the area only choosing between quads as close.
+     *
+     * @return index of the refined quad, or -1 if none is centred on the candidate
+     */
+    static int matchCard(CardQuads cards, CardQuads candidates, int candidate) {
+        final float area = candidates.area(candidate);
+        final float centerX = centerX(candidates, candidate);
+        final float centerY = centerY(candidates, candidate);
+        // Half the side of a square card of the same area, well within the card itself
+        final float maxDistance = (float) Math.sqrt(area) / 2;
+
+        int closest = -1;
+        float closestDistance = Float.MAX_VALUE;
+        float closestAreaDiff = Float.MAX_VALUE;
+        for(int card = 0; card < cards.size(); card++) {
+            final float distance = (float) Math.hypot(centerX(cards, card) - centerX, centerY(cards, card) - centerY);
+            if(distance > maxDistance)
+                continue;
+
+            final float areaDiff = Math.abs(cards.area(card) - area);
+            final boolean tie = Math.abs(distance - closestDistance) <= MATCH_TIE_DISTANCE;
+            if(tie ? areaDiff < closestAreaDiff : distance < closestDistance) {
+                closest = card;
+                closestDistance = distance;
+                closestAreaDiff = areaDiff;
+            }
+        }
+        return closest;
+    }
+
+    private static float centerX(CardQuads cards, int card) {
+        return (cards.getX(card, 0) + cards.getX(card, 1) + cards.getX(card, 2) + cards.getX(card, 3)) / 4;
+    }
+
+    private static float centerY(CardQuads cards, int card) {
+        return (cards.getY(card, 0) + cards.getY(card, 1) + cards.getY(card, 2) + cards.getY(card, 3)) / 4;
+    }
+
+    private void fillRect(Mat img, float[] corners, Scalar color) {
+        for(int i = 0; i < 8; i++)
+            rectPointsBuffer[i] = (int) corners[i];
+
+        rectPoints.put(0, 0, rectPointsBuffer);
+        fillConvexPoly(img, rectPoints, color);
+    }
+
+    private void growMaskBounds(float[] corners, int width, int height) {
+        int minX = detectMaskBounds.width == 0 ? Integer.MAX_VALUE : detectMaskBounds.x;
+        int minY = detectMaskBounds.height == 0 ? Integer.MAX_VALUE : detectMaskBounds.y;
+        int maxX = detectMaskBounds.width == 0 ? Integer.MIN_VALUE : detectMaskBounds.x + detectMaskBounds.width;
+        int maxY = detectMaskBounds.height == 0 ? Integer.MIN_VALUE : detectMaskBounds.y + detectMaskBounds.height;
+        for(int corner = 0; corner < 4; corner++) {
+            minX = Math.min(minX, (int) corners[corner * 2]);
+            minY = Math.min(minY, (int) corners[corner * 2 + 1]);
+            maxX = Math.max(maxX, (int) corners[corner * 2] + 1);
+            maxY = Math.max(maxY, (int) corners[corner * 2 + 1] + 1);
+        }
+
+        detectMaskBounds.x = Math.max(0, minX);
+        detectMaskBounds.y = Math.max(0, minY);
+        detectMaskBounds.width = Math.max(0, Math.min(width, maxX) - detectMaskBounds.x);
+        detectMaskBounds.height = Math.max(0, Math.min(height, maxY) - detectMaskBounds.y);
+    }
+
+    private void releaseContours() {
+        for (int i = 0; i < contours.size(); i++)
+            contours.get(i).release();
+        contours.clear();
+    }
+}
@@ -0,0 +1,74 @@
+package gov.ismonnet.blindgambling;
+
+/**
+ * Identity of the cards in a {@link CardQuads}, stored at the same indexes,
+ * together with how well and how expensively they were matched.
+ */
+public class CardLabels {
+
+    private final int[] cards = new int[CardQuads.MAX_CARDS];
+    private final int[] distances = new int[CardQuads.MAX_CARDS];
+    private final long[] costs = new long[CardQuads.MAX_CARDS];
+    private final float[] centres = new float[CardQuads.MAX_CARDS * 2];
+    private int size;
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void setSize(int size) {
+        this.size = size;
+    }
+
+    /**
+     * @param i index of the card in the quads
+     * @param card card id, or {@link CardTemplateIndex#UNKNOWN}
+     * @param distance Hamming distance from the matched template
+     * @param cost nanoseconds spent classifying the card in the last frame, 0 if it wasn't
+     * @param centreX x of the centre of the quad
+     * @param centreY y of the centre of the quad
+     */
+    public void set(int i, int card, int distance, long cost, float centreX, float centreY) {
+        cards[i] = card;
+        distances[i] = distance;
+        costs[i] = cost;
+        centres[i * 2] = centreX;
+        centres[i * 2 + 1] = centreY;
+    }
+
+    public int getCard(int i) {
+        return cards[i];
+    }
+
+    public String getName(int i) {
+        return CardTemplateIndex.name(cards[i]);
+    }
+
+    public int getDistance(int i) {
+        return distances[i];
+    }
+
+    public long getCost(int i) {
+        return costs[i];
+    }
+
+    public float getCentreX(int i) {
+        return centres[i * 2];
+    }
+
+    public float getCentreY(int i) {
+        return centres[i * 2 + 1];
+    }
+
+    public void copyFrom(CardLabels other) {
+        System.arraycopy(other.cards, 0, cards, 0, other.size);
+        System.arraycopy(other.distances, 0, distances, 0, other.size);
+        System.arraycopy(other.costs, 0, costs, 0, other.size);
+        System.arraycopy(other.centres, 0, centres, 0, other.size * 2);
+        size = other.size;
+    }
+}
@@ -0,0 +1,59 @@
+package gov.ismonnet.blindgambling;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+
+/**
+ * Draws the outlines and labels of the cards found by a {@link CardProcessor}
+ * as vectors on top of the preview, instead of rendering them into the frame.
+ *
+ * The latest results are read every time the overlay is drawn,
+ * so the overlay is independent from the frame the preview comes from.
+ */
+public class CardOverlayRenderer implements RotatingCameraView.CvCameraViewOverlay {
+
+    private static final float OUTLINE_WIDTH = 6;
+    private static final float LABEL_SIZE = 64;
+
+    private final CardProcessor processor;
+
+    private final CardQuads cards = new CardQuads();
+    private final CardLabels labels = new CardLabels();
+    private final Path outline = new Path();
+    private final Paint outlinePaint;
+    private final Paint labelPaint;
+
+    public CardOverlayRenderer(CardProcessor processor) {
+        this.processor = processor;
+
+        outlinePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        outlinePaint.setStyle(Paint.Style.STROKE);
+        outlinePaint.setStrokeWidth(OUTLINE_WIDTH);
+        outlinePaint.setColor(Color.GREEN);
+
+        labelPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        labelPaint.setTextSize(LABEL_SIZE);
+        labelPaint.setTextAlign(Paint.Align.CENTER);
+        labelPaint.setColor(Color.RED);
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        processor.getCards(cards);
+        processor.getLabels(labels);
+
+        outline.rewind();
+        for(int card = 0; card < cards.size(); card++) {
+            outline.moveTo(cards.getX(card, 0), cards.getY(card, 0));
+            for(int corner = 1; corner < 4; corner++)
+                outline.lineTo(cards.getX(card, corner), cards.getY(card, corner));
+            outline.close();
+        }
+        canvas.drawPath(outline, outlinePaint);
+
+        for(int i = 0; i < labels.size(); i++)
+            canvas.drawText(labels.getName(i), labels.getCentreX(i), labels.getCentreY(i), labelPaint);
+    }
+}
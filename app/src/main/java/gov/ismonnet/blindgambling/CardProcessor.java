@@ -0,0 +1,379 @@
+package gov.ismonnet.blindgambling;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+
+import static org.opencv.imgproc.Imgproc.FONT_HERSHEY_SIMPLEX;
+import static org.opencv.imgproc.Imgproc.putText;
+
+/**
+ * Card detection, tracking and recognition applied to each frame,
+ * independent from where the frames come from.
+ *
+ * {@link #detect(Mat)} and {@link #render(Mat)} can be called from two different threads,
+ * like the stages of a {@link FramePipeline}, or one after the other with {@link #process(Mat, Mat)}.
+ *
+ * The results are either rendered into the frame, masking everything but the cards,
+ * or left to be drawn on top of the untouched frame, for example by a {@link CardOverlayRenderer}.
+ *
+ * When its {@link QualityGovernor} is enabled, the time taken by the two stages is kept
+ * under the governor target by lowering the quality of the processing.
+ *
+ * When a {@link HighResolutionSource} is set, the cards are classified on high resolution
+ * frames requested only while some card doesn't have a label yet, instead of on the detection frames.
+ *
+ * With a gating mode enabled, the expensive stages are skipped while the table doesn't change,
+ * and only run around the parts which did otherwise.
+ */
+public class CardProcessor {
+
+    // Only the cards are visible, with their labels drawn in the frame
+    public static final int RENDER_MASKED = 0;
+    // The frame is returned as it is, the results are drawn on top of it by someone else
+    public static final int RENDER_OVERLAY = 1;
+
+    // Every frame is processed as a whole
+    public static final int GATING_OFF = 0;
+    // Only the regions which changed since the previous frames are processed, found by a MotionDetector
+    public static final int GATING_MOTION = 1;
+    // Only the regions which aren't part of the table background are processed, found by a ForegroundDetector
+    public static final int GATING_FOREGROUND = 2;
+
+    // Classification and render intervals used at the lowest quality levels
+    private static final int REDUCED_CLASSIFICATION_INTERVAL = 4;
+    private static final int REDUCED_RENDER_INTERVAL = 2;
+
+    // Minimum time between two requests of a high resolution frame
+    private static final long HIGH_RES_REQUEST_INTERVAL_NANOS = 250_000_000;
+
+    /**
+     * Stream of high resolution frames with the same field of view as the detection ones,
+     * whose frames are passed to {@link #recognizeHighResolution(Mat)} when requested.
+     */
+    public interface HighResolutionSource {
+        /**
+         * @return false if there's no high resolution stream at the moment
+         */
+        boolean isAvailable();
+
+        /**
+         * Asks for a frame to be captured and delivered. Invoked on the detection thread.
+         *
+         * @return false if the frame can't be captured right now
+         */
+        boolean requestFrame();
+    }
+
+    private final CardDetector detector = new CardDetector();
+    private final CardTracker tracker = new CardTracker(detector);
+    private final CardRecognizer recognizer = new CardRecognizer();
+    private final MotionDetector motionDetector = new MotionDetector();
+    private final ForegroundDetector foregroundDetector = new ForegroundDetector();
+    private final StageProfiler profiler = new StageProfiler();
+    private final QualityGovernor governor = new QualityGovernor();
+
+    // Detect stage only
+    private final CardQuads trackedCards = new CardQuads();
+    // Render stage only
+    private final CardLabels renderLabels = new CardLabels();
+    private final Point labelOrigin = new Point();
+    private final Scalar labelColor = new Scalar(255, 0, 0, 255);
+    private volatile int gatingMode = GATING_OFF;
+    private volatile int renderMode = RENDER_MASKED;
+    private volatile Rect frameBounds;
+    private volatile int renderInterval = 1;
+    private int framesSinceRender;
+    private volatile long lastRenderNanos;
+    private volatile HighResolutionSource highResSource;
+    private long lastHighResRequest;
+    // High resolution thread only
+    private final CardQuads highResCards = new CardQuads();
+
+    public CardProcessor() {
+        detector.setProfiler(profiler);
+        tracker.setProfiler(profiler);
+        motionDetector.setProfiler(profiler);
+        foregroundDetector.setProfiler(profiler);
+        governor.addListener((oldLevel, newLevel, frameNanos) -> applyQuality(newLevel));
+    }
+
+    public void start(int width, int height) {
+        frameBounds = new Rect(0, 0, width, height);
+        governor.reset();
+        lastRenderNanos = 0;
+        framesSinceRender = 0;
+
+        motionDetector.start(width, height);
+        foregroundDetector.start(width, height);
+        detector.start(width, height);
+        tracker.start(width, height);
+        recognizer.start();
+    }
+
+    public void stop() {
+        recognizer.stop();
+        foregroundDetector.stop();
+        motionDetector.stop();
+        tracker.stop();
+        detector.stop();
+    }
+
+    public Mat process(Mat grey, Mat rgba) {
+        detect(grey);
+        return render(rgba);
+    }
+
+    public void detect(Mat grey) {
+        final long detectStart = System.nanoTime();
+
+        final int gatingMode = this.gatingMode;
+        final int changes;
+        final Rect[] regions;
+        final int regionCount;
+        if(gatingMode == GATING_MOTION) {
+            changes = motionDetector.detect(grey);
+            regions = motionDetector.getRegions();
+            regionCount = motionDetector.getRegionCount();
+        } else if(gatingMode == GATING_FOREGROUND) {
+            changes = foregroundDetector.detect(grey);
+            regions = foregroundDetector.getRegions();
+            regionCount = foregroundDetector.getRegionCount();
+        } else {
+            changes = MotionDetector.GLOBAL;
+            regions = null;
+            regionCount = 0;
+        }
+
+        if(changes == MotionDetector.REGIONS)
+            tracker.process(grey, regions, regionCount);
+        else if(changes == MotionDetector.GLOBAL)
+            tracker.process(grey);
+        // When nothing changed the cards are the same, and so are their labels unless some are still missing
+        if(changes != MotionDetector.NONE)
+            tracker.getCards(trackedCards);
+
+        final HighResolutionSource highResSource = this.highResSource;
+        recognizer.setHighResolutionMode(highResSource != null && highResSource.isAvailable());
+
+        if(changes != MotionDetector.NONE || recognizer.hasUnknownCards()) {
+            final long start = profiler.start();
+            recognizer.recognize(grey, trackedCards);
+            if(gatingMode == GATING_FOREGROUND && foregroundDetector.getSettledCount() > 0 &&
+                    !recognizer.isHighResolutionMode())
+                recognizer.classifyRegions(grey, trackedCards,
+                        foregroundDetector.getSettledRegions(), foregroundDetector.getSettledCount());
+            profiler.stop(StageProfiler.RECOGNIZE, start);
+        }
+
+        // A card which was just placed doesn't wait for the interval between two requests
+        final boolean settled = gatingMode == GATING_FOREGROUND && foregroundDetector.getSettledCount() > 0;
+        if(recognizer.isHighResolutionMode() && recognizer.hasUnknownCards() &&
+                (settled || detectStart - lastHighResRequest >= HIGH_RES_REQUEST_INTERVAL_NANOS) &&
+                highResSource.requestFrame())
+            lastHighResRequest = detectStart;
+
+        governor.onFrame(System.nanoTime() - detectStart + lastRenderNanos);
+    }
+
+    /**
+     * Sets how the frames are gated before the detection.
+     *
+     * With {@link #GATING_MOTION}, each frame is first compared with the previous ones by a {@link MotionDetector}:
+     * when nothing changed the last results are kept as they are, and when only some regions changed
+     * the cards are only detected again inside them.
+     *
+     * With {@link #GATING_FOREGROUND}, the regions are the ones a {@link ForegroundDetector} doesn't consider
+     * part of the table, and the cards are classified as soon as the region they were placed in settles.
+     *
+     * @param gatingMode one of {@link #GATING_OFF}, {@link #GATING_MOTION} or {@link #GATING_FOREGROUND}
+     */
+    public void setGatingMode(int gatingMode) {
+        if(gatingMode != GATING_OFF && gatingMode != GATING_MOTION && gatingMode != GATING_FOREGROUND)
+            throw new IllegalArgumentException("Unknown gating mode " + gatingMode);
+        this.gatingMode = gatingMode;
+    }
+
+    public int getGatingMode() {
+        return gatingMode;
+    }
+
+    /**
+     * Sets where to request high resolution frames from when new cards need to be classified.
+     *
+     * @param source source of the frames, or null to classify the cards on the detection frames
+     */
+    public void setHighResolutionSource(HighResolutionSource source) {
+        this.highResSource = source;
+    }
+
+    /**
+     * Classifies the cards without a label on a high resolution frame requested by the processor.
+     * Can be called on any thread, the labels are picked up by the next detection.
+     *
+     * @param grey high resolution frame, with the same aspect ratio as the detection frames
+     */
+    public void recognizeHighResolution(Mat grey) {
+        final Rect frameBounds = this.frameBounds;
+        if(frameBounds == null)
+            return;
+
+        tracker.getCards(highResCards);
+        recognizer.recognizeHighResolution(grey, highResCards,
+                (float) grey.cols() / frameBounds.width,
+                (float) grey.rows() / frameBounds.height);
+    }
+
+    /**
+     * Sets how the results are rendered. In overlay mode the mask isn't built at all
+     * and the render methods return the frame as it is.
+     *
+     * @param renderMode either {@link #RENDER_MASKED} or {@link #RENDER_OVERLAY}
+     */
+    public void setRenderMode(int renderMode) {
+        if(renderMode != RENDER_MASKED && renderMode != RENDER_OVERLAY)
+            throw new IllegalArgumentException("Unknown render mode " + renderMode);
+        this.renderMode = renderMode;
+        detector.setMaskEnabled(renderMode == RENDER_MASKED);
+    }
+
+    public int getRenderMode() {
+        return renderMode;
+    }
+
+    /**
+     * Draws the result of the last detection on the frame.
+     *
+     * @param rgba frame to draw on
+     * @return the frame to display, or null if it was skipped and the previous one can be kept
+     */
+    public Mat render(Mat rgba) {
+        if(!isRenderDue())
+            return null;
+        return draw(rgba, null);
+    }
+
+    /**
+     * First half of a render which only needs a region of the frame in RGBA,
+     * to be followed by {@link #render(Mat, Rect)} if it returns true.
+     *
+     * @param roi where to copy the region of the frame which is needed
+     * @return false if this frame is skipped and the previous one can be kept
+     */
+    public boolean prepareRender(Rect roi) {
+        if(!isRenderDue())
+            return false;
+
+        if(renderMode == RENDER_OVERLAY) {
+            roi.x = frameBounds.x;
+            roi.y = frameBounds.y;
+            roi.width = frameBounds.width;
+            roi.height = frameBounds.height;
+        } else {
+            detector.getRenderBounds(roi);
+        }
+        return true;
+    }
+
+    /**
+     * Draws the result of the last detection, using only the region of the frame
+     * given by {@link #prepareRender(Rect)}.
+     *
+     * @param rgbaRoi region of the frame
+     * @param roi position of the region in the frame
+     * @return the frame to display
+     */
+    public Mat render(Mat rgbaRoi, Rect roi) {
+        return draw(rgbaRoi, roi);
+    }
+
+    private boolean isRenderDue() {
+        if(++framesSinceRender < renderInterval)
+            return false;
+        framesSinceRender = 0;
+        return true;
+    }
+
+    private Mat draw(Mat rgba, Rect roi) {
+        if(renderMode == RENDER_OVERLAY) {
+            lastRenderNanos = 0;
+            return rgba;
+        }
+
+        final long renderStart = System.nanoTime();
+        final long start = profiler.start();
+        final Mat rendered = roi == null ? detector.render(rgba) : detector.render(rgba, roi);
+
+        recognizer.getLabels(renderLabels);
+        for(int i = 0; i < renderLabels.size(); i++) {
+            labelOrigin.x = renderLabels.getCentreX(i);
+            labelOrigin.y = renderLabels.getCentreY(i);
+            putText(rendered, renderLabels.getName(i), labelOrigin, FONT_HERSHEY_SIMPLEX, 2, labelColor, 4);
+        }
+        profiler.stop(StageProfiler.RENDER, start);
+
+        lastRenderNanos = System.nanoTime() - renderStart;
+        return rendered;
+    }
+
+    private void applyQuality(int level) {
+        detector.setPyramidMode(level >= QualityGovernor.REDUCED_RESOLUTION);
+        detector.setMorphologyEnabled(level < QualityGovernor.NO_MORPHOLOGY);
+        recognizer.setClassificationInterval(level >= QualityGovernor.REDUCED_CLASSIFICATION ?
+                REDUCED_CLASSIFICATION_INTERVAL : 1);
+        renderInterval = level >= QualityGovernor.REDUCED_PREVIEW ? REDUCED_RENDER_INTERVAL : 1;
+    }
+
+    /**
+     * Copies the cards of the last detected frame.
+     *
+     * @param out where to copy the cards to
+     */
+    public void getCards(CardQuads out) {
+        tracker.getCards(out);
+    }
+
+    /**
+     * Copies the labels of the last detected frame.
+     *
+     * @param out where to copy the labels to
+     */
+    public void getLabels(CardLabels out) {
+        recognizer.getLabels(out);
+    }
+
+    public CardDetector getDetector() {
+        return detector;
+    }
+
+    public CardTracker getTracker() {
+        return tracker;
+    }
+
+    public CardRecognizer getRecognizer() {
+        return recognizer;
+    }
+
+    public MotionDetector getMotionDetector() {
+        return motionDetector;
+    }
+
+    public ForegroundDetector getForegroundDetector() {
+        return foregroundDetector;
+    }
+
+    /**
+     * @return profiler recording the stages of the processing, disabled by default
+     */
+    public StageProfiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * @return governor lowering the quality of the processing under load, disabled by default
+     */
+    public QualityGovernor getGovernor() {
+        return governor;
+    }
+}
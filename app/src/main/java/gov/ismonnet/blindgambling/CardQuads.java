@@ -0,0 +1,90 @@
+package gov.ismonnet.blindgambling;
+
+/**
+ * Fixed capacity list of card quadrilaterals, stored as 4 (x, y) corners per card
+ * in a flat float array so that it can be filled every frame without allocating.
+ */
+public class CardQuads {
+
+    public static final int MAX_CARDS = 64;
+    public static final int FLOATS_PER_CARD = 8;
+
+    private final float[] corners = new float[MAX_CARDS * FLOATS_PER_CARD];
+    private int size;
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == MAX_CARDS;
+    }
+
+    /**
+     * Adds a card taking its corners from the given buffer.
+     *
+     * @param src buffer containing the corners as x0, y0, ..., x3, y3
+     * @param offset index of the first corner in the buffer
+     * @param scale factor each coordinate is multiplied by
+     * @return false if there is no more space for a card
+     */
+    public boolean add(float[] src, int offset, float scale) {
+        if(isFull())
+            return false;
+
+        final int dst = size * FLOATS_PER_CARD;
+        for(int i = 0; i < FLOATS_PER_CARD; i++)
+            corners[dst + i] = src[offset + i] * scale;
+        size++;
+        return true;
+    }
+
+    public boolean add(float[] src, int offset) {
+        return add(src, offset, 1);
+    }
+
+    public void remove(int card) {
+        final int dst = card * FLOATS_PER_CARD;
+        System.arraycopy(corners, dst + FLOATS_PER_CARD, corners, dst, (size - card - 1) * FLOATS_PER_CARD);
+        size--;
+    }
+
+    public float getX(int card, int corner) {
+        return corners[card * FLOATS_PER_CARD + corner * 2];
+    }
+
+    public float getY(int card, int corner) {
+        return corners[card * FLOATS_PER_CARD + corner * 2 + 1];
+    }
+
+    public void set(int card, int corner, float x, float y) {
+        corners[card * FLOATS_PER_CARD + corner * 2] = x;
+        corners[card * FLOATS_PER_CARD + corner * 2 + 1] = y;
+    }
+
+    /**
+     * @return the underlying buffer, with the corners of card i starting at i * FLOATS_PER_CARD
+     */
+    public float[] corners() {
+        return corners;
+    }
+
+    public void copyFrom(CardQuads other) {
+        System.arraycopy(other.corners, 0, corners, 0, other.size * FLOATS_PER_CARD);
+        size = other.size;
+    }
+
+    public float area(int card) {
+        // Shoelace formula
+        float area = 0;
+        for(int i = 0; i < 4; i++) {
+            final int j = (i + 1) % 4;
+            area += getX(card, i) * getY(card, j) - getX(card, j) * getY(card, i);
+        }
+        return Math.abs(area) / 2;
+    }
+}
@@ -0,0 +1,490 @@
+package gov.ismonnet.blindgambling;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+
+import static org.opencv.imgproc.Imgproc.INTER_LINEAR;
+import static org.opencv.imgproc.Imgproc.THRESH_BINARY_INV;
+import static org.opencv.imgproc.Imgproc.THRESH_OTSU;
+import static org.opencv.imgproc.Imgproc.getPerspectiveTransform;
+import static org.opencv.imgproc.Imgproc.threshold;
+import static org.opencv.imgproc.Imgproc.warpPerspective;
+
+/**
+ * Identifies the cards found by a {@link CardDetector} or a {@link CardTracker}.
+ *
+ * Each quad is perspective warped so that only its rank and suit corner is sampled,
+ * the corner is binarized and encoded, and the encoding is matched against all
+ * the templates of a {@link CardTemplateIndex}.
+ *
+ * Classification stops once the per-frame budget is used up; the next frame
+ * resumes from the first card which wasn't classified, and in the meantime the
+ * cards keep the label of the closest card labelled in the previous frame.
+ *
+ * In high resolution mode the detection frames are only used to carry the labels over,
+ * and the cards without one are classified on frames of a high resolution stream
+ * passed to {@link #recognizeHighResolution(Mat, CardQuads, float, float)}.
+ */
+public class CardRecognizer {
+
+    private static final long DEFAULT_BUDGET_NANOS = 4_000_000;
+
+    // Canonical size the cards are warped to, with the proportions of a poker card
+    private static final int CARD_WIDTH = 200;
+    private static final int CARD_HEIGHT = 280;
+    // Region of the canonical card containing the rank and the suit
+    private static final int CORNER_INSET = 4;
+    private static final int CORNER_WIDTH = 40;
+    private static final int CORNER_HEIGHT = 80;
+
+    // Maximum number of differing bits for a match to be accepted
+    private static final int MAX_DISTANCE = CornerEncoder.WIDTH * CornerEncoder.HEIGHT / 4;
+    // Maximum distance, in pixels, a card can move between two frames and keep its label
+    private static final float MAX_LABEL_SHIFT = 40;
+
+    private CardTemplateIndex index;
+    private long budgetNanos = DEFAULT_BUDGET_NANOS;
+    private volatile int classificationInterval = 1;
+    private int framesSinceClassification;
+
+    private CornerClassifier classifier;
+    private int nextCard;
+
+    private final Object labelsLock = new Object();
+    private CardLabels detectLabels = new CardLabels();
+    private CardLabels labels = new CardLabels();
+
+    private volatile boolean highResolution;
+    private volatile boolean unknownCards;
+    // High resolution thread only, guarded by highResLock against start and stop
+    private final Object highResLock = new Object();
+    private CornerClassifier highResClassifier;
+    private final CardLabels highResKnown = new CardLabels();
+    private final CardLabels highResResults = new CardLabels();
+    // Results of the high resolution frames not yet taken by the detection, guarded by labelsLock
+    private CardLabels pendingHighRes = new CardLabels();
+    // Detection thread only
+    private CardLabels detectHighRes = new CardLabels();
+
+    private volatile long lastFrameCost;
+    private volatile long classifiedCards;
+    private volatile long highResClassifiedCards;
+    private boolean started;
+
+    /**
+     * Builds the template index the first time it's called, then just allocates the per-frame buffers.
+     */
+    public void start() {
+        if(started)
+            stop();
+
+        if(index == null)
+            index = CardTemplateIndex.render();
+
+        classifier = new CornerClassifier();
+
+        nextCard = 0;
+        framesSinceClassification = 0;
+        unknownCards = false;
+        detectLabels.clear();
+        detectHighRes.clear();
+        synchronized (labelsLock) {
+            labels.clear();
+            pendingHighRes.clear();
+        }
+
+        synchronized (highResLock) {
+            started = true;
+        }
+    }
+
+    public void stop() {
+        synchronized (highResLock) {
+            if(!started)
+                return;
+            started = false;
+
+            if(highResClassifier != null) {
+                highResClassifier.release();
+                highResClassifier = null;
+            }
+        }
+
+        classifier.release();
+    }
+
+    /**
+     * Replaces the rendered templates, for example with corners cropped from the deck in use.
+     *
+     * @param index index to match the cards against
+     */
+    public void setTemplateIndex(CardTemplateIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * @param budgetNanos time after which no more cards are classified in the current frame
+     */
+    public void setBudgetNanos(long budgetNanos) {
+        this.budgetNanos = budgetNanos;
+    }
+
+    public long getBudgetNanos() {
+        return budgetNanos;
+    }
+
+    /**
+     * Sets every how many frames cards are classified. In the frames in between,
+     * the cards only keep the labels of the previous frame.
+     *
+     * @param classificationInterval number of frames, 1 to classify on every frame
+     */
+    public void setClassificationInterval(int classificationInterval) {
+        if(classificationInterval < 1)
+            throw new IllegalArgumentException("The classification interval must be at least 1");
+        this.classificationInterval = classificationInterval;
+    }
+
+    public int getClassificationInterval() {
+        return classificationInterval;
+    }
+
+    /**
+     * Enables or disables the high resolution mode, where the cards aren't classified
+     * on the detection frames anymore but only on the high resolution ones.
+     *
+     * @param highResolution true if high resolution frames are going to be passed
+     */
+    public void setHighResolutionMode(boolean highResolution) {
+        this.highResolution = highResolution;
+    }
+
+    public boolean isHighResolutionMode() {
+        return highResolution;
+    }
+
+    /**
+     * @return true if some of the cards of the last frame don't have a label yet
+     */
+    public boolean hasUnknownCards() {
+        return unknownCards;
+    }
+
+    public void recognize(Mat grey, CardQuads cards) {
+        final long start = System.nanoTime();
+        final CardLabels prevLabels = labels;
+        final int size = cards.size();
+
+        synchronized (labelsLock) {
+            final CardLabels tmp = pendingHighRes;
+            pendingHighRes = detectHighRes;
+            detectHighRes = tmp;
+            pendingHighRes.clear();
+        }
+
+        // Start from the labels found on the high resolution frames or in the last frame,
+        // then classify as many cards as the budget allows
+
+        detectLabels.setSize(size);
+        for(int card = 0; card < size; card++) {
+            final float centreX = centreX(cards, card);
+            final float centreY = centreY(cards, card);
+            final int highRes = closestLabel(detectHighRes, centreX, centreY);
+            final int prev = closestLabel(prevLabels, centreX, centreY);
+            if(highRes >= 0 && detectHighRes.getCard(highRes) != CardTemplateIndex.UNKNOWN)
+                detectLabels.set(card, detectHighRes.getCard(highRes), detectHighRes.getDistance(highRes),
+                        detectHighRes.getCost(highRes), centreX, centreY);
+            else if(prev < 0)
+                detectLabels.set(card, CardTemplateIndex.UNKNOWN, Integer.MAX_VALUE, 0, centreX, centreY);
+            else
+                detectLabels.set(card, prevLabels.getCard(prev), prevLabels.getDistance(prev), 0, centreX, centreY);
+        }
+
+        if(nextCard >= size)
+            nextCard = 0;
+
+        int classified = 0;
+        if(!highResolution && ++framesSinceClassification >= classificationInterval) {
+            framesSinceClassification = 0;
+            while (classified < size && (classified == 0 || System.nanoTime() - start < budgetNanos)) {
+                final int card = (nextCard + classified) % size;
+                classifier.classify(index, grey, cards, card, 1, 1, detectLabels, card);
+                classified++;
+            }
+        }
+        nextCard = size == 0 ? 0 : (nextCard + classified) % size;
+
+        boolean unknown = false;
+        for(int card = 0; card < size && !unknown; card++)
+            unknown = detectLabels.getCard(card) == CardTemplateIndex.UNKNOWN;
+        unknownCards = unknown;
+
+        lastFrameCost = System.nanoTime() - start;
+        classifiedCards += classified;
+
+        synchronized (labelsLock) {
+            final CardLabels tmp = labels;
+            labels = detectLabels;
+            detectLabels = tmp;
+        }
+    }
+
+    /**
+     * Classifies right away the cards of the last {@link #recognize(Mat, CardQuads)} whose centre
+     * is inside one of the given regions, ignoring the budget and the classification interval.
+     * Used for the cards which have just been placed on the table, so that they don't wait for their turn.
+     *
+     * @param grey frame the cards were recognized on
+     * @param cards cards passed to the last recognize
+     * @param regions regions of the frame to classify the cards of
+     * @param count number of regions
+     */
+    public void classifyRegions(Mat grey, CardQuads cards, Rect[] regions, int count) {
+        // Only this thread swaps the labels, so they can be read without the lock
+        detectLabels.copyFrom(labels);
+        if(detectLabels.size() != cards.size())
+            return;
+
+        int classified = 0;
+        for(int card = 0; card < cards.size(); card++) {
+            final float centreX = centreX(cards, card);
+            final float centreY = centreY(cards, card);
+            boolean inside = false;
+            for(int i = 0; i < count && !inside; i++) {
+                final Rect region = regions[i];
+                inside = centreX >= region.x && centreX < region.x + region.width &&
+                        centreY >= region.y && centreY < region.y + region.height;
+            }
+            if(!inside)
+                continue;
+
+            classifier.classify(index, grey, cards, card, 1, 1, detectLabels, card);
+            classified++;
+        }
+        if(classified == 0)
+            return;
+
+        boolean unknown = false;
+        for(int card = 0; card < cards.size() && !unknown; card++)
+            unknown = detectLabels.getCard(card) == CardTemplateIndex.UNKNOWN;
+        unknownCards = unknown;
+        classifiedCards += classified;
+
+        synchronized (labelsLock) {
+            final CardLabels tmp = labels;
+            labels = detectLabels;
+            detectLabels = tmp;
+        }
+    }
+
+    /**
+     * Classifies the cards of the last detected frame which don't have a label yet
+     * on a frame of a high resolution stream with the same field of view.
+     * The labels are picked up by the next {@link #recognize(Mat, CardQuads)}.
+     * Can be called on a thread different from the detection one.
+     *
+     * @param grey high resolution frame
+     * @param cards cards of the last detected frame, in detection frame coordinates
+     * @param scaleX width of the high resolution frame over the width of the detection frame
+     * @param scaleY height of the high resolution frame over the height of the detection frame
+     */
+    public void recognizeHighResolution(Mat grey, CardQuads cards, float scaleX, float scaleY) {
+        synchronized (highResLock) {
+            if(!started)
+                return;
+            if(highResClassifier == null)
+                highResClassifier = new CornerClassifier();
+
+            getLabels(highResKnown);
+
+            // Only the corners of the unknown cards are sampled from the frame
+            int results = 0;
+            for(int card = 0; card < cards.size(); card++) {
+                final float centreX = centreX(cards, card);
+                final float centreY = centreY(cards, card);
+                final int known = closestLabel(highResKnown, centreX, centreY);
+                if(known >= 0 && highResKnown.getCard(known) != CardTemplateIndex.UNKNOWN)
+                    continue;
+
+                highResResults.setSize(results + 1);
+                highResResults.set(results, CardTemplateIndex.UNKNOWN, Integer.MAX_VALUE, 0, centreX, centreY);
+                highResClassifier.classify(index, grey, cards, card, scaleX, scaleY, highResResults, results);
+                results++;
+            }
+            highResResults.setSize(results);
+            highResClassifiedCards += results;
+
+            synchronized (labelsLock) {
+                final int pending = pendingHighRes.size();
+                final int size = Math.min(CardQuads.MAX_CARDS, pending + results);
+                pendingHighRes.setSize(size);
+                for(int i = pending; i < size; i++)
+                    pendingHighRes.set(i, highResResults.getCard(i - pending), highResResults.getDistance(i - pending),
+                            highResResults.getCost(i - pending),
+                            highResResults.getCentreX(i - pending), highResResults.getCentreY(i - pending));
+            }
+        }
+    }
+
+    /**
+     * Orders the corners of a card clockwise starting from one of the two ends of a short side,
+     * so that the warped card is upright. Cards are symmetric, so either short side works.
+     */
+    private static void orderCorners(CardQuads cards, int card, float[] out) {
+        float signedArea = 0;
+        for(int i = 0; i < 4; i++) {
+            final int j = (i + 1) % 4;
+            signedArea += cards.getX(card, i) * cards.getY(card, j) - cards.getX(card, j) * cards.getY(card, i);
+        }
+        // With the y axis pointing down, a positive area means clockwise on screen
+        final int step = signedArea > 0 ? 1 : 3;
+        final int first = sideLength(cards, card, 0, step) <= sideLength(cards, card, step, step) ? 0 : step;
+
+        for(int i = 0; i < 4; i++) {
+            final int corner = (first + i * step) % 4;
+            out[i * 2] = cards.getX(card, corner);
+            out[i * 2 + 1] = cards.getY(card, corner);
+        }
+    }
+
+    private static float sideLength(CardQuads cards, int card, int from, int step) {
+        final int to = (from + step) % 4;
+        final float dx = cards.getX(card, to) - cards.getX(card, from);
+        final float dy = cards.getY(card, to) - cards.getY(card, from);
+        return (float) Math.sqrt(dx * dx + dy * dy);
+    }
+
+    private static float centreX(CardQuads cards, int card) {
+        return (cards.getX(card, 0) + cards.getX(card, 1) + cards.getX(card, 2) + cards.getX(card, 3)) / 4;
+    }
+
+    private static float centreY(CardQuads cards, int card) {
+        return (cards.getY(card, 0) + cards.getY(card, 1) + cards.getY(card, 2) + cards.getY(card, 3)) / 4;
+    }
+
+    private static int closestLabel(CardLabels labels, float centreX, float centreY) {
+        int closest = -1;
+        float closestDistance = MAX_LABEL_SHIFT * MAX_LABEL_SHIFT;
+        for(int i = 0; i < labels.size(); i++) {
+            final float dx = labels.getCentreX(i) - centreX;
+            final float dy = labels.getCentreY(i) - centreY;
+            final float distance = dx * dx + dy * dy;
+            if(distance <= closestDistance) {
+                closestDistance = distance;
+                closest = i;
+            }
+        }
+        return closest;
+    }
+
+    /**
+     * Copies the labels of the cards passed to the last {@link #recognize(Mat, CardQuads)}.
+     *
+     * @param out where to copy the labels to
+     */
+    public void getLabels(CardLabels out) {
+        synchronized (labelsLock) {
+            out.copyFrom(labels);
+        }
+    }
+
+    /**
+     * @return nanoseconds spent by the last call to {@link #recognize(Mat, CardQuads)}
+     */
+    public long getLastFrameCost() {
+        return lastFrameCost;
+    }
+
+    /**
+     * @return number of card classifications run since the recognizer was created
+     */
+    public long getClassifiedCount() {
+        return classifiedCards;
+    }
+
+    /**
+     * @return number of card classifications run on high resolution frames since the recognizer was created
+     */
+    public long getHighResolutionClassifiedCount() {
+        return highResClassifiedCards;
+    }
+
+    /**
+     * Buffers needed to classify a card, one for each thread classifying cards.
+     */
+    private static class CornerClassifier {
+
+        private final Mat corner = new Mat(CORNER_HEIGHT, CORNER_WIDTH, CvType.CV_8UC1);
+        private final Mat binaryCorner = new Mat(CORNER_HEIGHT, CORNER_WIDTH, CvType.CV_8UC1);
+        private final Size cornerSize = new Size(CORNER_WIDTH, CORNER_HEIGHT);
+        private final MatOfPoint2f srcPoints = new MatOfPoint2f();
+        private final MatOfPoint2f dstPoints = new MatOfPoint2f();
+        private final float[] quadBuffer = new float[CardQuads.FLOATS_PER_CARD];
+        private final long[] encoding = new long[CornerEncoder.WORDS];
+        private final CornerEncoder encoder = new CornerEncoder();
+
+        CornerClassifier() {
+            // The canonical card is shifted so that the corner region starts at the origin
+            srcPoints.alloc(4);
+            dstPoints.alloc(4);
+            dstPoints.put(0, 0,
+                    -CORNER_INSET, -CORNER_INSET,
+                    CARD_WIDTH - CORNER_INSET, -CORNER_INSET,
+                    CARD_WIDTH - CORNER_INSET, CARD_HEIGHT - CORNER_INSET,
+                    -CORNER_INSET, CARD_HEIGHT - CORNER_INSET);
+        }
+
+        /**
+         * Classifies a card, storing the result at the given index of the labels
+         * without changing its centre.
+         *
+         * @param scaleX scale from the coordinates of the cards to the ones of the frame, horizontally
+         * @param scaleY scale from the coordinates of the cards to the ones of the frame, vertically
+         */
+        void classify(CardTemplateIndex index, Mat grey, CardQuads cards, int card,
+                      float scaleX, float scaleY, CardLabels out, int i) {
+            final long start = System.nanoTime();
+
+            orderCorners(cards, card, quadBuffer);
+            for(int point = 0; point < 4; point++) {
+                quadBuffer[point * 2] *= scaleX;
+                quadBuffer[point * 2 + 1] *= scaleY;
+            }
+            srcPoints.put(0, 0, quadBuffer);
+
+            // Only the pixels around the corner are read, however big the frame is
+            final Mat transform = getPerspectiveTransform(srcPoints, dstPoints);
+            warpPerspective(grey, corner, transform, cornerSize, INTER_LINEAR);
+            transform.release();
+
+            threshold(corner, binaryCorner, 0, 255, THRESH_BINARY_INV | THRESH_OTSU);
+
+            int bestCard = CardTemplateIndex.UNKNOWN;
+            int bestDistance = Integer.MAX_VALUE;
+            if(encoder.encode(binaryCorner, encoding, 0)) {
+                for(int template = 0; template < CardTemplateIndex.CARDS; template++) {
+                    final int distance = index.distance(template, encoding);
+                    if(distance < bestDistance) {
+                        bestDistance = distance;
+                        bestCard = template;
+                    }
+                }
+                if(bestDistance > MAX_DISTANCE)
+                    bestCard = CardTemplateIndex.UNKNOWN;
+            }
+
+            out.set(i, bestCard, bestDistance, System.nanoTime() - start, out.getCentreX(i), out.getCentreY(i));
+        }
+
+        void release() {
+            corner.release();
+            binaryCorner.release();
+            srcPoints.release();
+            dstPoints.release();
+            encoder.release();
+        }
+    }
+}
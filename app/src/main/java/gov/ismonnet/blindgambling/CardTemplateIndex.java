@@ -0,0 +1,140 @@
+package gov.ismonnet.blindgambling;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+
+import static org.opencv.imgproc.Imgproc.FILLED;
+import static org.opencv.imgproc.Imgproc.FONT_HERSHEY_SIMPLEX;
+import static org.opencv.imgproc.Imgproc.circle;
+import static org.opencv.imgproc.Imgproc.fillConvexPoly;
+import static org.opencv.imgproc.Imgproc.getTextSize;
+import static org.opencv.imgproc.Imgproc.putText;
+
+/**
+ * Memory resident index of the rank and suit corner of the 52 cards,
+ * each one encoded by a {@link CornerEncoder} and matched by Hamming distance.
+ *
+ * Cards are identified by suit * {@link #RANKS} + rank.
+ * The index is built once, either rendered with {@link #render()}
+ * or filled with corners cropped from real cards with {@link #set(int, Mat)}.
+ */
+public class CardTemplateIndex {
+
+    public static final int RANKS = 13;
+    public static final int SUITS = 4;
+    public static final int CARDS = RANKS * SUITS;
+
+    public static final int UNKNOWN = -1;
+
+    private static final String[] RANK_NAMES = { "A", "2", "3", "4", "5", "6", "7", "8", "9", "10", "J", "Q", "K" };
+    private static final String[] SUIT_NAMES = { "S", "H", "D", "C" };
+    private static final String[] CARD_NAMES = new String[CARDS];
+
+    static {
+        for(int card = 0; card < CARDS; card++)
+            CARD_NAMES[card] = RANK_NAMES[card % RANKS] + SUIT_NAMES[card / RANKS];
+    }
+
+    private final long[] templates = new long[CARDS * CornerEncoder.WORDS];
+    private final CornerEncoder encoder = new CornerEncoder();
+
+    /**
+     * Builds an index drawing the rank of each card with the Hershey font
+     * above a drawn suit symbol.
+     */
+    public static CardTemplateIndex render() {
+        final CardTemplateIndex index = new CardTemplateIndex();
+        final Mat corner = new Mat(CornerEncoder.HEIGHT, CornerEncoder.WIDTH, CvType.CV_8UC1);
+        final Scalar ink = new Scalar(255);
+
+        for(int card = 0; card < CARDS; card++) {
+            corner.setTo(new Scalar(0));
+            drawCorner(corner, card, ink);
+            index.set(card, corner);
+        }
+
+        corner.release();
+        return index;
+    }
+
+    /**
+     * Draws the rank above the suit of a card.
+     *
+     * @param corner {@link CornerEncoder#WIDTH}x{@link CornerEncoder#HEIGHT} image to draw on
+     * @param card card id
+     * @param ink color of the rank and the suit
+     */
+    static void drawCorner(Mat corner, int card, Scalar ink) {
+        drawRank(corner, RANK_NAMES[card % RANKS], ink);
+        drawSuit(corner, card / RANKS, ink);
+    }
+
+    private static void drawRank(Mat corner, String rank, Scalar ink) {
+        final int boxWidth = CornerEncoder.WIDTH - 4;
+        final int boxHeight = CornerEncoder.HEIGHT / 2 - 6;
+
+        final Size size = getTextSize(rank, FONT_HERSHEY_SIMPLEX, 1, 2, new int[1]);
+        final double scale = Math.min(boxWidth / size.width, boxHeight / size.height);
+        final Point origin = new Point(
+                (CornerEncoder.WIDTH - size.width * scale) / 2,
+                2 + size.height * scale);
+        putText(corner, rank, origin, FONT_HERSHEY_SIMPLEX, scale, ink, 2);
+    }
+
+    private static void drawSuit(Mat corner, int suit, Scalar ink) {
+        switch (suit) {
+            case 0: // Spades
+                circle(corner, new Point(11, 50), 6, ink, FILLED);
+                circle(corner, new Point(21, 50), 6, ink, FILLED);
+                fillConvexPoly(corner, new MatOfPoint(new Point(5, 48), new Point(27, 48), new Point(16, 35)), ink);
+                fillConvexPoly(corner, new MatOfPoint(new Point(16, 50), new Point(12, 62), new Point(20, 62)), ink);
+                break;
+            case 1: // Hearts
+                circle(corner, new Point(11, 44), 6, ink, FILLED);
+                circle(corner, new Point(21, 44), 6, ink, FILLED);
+                fillConvexPoly(corner, new MatOfPoint(new Point(5, 46), new Point(27, 46), new Point(16, 60)), ink);
+                break;
+            case 2: // Diamonds
+                fillConvexPoly(corner, new MatOfPoint(new Point(16, 35), new Point(27, 48), new Point(16, 61), new Point(5, 48)), ink);
+                break;
+            case 3: // Clubs
+                circle(corner, new Point(16, 40), 6, ink, FILLED);
+                circle(corner, new Point(10, 50), 6, ink, FILLED);
+                circle(corner, new Point(22, 50), 6, ink, FILLED);
+                fillConvexPoly(corner, new MatOfPoint(new Point(16, 48), new Point(12, 62), new Point(20, 62)), ink);
+                break;
+        }
+    }
+
+    /**
+     * Replaces the template of a card.
+     *
+     * @param card card id
+     * @param binaryCorner binary image of the corner, with the ink != 0
+     */
+    public void set(int card, Mat binaryCorner) {
+        if(!encoder.encode(binaryCorner, templates, card * CornerEncoder.WORDS))
+            throw new IllegalArgumentException("The corner of " + name(card) + " contains no ink");
+    }
+
+    /**
+     * @param card card id
+     * @param corner corner encoded by a {@link CornerEncoder}
+     * @return number of bits which differ between the template of the card and the corner
+     */
+    public int distance(int card, long[] corner) {
+        final int offset = card * CornerEncoder.WORDS;
+        int distance = 0;
+        for(int word = 0; word < CornerEncoder.WORDS; word++)
+            distance += Long.bitCount(templates[offset + word] ^ corner[word]);
+        return distance;
+    }
+
+    public static String name(int card) {
+        return card == UNKNOWN ? "?" : CARD_NAMES[card];
+    }
+}
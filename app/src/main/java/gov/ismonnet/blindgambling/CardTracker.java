@@ -0,0 +1,288 @@
+package gov.ismonnet.blindgambling;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.core.TermCriteria;
+import org.opencv.video.SparsePyrLKOpticalFlow;
+
+/**
+ * Follows the cards found by a {@link CardDetector} between frames using
+ * sparse Lucas-Kanade optical flow on their corners, so that the full
+ * contour based detection only needs to run every few frames.
+ *
+ * A detection is run when the configured number of frames has passed
+ * since the last one, when there is nothing to track, or when too many
+ * cards have been lost by the tracker in the last frame.
+ */
+public class CardTracker {
+
+    private static final int DEFAULT_REDETECTION_INTERVAL = 5;
+    private static final float DEFAULT_MIN_CONFIDENCE = 0.75f;
+
+    // Maximum LK error accepted for a corner, before considering it lost
+    private static final float MAX_CORNER_ERROR = 20;
+    // Maximum area change between two frames, before considering the card lost
+    private static final float MAX_AREA_CHANGE = 0.3f;
+
+    private final CardDetector detector;
+
+    private int redetectionInterval = DEFAULT_REDETECTION_INTERVAL;
+    private float minConfidence = DEFAULT_MIN_CONFIDENCE;
+
+    private SparsePyrLKOpticalFlow opticalFlow;
+    private Mat prevGrey;
+    private MatOfPoint2f prevPoints;
+    private MatOfPoint2f nextPoints;
+    private MatOfByte status;
+    private MatOfFloat error;
+    private float[] pointsBuffer;
+    private byte[] statusBuffer;
+    private float[] errorBuffer;
+
+    private final Object cardsLock = new Object();
+    private final CardQuads tracked = new CardQuads();
+    private final CardQuads published = new CardQuads();
+
+    private StageProfiler profiler = StageProfiler.DISABLED;
+
+    private int framesSinceDetection;
+    private boolean forceDetection;
+    private boolean started;
+
+    private volatile long detectedFrames;
+    private volatile long regionDetectedFrames;
+    private volatile long trackedFrames;
+    private volatile long lostTracks;
+    private volatile long forcedDetections;
+
+    public CardTracker(CardDetector detector) {
+        this.detector = detector;
+    }
+
+    public void start(int width, int height) {
+        if(started)
+            stop();
+
+        opticalFlow = SparsePyrLKOpticalFlow.create(
+                new Size(15, 15), 2,
+                new TermCriteria(TermCriteria.COUNT + TermCriteria.EPS, 20, 0.03));
+        prevGrey = new Mat(height, width, CvType.CV_8UC1);
+        prevPoints = new MatOfPoint2f();
+        nextPoints = new MatOfPoint2f();
+        status = new MatOfByte();
+        error = new MatOfFloat();
+        pointsBuffer = new float[CardQuads.MAX_CARDS * CardQuads.FLOATS_PER_CARD];
+        statusBuffer = new byte[CardQuads.MAX_CARDS * 4];
+        errorBuffer = new float[CardQuads.MAX_CARDS * 4];
+
+        tracked.clear();
+        synchronized (cardsLock) {
+            published.clear();
+        }
+        forceDetection = true;
+        detectedFrames = 0;
+        regionDetectedFrames = 0;
+        trackedFrames = 0;
+        lostTracks = 0;
+        forcedDetections = 0;
+
+        started = true;
+    }
+
+    public void stop() {
+        if(!started)
+            return;
+        started = false;
+
+        prevGrey.release();
+        prevPoints.release();
+        nextPoints.release();
+        status.release();
+        error.release();
+        opticalFlow = null;
+    }
+
+    /**
+     * Sets after how many frames a full detection is run, even if the tracking is going fine.
+     *
+     * @param redetectionInterval number of frames, 1 to detect on every frame
+     */
+    public void setRedetectionInterval(int redetectionInterval) {
+        if(redetectionInterval < 1)
+            throw new IllegalArgumentException("The redetection interval must be at least 1");
+        this.redetectionInterval = redetectionInterval;
+    }
+
+    public int getRedetectionInterval() {
+        return redetectionInterval;
+    }
+
+    /**
+     * Sets the fraction of cards which need to survive a tracking step,
+     * below which a full detection is run on the next frame.
+     *
+     * @param minConfidence fraction between 0 and 1
+     */
+    public void setMinConfidence(float minConfidence) {
+        this.minConfidence = minConfidence;
+    }
+
+    public float getMinConfidence() {
+        return minConfidence;
+    }
+
+    /**
+     * @param profiler where to record how long each tracking step takes
+     */
+    public void setProfiler(StageProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    public void process(Mat grey) {
+        if(forceDetection || tracked.size() == 0 || framesSinceDetection >= redetectionInterval) {
+            detect(grey);
+        } else {
+            final long start = profiler.start();
+            track(grey);
+            profiler.stop(StageProfiler.TRACK, start);
+        }
+
+        grey.copyTo(prevGrey);
+
+        synchronized (cardsLock) {
+            published.copyFrom(tracked);
+        }
+    }
+
+    /**
+     * Like {@link #process(Mat)}, but only the given regions of the frame changed since the last processed one.
+     * The cards are detected again inside them instead of being tracked, which would miss the new ones,
+     * while the cards outside are kept as they are.
+     *
+     * @param grey frame to process
+     * @param regions regions of the frame which changed
+     * @param count number of regions
+     */
+    public void process(Mat grey, Rect[] regions, int count) {
+        if(forceDetection) {
+            process(grey);
+            return;
+        }
+
+        detector.detectRegions(grey, regions, count, tracked);
+        detector.getCards(tracked);
+        regionDetectedFrames++;
+
+        grey.copyTo(prevGrey);
+
+        synchronized (cardsLock) {
+            published.copyFrom(tracked);
+        }
+    }
+
+    private void detect(Mat grey) {
+        detector.detect(grey);
+        detector.getCards(tracked);
+
+        framesSinceDetection = 1;
+        forceDetection = false;
+        detectedFrames++;
+    }
+
+    private void track(Mat grey) {
+        final int cards = tracked.size();
+        final int points = cards * 4;
+
+        prevPoints.create(points, 1, CvType.CV_32FC2);
+        prevPoints.put(0, 0, tracked.corners());
+
+        opticalFlow.calc(prevGrey, grey, prevPoints, nextPoints, status, error);
+
+        nextPoints.get(0, 0, pointsBuffer);
+        status.get(0, 0, statusBuffer);
+        error.get(0, 0, errorBuffer);
+
+        // Update the cards whose corners have all been found, drop the others
+
+        for(int card = cards - 1; card >= 0; card--) {
+            boolean found = true;
+            for(int corner = 0; corner < 4 && found; corner++) {
+                final int point = card * 4 + corner;
+                found = statusBuffer[point] != 0 && errorBuffer[point] <= MAX_CORNER_ERROR;
+            }
+
+            if(found) {
+                final float prevArea = tracked.area(card);
+                for(int corner = 0; corner < 4; corner++) {
+                    final int point = card * 4 + corner;
+                    tracked.set(card, corner, pointsBuffer[point * 2], pointsBuffer[point * 2 + 1]);
+                }
+                found = Math.abs(tracked.area(card) - prevArea) <= MAX_AREA_CHANGE * prevArea;
+            }
+
+            if(!found) {
+                tracked.remove(card);
+                lostTracks++;
+            }
+        }
+
+        framesSinceDetection++;
+        trackedFrames++;
+
+        if(tracked.size() < minConfidence * cards) {
+            forceDetection = true;
+            forcedDetections++;
+        }
+    }
+
+    /**
+     * Copies the cards found in the last processed frame, either detected or tracked.
+     *
+     * @param out where to copy the cards to
+     */
+    public void getCards(CardQuads out) {
+        synchronized (cardsLock) {
+            out.copyFrom(published);
+        }
+    }
+
+    /**
+     * @return number of frames where the full detection was run
+     */
+    public long getDetectedFrameCount() {
+        return detectedFrames;
+    }
+
+    /**
+     * @return number of frames where the detection was only run inside the regions which changed
+     */
+    public long getRegionDetectedFrameCount() {
+        return regionDetectedFrames;
+    }
+
+    /**
+     * @return number of frames where the cards were only tracked
+     */
+    public long getTrackedFrameCount() {
+        return trackedFrames;
+    }
+
+    /**
+     * @return number of cards dropped by the tracker since it started
+     */
+    public long getLostTrackCount() {
+        return lostTracks;
+    }
+
+    /**
+     * @return number of detections run before the interval because too many cards were lost
+     */
+    public long getForcedDetectionCount() {
+        return forcedDetections;
+    }
+}
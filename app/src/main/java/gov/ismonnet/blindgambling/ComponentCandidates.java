@@ -0,0 +1,154 @@
+package gov.ismonnet.blindgambling;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+
+import static org.opencv.imgproc.Imgproc.CC_STAT_AREA;
+import static org.opencv.imgproc.Imgproc.CC_STAT_HEIGHT;
+import static org.opencv.imgproc.Imgproc.CC_STAT_LEFT;
+import static org.opencv.imgproc.Imgproc.CC_STAT_TOP;
+import static org.opencv.imgproc.Imgproc.CC_STAT_WIDTH;
+import static org.opencv.imgproc.Imgproc.INTER_AREA;
+import static org.opencv.imgproc.Imgproc.THRESH_BINARY;
+import static org.opencv.imgproc.Imgproc.connectedComponentsWithStats;
+import static org.opencv.imgproc.Imgproc.resize;
+import static org.opencv.imgproc.Imgproc.threshold;
+
+/**
+ * Finds the regions of a binary image where a card can be, so that the contours
+ * only need to be extracted there instead of for every speck of the image.
+ *
+ * Each card is the white region inside the black border the threshold leaves around it,
+ * so it's a single 8-connected component. The components are labelled in one call,
+ * and their bounding boxes and areas are filtered in bulk from the table of stats:
+ * a card needs a bounding box at least as big as the minimum card area,
+ * enough white pixels in it and can't touch the borders of the image.
+ * The boxes left are padded and merged when they overlap, so that each contour
+ * is entirely inside a single region and a card and what's drawn on it end up in the same one.
+ *
+ * Collecting the stats costs more than the labelling itself, so the components are labelled
+ * on an image of half the size, where a pixel is only white if the four it replaces are:
+ * the black borders can only get thicker, so the components never merge.
+ */
+class ComponentCandidates {
+
+    // Returned by find when there are too many candidates for the regions to be worth it
+    static final int TOO_MANY = -1;
+
+    private static final int DEFAULT_MAX_CANDIDATES = 32;
+    // Fraction of the minimum card area which has to be white, the rest being the symbols
+    private static final double MIN_FILL = 0.5;
+    // Padding, in pixels, around each candidate, so the border of the component is inside the region
+    private static final int PADDING = 6;
+
+    private final int maxCandidates;
+    private final Rect[] regions;
+    private int regionCount;
+
+    private Size smallSize;
+    private Mat small;
+    private Mat labels;
+    private Mat stats;
+    private Mat centroids;
+    private int[] statsBuffer = new int[CC_STAT_AREA + 1];
+
+    ComponentCandidates() {
+        this(DEFAULT_MAX_CANDIDATES);
+    }
+
+    /**
+     * @param maxCandidates candidates past which the whole image is better searched at once
+     */
+    ComponentCandidates(int maxCandidates) {
+        if(maxCandidates < 1)
+            throw new IllegalArgumentException("At least one candidate is needed");
+        this.maxCandidates = maxCandidates;
+        this.regions = new Rect[maxCandidates];
+        for(int i = 0; i < maxCandidates; i++)
+            regions[i] = new Rect();
+    }
+
+    /**
+     * @param width width of the binary images
+     * @param height height of the binary images
+     */
+    void start(int width, int height) {
+        smallSize = new Size(Math.max(1, width / 2), Math.max(1, height / 2));
+        small = new Mat((int) smallSize.height, (int) smallSize.width, CvType.CV_8UC1);
+        labels = new Mat();
+        stats = new Mat();
+        centroids = new Mat();
+        regionCount = 0;
+    }
+
+    void stop() {
+        small.release();
+        labels.release();
+        stats.release();
+        centroids.release();
+    }
+
+    /**
+     * @param binary binary image, with the cards white
+     * @param minArea minimum area of a card
+     * @return number of regions to search, or {@link #TOO_MANY}
+     */
+    int find(Mat binary, double minArea) {
+        regionCount = 0;
+
+        // A 2x2 block only averages to 255 when all of its pixels are white
+        final int smallWidth = (int) smallSize.width;
+        final int smallHeight = (int) smallSize.height;
+        final Mat even = binary.submat(0, smallHeight * 2, 0, smallWidth * 2);
+        resize(even, small, smallSize, 0, 0, INTER_AREA);
+        even.release();
+        threshold(small, small, 254, 255, THRESH_BINARY);
+
+        final int count = connectedComponentsWithStats(small, labels, stats, centroids, 8, CvType.CV_32S);
+        final int columns = stats.cols();
+        if(statsBuffer.length < count * columns)
+            statsBuffer = new int[Integer.highestOneBit(count * columns) * 2];
+        stats.get(0, 0, statsBuffer);
+
+        int found = 0;
+        // The first label is the background
+        for(int i = 1; i < count; i++) {
+            final int offset = i * columns;
+            final int x = statsBuffer[offset + CC_STAT_LEFT];
+            final int y = statsBuffer[offset + CC_STAT_TOP];
+            final int width = statsBuffer[offset + CC_STAT_WIDTH];
+            final int height = statsBuffer[offset + CC_STAT_HEIGHT];
+            // Each side lost up to a pixel to the halving
+            if((double) (width * 2 + 2) * (height * 2 + 2) < minArea ||
+                    statsBuffer[offset + CC_STAT_AREA] * 4 < minArea * MIN_FILL)
+                continue;
+            if(x <= 0 || y <= 0 || x + width >= smallWidth || y + height >= smallHeight)
+                continue;
+
+            if(found == maxCandidates)
+                return TOO_MANY;
+
+            final Rect region = regions[found++];
+            region.x = Math.max(0, x * 2 - PADDING);
+            region.y = Math.max(0, y * 2 - PADDING);
+            region.width = Math.min(binary.cols(), (x + width) * 2 + PADDING) - region.x;
+            region.height = Math.min(binary.rows(), (y + height) * 2 + PADDING) - region.y;
+        }
+
+        regionCount = MotionDetector.mergeOverlapping(regions, found);
+        return regionCount;
+    }
+
+    /**
+     * @return the regions found by the last call to find
+     */
+    Rect[] getRegions() {
+        return regions;
+    }
+
+    int getRegionCount() {
+        return regionCount;
+    }
+}
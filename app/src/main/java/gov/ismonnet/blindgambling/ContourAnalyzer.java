@@ -0,0 +1,274 @@
+package gov.ismonnet.blindgambling;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Rect;
+
+import java.util.List;
+
+/**
+ * Contour analysis over primitive arrays.
+ *
+ * The points and the hierarchy returned by findContours are read once per frame into
+ * flat int arrays, then areas, perimeters, hierarchy checks and polygon approximation
+ * are computed in plain Java by {@link ContourGeometry}, without a JNI call or an
+ * allocation per contour.
+ *
+ * Contour i is made of the points from {@code offsets[i]} (inclusive) to {@code offsets[i + 1]}
+ * (exclusive), stored as x, y pairs in {@code points}.
+ * The hierarchy uses the layout of OpenCV: [Next, Previous, First_Child, Parent].
+ */
+public class ContourAnalyzer {
+
+    private int count;
+    private int[] offsets = new int[257];
+    private int[] points = new int[2 * 4096];
+    private int[] hierarchy = new int[4 * 256];
+    private double[] areas = new double[256];
+    private int[] contourBuffer = new int[2 * 256];
+
+    private final ContourGeometry geometry = new ContourGeometry();
+
+    // Scratch buffers of findQuads
+    private boolean[] cards = new boolean[256];
+    private int[] candidates = new int[256];
+    private final int[] quadVertices = new int[8];
+    private final float[] quad = new float[CardQuads.FLOATS_PER_CARD];
+
+    /**
+     * Bulk reads contours and hierarchy returned by findContours.
+     *
+     * @param contours contours, which can be released as soon as this returns
+     * @param hierarchyMat hierarchy of the contours
+     */
+    public void load(List<MatOfPoint> contours, Mat hierarchyMat) {
+        final int count = contours.size();
+        ensureContourCapacity(count);
+
+        int pointCount = 0;
+        for(int i = 0; i < count; i++) {
+            final MatOfPoint contour = contours.get(i);
+            final int length = 2 * contour.rows();
+            ensurePointCapacity(pointCount + length);
+
+            offsets[i] = pointCount;
+            if(length > 0) {
+                if(contourBuffer.length < length)
+                    contourBuffer = new int[Integer.highestOneBit(length) * 2];
+                contour.get(0, 0, contourBuffer);
+                System.arraycopy(contourBuffer, 0, points, pointCount, length);
+            }
+            pointCount += length;
+        }
+        offsets[count] = pointCount;
+
+        if(count > 0)
+            hierarchyMat.get(0, 0, hierarchy);
+
+        this.count = count;
+        computeAreas();
+    }
+
+    /**
+     * Copies contours which are already in flat arrays.
+     *
+     * @param count number of contours
+     * @param offsets start of each contour in points, followed by the end of the last one
+     * @param points x, y pairs of all the contours
+     * @param hierarchy [Next, Previous, First_Child, Parent] of each contour
+     */
+    public void set(int count, int[] offsets, int[] points, int[] hierarchy) {
+        ensureContourCapacity(count);
+        ensurePointCapacity(offsets[count]);
+
+        System.arraycopy(offsets, 0, this.offsets, 0, count + 1);
+        System.arraycopy(points, 0, this.points, 0, offsets[count]);
+        System.arraycopy(hierarchy, 0, this.hierarchy, 0, 4 * count);
+
+        this.count = count;
+        computeAreas();
+    }
+
+    private void computeAreas() {
+        for(int i = 0; i < count; i++)
+            areas[i] = ContourGeometry.contourArea(points, offsets[i], length(i));
+    }
+
+    public int count() {
+        return count;
+    }
+
+    /**
+     * @param contour contour index
+     * @return number of points of the contour
+     */
+    public int length(int contour) {
+        return (offsets[contour + 1] - offsets[contour]) / 2;
+    }
+
+    public int getX(int contour, int point) {
+        return points[offsets[contour] + 2 * point];
+    }
+
+    public int getY(int contour, int point) {
+        return points[offsets[contour] + 2 * point + 1];
+    }
+
+    /**
+     * @param contour contour index
+     * @return same as Imgproc.contourArea, computed when the contours are loaded
+     */
+    public double area(int contour) {
+        return areas[contour];
+    }
+
+    /**
+     * @param contour contour index
+     * @return same as Imgproc.arcLength of the closed contour
+     */
+    public double perimeter(int contour) {
+        return ContourGeometry.arcLength(points, offsets[contour], length(contour), true);
+    }
+
+    public int parent(int contour) {
+        return hierarchy[4 * contour + 3];
+    }
+
+    public int firstChild(int contour) {
+        return hierarchy[4 * contour + 2];
+    }
+
+    public boolean isLeaf(int contour) {
+        return hierarchy[4 * contour + 2] == -1;
+    }
+
+    /**
+     * @param contour contour index
+     * @return whether the contour is the border of a hole instead of the outer border of a region
+     */
+    public boolean isHole(int contour) {
+        // In the tree returned by RETR_TREE, outer borders and holes alternate
+        boolean hole = false;
+        for(int parent = parent(contour); parent != -1; parent = parent(parent))
+            hole = !hole;
+        return hole;
+    }
+
+    /**
+     * @param contour outer border of a region
+     * @return outer border of the region containing it, or -1
+     */
+    public int enclosingRegion(int contour) {
+        // The parent of an outer border is a hole, so the enclosing region is its parent
+        final int parent = parent(contour);
+        return parent == -1 ? -1 : parent(parent);
+    }
+
+    /**
+     * Searches the outer borders which can be approximated with a quadrilateral,
+     * skipping the ones inside another quadrilateral.
+     *
+     * @param minArea minimum area of a quadrilateral
+     * @param epsilonFraction approximation accuracy, as a fraction of the perimeter
+     * @param bounds region searched; quadrilaterals touching its borders are discarded
+     * @param scale factor each coordinate is multiplied by before being added to out
+     * @param out where to add the quadrilaterals found, from the biggest to the smallest
+     */
+    public void findQuads(double minArea, double epsilonFraction, Rect bounds, float scale, CardQuads out) {
+
+        // Sort the candidates by size, so that when checking whether
+        // a contour is a card, its enclosing region has already been checked
+
+        int candidateCount = 0;
+        for(int i = 0; i < count; i++) {
+            cards[i] = false;
+            if(areas[i] >= minArea && !isHole(i))
+                candidates[candidateCount++] = i;
+        }
+
+        for(int i = 1; i < candidateCount; i++) {
+            final int contour = candidates[i];
+            int j = i - 1;
+            while (j >= 0 && areas[candidates[j]] < areas[contour]) {
+                candidates[j + 1] = candidates[j];
+                j--;
+            }
+            candidates[j + 1] = contour;
+        }
+
+        for(int i = 0; i < candidateCount; i++) {
+            final int contour = candidates[i];
+
+            // Not in another card
+
+            final int enclosing = enclosingRegion(contour);
+            if(enclosing != -1 && cards[enclosing])
+                continue;
+
+            // Is a quad
+
+            if(approxPolyDP(contour, epsilonFraction * perimeter(contour), quadVertices) != 4)
+                continue;
+
+            for(int j = 0; j < CardQuads.FLOATS_PER_CARD; j++)
+                quad[j] = quadVertices[j];
+
+            // Fully inside the searched region, which otherwise
+            // would be the border of the image itself
+
+            if(touchesBounds(quad, bounds))
+                continue;
+
+            cards[contour] = true;
+            if(!out.add(quad, 0, scale))
+                break;
+        }
+    }
+
+    private static boolean touchesBounds(float[] quad, Rect bounds) {
+        for(int i = 0; i < 8; i += 2)
+            if(quad[i] <= bounds.x + 1 || quad[i] >= bounds.x + bounds.width - 2 ||
+                    quad[i + 1] <= bounds.y + 1 || quad[i + 1] >= bounds.y + bounds.height - 2)
+                return true;
+        return false;
+    }
+
+    /**
+     * @param contour contour index
+     * @param epsilon maximum distance between the contour and its approximation
+     * @param out where to write the x, y pairs of the vertices, if there is enough space
+     * @return number of vertices of the same approximation as Imgproc.approxPolyDP
+     */
+    public int approxPolyDP(int contour, double epsilon, int[] out) {
+        return geometry.approxPolyDP(points, offsets[contour], length(contour), epsilon, out);
+    }
+
+    /**
+     * @param contour contour index
+     * @param out where to write the x, y pairs of the corners of the same box as Imgproc.minAreaRect
+     */
+    public void minAreaRect(int contour, float[] out) {
+        geometry.minAreaRect(points, offsets[contour], length(contour), out);
+    }
+
+    private void ensureContourCapacity(int count) {
+        if(areas.length >= count)
+            return;
+
+        final int capacity = Integer.highestOneBit(count) * 2;
+        offsets = new int[capacity + 1];
+        hierarchy = new int[4 * capacity];
+        areas = new double[capacity];
+        cards = new boolean[capacity];
+        candidates = new int[capacity];
+    }
+
+    private void ensurePointCapacity(int length) {
+        if(points.length >= length)
+            return;
+
+        final int[] grown = new int[Integer.highestOneBit(length) * 2];
+        System.arraycopy(points, 0, grown, 0, points.length);
+        points = grown;
+    }
+}
@@ -0,0 +1,430 @@
+package gov.ismonnet.blindgambling;
+
+/**
+ * Pure Java versions of the Imgproc geometry functions used on contours,
+ * working on x, y pairs stored in primitive arrays.
+ *
+ * Each point buffer is passed with the index of the x of its first point and the number of points.
+ * contourArea and arcLength take both int and float points, while approxPolyDP and minAreaRect
+ * only take the int points of the contours, which lets the hull and the calipers work in exact
+ * integer arithmetic; minAreaRect returns the 4 corners of the box instead of a RotatedRect.
+ * The static methods don't need any state, while approxPolyDP and minAreaRect keep their
+ * scratch buffers in the instance, so that they don't allocate once the buffers are big enough.
+ * An instance must not be shared between threads.
+ */
+public class ContourGeometry {
+
+    private int[] approx = new int[2 * 256];
+    private int[] stack = new int[2 * 64];
+    private int[] hull = new int[2 * 256];
+    private long[] sortKeys = new long[256];
+
+    /**
+     * @return same as Imgproc.contourArea, without orientation
+     */
+    public static double contourArea(int[] points, int offset, int count) {
+        if(count < 3)
+            return 0;
+
+        // Shoelace formula
+        final int end = offset + 2 * count;
+        double area = 0;
+        int prevX = points[end - 2], prevY = points[end - 1];
+        for(int i = offset; i < end; i += 2) {
+            area += (double) prevX * points[i + 1] - (double) prevY * points[i];
+            prevX = points[i];
+            prevY = points[i + 1];
+        }
+        return Math.abs(area * 0.5);
+    }
+
+    /**
+     * @return same as Imgproc.contourArea, without orientation
+     */
+    public static double contourArea(float[] points, int offset, int count) {
+        if(count < 3)
+            return 0;
+
+        final int end = offset + 2 * count;
+        double area = 0;
+        double prevX = points[end - 2], prevY = points[end - 1];
+        for(int i = offset; i < end; i += 2) {
+            area += prevX * points[i + 1] - prevY * points[i];
+            prevX = points[i];
+            prevY = points[i + 1];
+        }
+        return Math.abs(area * 0.5);
+    }
+
+    /**
+     * @return same as Imgproc.arcLength
+     */
+    public static double arcLength(int[] points, int offset, int count, boolean closed) {
+        if(count < 2)
+            return 0;
+
+        final int end = offset + 2 * count;
+        double length = 0;
+        int prevX = points[closed ? end - 2 : offset], prevY = points[closed ? end - 1 : offset + 1];
+        for(int i = closed ? offset : offset + 2; i < end; i += 2) {
+            final double dx = points[i] - prevX;
+            final double dy = points[i + 1] - prevY;
+            length += Math.sqrt(dx * dx + dy * dy);
+            prevX = points[i];
+            prevY = points[i + 1];
+        }
+        return length;
+    }
+
+    /**
+     * @return same as Imgproc.arcLength
+     */
+    public static double arcLength(float[] points, int offset, int count, boolean closed) {
+        if(count < 2)
+            return 0;
+
+        final int end = offset + 2 * count;
+        double length = 0;
+        float prevX = points[closed ? end - 2 : offset], prevY = points[closed ? end - 1 : offset + 1];
+        for(int i = closed ? offset : offset + 2; i < end; i += 2) {
+            final double dx = points[i] - prevX;
+            final double dy = points[i + 1] - prevY;
+            length += Math.sqrt(dx * dx + dy * dy);
+            prevX = points[i];
+            prevY = points[i + 1];
+        }
+        return length;
+    }
+
+    /**
+     * Port of Imgproc.approxPolyDP for closed contours, which gives the same vertices.
+     *
+     * @param epsilon maximum distance between the contour and its approximation
+     * @param out where to write the x, y pairs of the vertices, if there is enough space
+     * @return number of vertices of the approximation
+     */
+    public int approxPolyDP(int[] points, int offset, int count, double epsilon, int[] out) {
+        final int n = count;
+        if(n == 0)
+            return 0;
+        if(approx.length < 2 * n)
+            approx = new int[Integer.highestOneBit(2 * n) * 2];
+
+        final double eps = epsilon * epsilon;
+        int top = 0;
+        int written = 0;
+
+        // 1. Find approximately the two farthest points of the contour
+
+        int pos = 0;
+        int farthest = 0;
+        int startX = 0, startY = 0;
+        boolean leEps = false;
+        for(int iter = 0; iter < 3; iter++) {
+            pos = (pos + farthest) % n;
+            startX = points[offset + 2 * pos];
+            startY = points[offset + 2 * pos + 1];
+
+            double maxDist = 0;
+            int p = pos;
+            for(int j = 1; j < n; j++) {
+                if(++p == n) p = 0;
+                final double dx = points[offset + 2 * p] - startX;
+                final double dy = points[offset + 2 * p + 1] - startY;
+                final double dist = dx * dx + dy * dy;
+                if(dist > maxDist) {
+                    maxDist = dist;
+                    farthest = j;
+                }
+            }
+            leEps = maxDist <= eps;
+        }
+
+        // 2. Initialize the stack with the two halves of the contour
+
+        if(!leEps) {
+            final int first = pos % n;
+            final int second = (farthest + first) % n;
+            stack = push(stack, top++, second, first);
+            stack = push(stack, top++, first, second);
+        } else {
+            approx[written++] = startX;
+            approx[written++] = startY;
+        }
+
+        // 3. Split each slice at its farthest point until it's close enough to a segment
+
+        while (top > 0) {
+            top--;
+            final int sliceStart = stack[2 * top];
+            final int sliceEnd = stack[2 * top + 1];
+
+            final int endX = points[offset + 2 * sliceEnd];
+            final int endY = points[offset + 2 * sliceEnd + 1];
+            startX = points[offset + 2 * sliceStart];
+            startY = points[offset + 2 * sliceStart + 1];
+
+            int split = 0;
+            pos = sliceStart + 1 == n ? 0 : sliceStart + 1;
+            if(pos != sliceEnd) {
+                final double dx = endX - startX;
+                final double dy = endY - startY;
+                double maxDist = 0;
+                while (pos != sliceEnd) {
+                    final int ptX = points[offset + 2 * pos];
+                    final int ptY = points[offset + 2 * pos + 1];
+                    final double dist = Math.abs((ptY - startY) * dx - (ptX - startX) * dy);
+                    if(dist > maxDist) {
+                        maxDist = dist;
+                        split = pos;
+                    }
+                    if(++pos == n) pos = 0;
+                }
+                leEps = maxDist * maxDist <= eps * (dx * dx + dy * dy);
+            } else {
+                leEps = true;
+            }
+
+            if(leEps) {
+                approx[written++] = startX;
+                approx[written++] = startY;
+            } else {
+                stack = push(stack, top++, split, sliceEnd);
+                stack = push(stack, top++, sliceStart, split);
+            }
+        }
+
+        // 4. Remove the extra vertices on [almost] straight lines
+
+        final int vertices = written / 2;
+        int newCount = vertices;
+        int sX = approx[2 * vertices - 2], sY = approx[2 * vertices - 1];
+        int wpos = 0;
+        int ptX = approx[0], ptY = approx[1];
+        pos = vertices > 1 ? 1 : 0;
+
+        for(int i = 0; i < vertices && newCount > 2; i++) {
+            final int eX = approx[2 * pos], eY = approx[2 * pos + 1];
+            if(++pos >= vertices) pos = 0;
+
+            final double dx = eX - sX;
+            final double dy = eY - sY;
+            final double dist = Math.abs((ptX - sX) * dy - (ptY - sY) * dx);
+            final double successiveInnerProduct = (ptX - sX) * (double) (eX - ptX) + (ptY - sY) * (double) (eY - ptY);
+
+            if(dist * dist <= 0.5 * eps * (dx * dx + dy * dy) && dx != 0 && dy != 0 &&
+                    successiveInnerProduct >= 0) {
+                newCount--;
+                approx[2 * wpos] = sX = eX;
+                approx[2 * wpos + 1] = sY = eY;
+                if(++wpos >= vertices) wpos = 0;
+                ptX = approx[2 * pos];
+                ptY = approx[2 * pos + 1];
+                if(++pos >= vertices) pos = 0;
+                i++;
+                continue;
+            }
+            approx[2 * wpos] = sX = ptX;
+            approx[2 * wpos + 1] = sY = ptY;
+            if(++wpos >= vertices) wpos = 0;
+            ptX = eX;
+            ptY = eY;
+        }
+
+        System.arraycopy(approx, 0, out, 0, Math.min(2 * newCount, out.length));
+        return newCount;
+    }
+
+    private static int[] push(int[] stack, int top, int start, int end) {
+        if(2 * top + 1 >= stack.length) {
+            final int[] grown = new int[stack.length * 2];
+            System.arraycopy(stack, 0, grown, 0, stack.length);
+            stack = grown;
+        }
+        stack[2 * top] = start;
+        stack[2 * top + 1] = end;
+        return stack;
+    }
+
+    /**
+     * Minimum area bounding rectangle, found with rotating calipers over the convex hull.
+     *
+     * The box is the same as the one of Imgproc.minAreaRect, but it's returned as its
+     * 4 corners, which is what the callers need, instead of center, size and angle.
+     *
+     * @param out where to write the x, y pairs of the 4 corners of the box
+     */
+    public void minAreaRect(int[] points, int offset, int count, float[] out) {
+        final int h = convexHull(points, offset, count);
+
+        if(h <= 2) {
+            final int last = h == 0 ? 0 : 2 * (h - 1);
+            out[0] = out[6] = h == 0 ? 0 : hull[0];
+            out[1] = out[7] = h == 0 ? 0 : hull[1];
+            out[2] = out[4] = h == 0 ? 0 : hull[last];
+            out[3] = out[5] = h == 0 ? 0 : hull[last + 1];
+            return;
+        }
+
+        // For each edge of the hull, the box with a side on it is delimited by the
+        // farthest points along the edge, against it and normal to it.
+        // Those points only move forward while the edges are visited in order.
+        // The edge vectors aren't normalized, so that all the projections are exact integers.
+
+        double bestArea = Double.MAX_VALUE;
+        int best = 0, bestRight = 0, bestUp = 0, bestLeft = 0;
+        int right = 1, up = 1, left = 1;
+        for(int i = 0; i < h; i++) {
+            final int next = i + 1 == h ? 0 : i + 1;
+            final long ex = hull[2 * next] - hull[2 * i];
+            final long ey = hull[2 * next + 1] - hull[2 * i + 1];
+            // The hull is counter-clockwise, so the inside is on the left of each edge
+            final long nx = -ey, ny = ex;
+
+            if(i == 0)
+                right = next;
+            for(int steps = 0; steps < h && project(wrap(right + 1, h), i, ex, ey) >= project(right, i, ex, ey); steps++)
+                right = wrap(right + 1, h);
+
+            if(i == 0)
+                up = right;
+            for(int steps = 0; steps < h && project(wrap(up + 1, h), i, nx, ny) >= project(up, i, nx, ny); steps++)
+                up = wrap(up + 1, h);
+
+            if(i == 0)
+                left = up;
+            for(int steps = 0; steps < h && project(wrap(left + 1, h), i, ex, ey) <= project(left, i, ex, ey); steps++)
+                left = wrap(left + 1, h);
+
+            final double area = (double) (project(right, i, ex, ey) - project(left, i, ex, ey)) *
+                    project(up, i, nx, ny) / (ex * ex + ey * ey);
+            if(area < bestArea) {
+                bestArea = area;
+                best = i;
+                bestRight = right;
+                bestUp = up;
+                bestLeft = left;
+            }
+        }
+
+        final int next = best + 1 == h ? 0 : best + 1;
+        final double ox = hull[2 * best], oy = hull[2 * best + 1];
+        final double ex = hull[2 * next] - ox, ey = hull[2 * next + 1] - oy;
+        final double length = Math.sqrt(ex * ex + ey * ey);
+        final double ux = ex / length, uy = ey / length;
+        final double nx = -uy, ny = ux;
+
+        final double maxU = (hull[2 * bestRight] - ox) * ux + (hull[2 * bestRight + 1] - oy) * uy;
+        final double minU = (hull[2 * bestLeft] - ox) * ux + (hull[2 * bestLeft + 1] - oy) * uy;
+        final double maxN = (hull[2 * bestUp] - ox) * nx + (hull[2 * bestUp + 1] - oy) * ny;
+
+        out[0] = (float) (ox + ux * minU);
+        out[1] = (float) (oy + uy * minU);
+        out[2] = (float) (ox + ux * maxU);
+        out[3] = (float) (oy + uy * maxU);
+        out[4] = (float) (ox + ux * maxU + nx * maxN);
+        out[5] = (float) (oy + uy * maxU + ny * maxN);
+        out[6] = (float) (ox + ux * minU + nx * maxN);
+        out[7] = (float) (oy + uy * minU + ny * maxN);
+    }
+
+    private long project(int point, int origin, long dx, long dy) {
+        return (hull[2 * point] - hull[2 * origin]) * dx + (hull[2 * point + 1] - hull[2 * origin + 1]) * dy;
+    }
+
+    private static int wrap(int index, int count) {
+        return index == count ? 0 : index;
+    }
+
+    /**
+     * Andrew's monotone chain, writing the hull counter-clockwise and without collinear points.
+     *
+     * @return number of points of the hull
+     */
+    private int convexHull(int[] points, int offset, int count) {
+        if(hull.length < 4 * count + 2)
+            hull = new int[Integer.highestOneBit(4 * count + 2) * 2];
+        if(approx.length < 2 * count)
+            approx = new int[Integer.highestOneBit(2 * count) * 2];
+
+        // Sort the points by x, then y
+        if(sortKeys.length < count)
+            sortKeys = new long[Integer.highestOneBit(count) * 2];
+        for(int i = 0; i < count; i++)
+            sortKeys[i] = ((long) points[offset + 2 * i] << 32) | ((long) points[offset + 2 * i + 1] - Integer.MIN_VALUE);
+        if(count <= 32)
+            insertionSort(sortKeys, count);
+        else
+            heapSort(sortKeys, count);
+
+        final int[] sorted = approx;
+        for(int i = 0; i < count; i++) {
+            sorted[2 * i] = (int) (sortKeys[i] >> 32);
+            sorted[2 * i + 1] = (int) ((sortKeys[i] & 0xFFFFFFFFL) + Integer.MIN_VALUE);
+        }
+
+        int h = 0;
+        // Lower hull
+        for(int i = 0; i < count; i++) {
+            while (h >= 2 && cross(hull, h, sorted, i) <= 0)
+                h--;
+            hull[2 * h] = sorted[2 * i];
+            hull[2 * h + 1] = sorted[2 * i + 1];
+            h++;
+        }
+        // Upper hull
+        final int lower = h + 1;
+        for(int i = count - 2; i >= 0; i--) {
+            while (h >= lower && cross(hull, h, sorted, i) <= 0)
+                h--;
+            hull[2 * h] = sorted[2 * i];
+            hull[2 * h + 1] = sorted[2 * i + 1];
+            h++;
+        }
+
+        // The first point is repeated at the end, unless all the points are the same
+        return count > 1 && h > 1 ? h - 1 : Math.min(h, 1);
+    }
+
+    private static void insertionSort(long[] keys, int count) {
+        for(int i = 1; i < count; i++) {
+            final long key = keys[i];
+            int j = i - 1;
+            while (j >= 0 && keys[j] > key) {
+                keys[j + 1] = keys[j];
+                j--;
+            }
+            keys[j + 1] = key;
+        }
+    }
+
+    private static void heapSort(long[] keys, int count) {
+        for(int i = count / 2 - 1; i >= 0; i--)
+            siftDown(keys, i, count);
+        for(int end = count - 1; end > 0; end--) {
+            final long max = keys[0];
+            keys[0] = keys[end];
+            keys[end] = max;
+            siftDown(keys, 0, end);
+        }
+    }
+
+    private static void siftDown(long[] keys, int i, int count) {
+        final long key = keys[i];
+        for(int child = 2 * i + 1; child < count; child = 2 * i + 1) {
+            if(child + 1 < count && keys[child + 1] > keys[child])
+                child++;
+            if(keys[child] <= key)
+                break;
+            keys[i] = keys[child];
+            i = child;
+        }
+        keys[i] = key;
+    }
+
+    private static long cross(int[] hull, int h, int[] sorted, int i) {
+        final long ax = hull[2 * h - 4], ay = hull[2 * h - 3];
+        final long bx = hull[2 * h - 2], by = hull[2 * h - 1];
+        return (bx - ax) * (sorted[2 * i + 1] - ay) - (by - ay) * (sorted[2 * i] - ax);
+    }
+}
@@ -0,0 +1,120 @@
+package gov.ismonnet.blindgambling;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+
+import static org.opencv.imgproc.Imgproc.INTER_AREA;
+import static org.opencv.imgproc.Imgproc.resize;
+
+/**
+ * Turns a binary image of a card corner (ink != 0) into the bit vector
+ * stored in a {@link CardTemplateIndex}.
+ *
+ * The rank and the suit are split at the first empty row between them and the
+ * bounding box of each one is stretched to fill half of the {@link #WIDTH}x{@link #HEIGHT}
+ * encoding, so that it depends neither on where they are printed inside the corner
+ * nor on their size or spacing.
+ */
+public class CornerEncoder {
+
+    public static final int WIDTH = 32;
+    public static final int HEIGHT = 64;
+    public static final int WORDS = WIDTH * HEIGHT / Long.SIZE;
+
+    private final Mat normalized = new Mat(HEIGHT, WIDTH, CvType.CV_8UC1);
+    private final Mat normalizedRank = normalized.rowRange(0, HEIGHT / 2);
+    private final Mat normalizedSuit = normalized.rowRange(HEIGHT / 2, HEIGHT);
+    private final Size halfSize = new Size(WIDTH, HEIGHT / 2);
+    private final byte[] normalizedBuffer = new byte[WIDTH * HEIGHT];
+    private byte[] binaryBuffer = new byte[0];
+    private int[] rowInk = new int[0];
+
+    /**
+     * @param binary continuous CV_8UC1 image of the corner
+     * @param out where to write the {@link #WORDS} words of the encoding
+     * @param offset index of the first word in out
+     * @return false if the image contains no ink
+     */
+    public boolean encode(Mat binary, long[] out, int offset) {
+        final int width = binary.cols();
+        final int height = binary.rows();
+        if(binaryBuffer.length < width * height) {
+            binaryBuffer = new byte[width * height];
+            rowInk = new int[height];
+        }
+        binary.get(0, 0, binaryBuffer);
+
+        int top = -1, bottom = -1;
+        for(int y = 0; y < height; y++) {
+            int ink = 0;
+            for(int x = 0; x < width; x++)
+                if(binaryBuffer[y * width + x] != 0)
+                    ink++;
+            rowInk[y] = ink;
+
+            if(ink != 0) {
+                if(top < 0)
+                    top = y;
+                bottom = y;
+            }
+        }
+
+        if(top < 0)
+            return false;
+
+        // Rank above the first empty row, suit below it
+        int split = top;
+        while (split <= bottom && rowInk[split] != 0)
+            split++;
+        int suitTop = split;
+        while (suitTop <= bottom && rowInk[suitTop] == 0)
+            suitTop++;
+
+        if(suitTop > bottom) {
+            // No gap, just cut the ink in half
+            split = (top + bottom + 1) / 2;
+            suitTop = split;
+        }
+
+        if(!normalizeGlyph(binary, top, split, normalizedRank) ||
+                !normalizeGlyph(binary, suitTop, bottom + 1, normalizedSuit))
+            return false;
+
+        normalized.get(0, 0, normalizedBuffer);
+        for(int word = 0; word < WORDS; word++) {
+            long bits = 0;
+            for(int bit = 0; bit < Long.SIZE; bit++)
+                if((normalizedBuffer[word * Long.SIZE + bit] & 0xFF) > 127)
+                    bits |= 1L << bit;
+            out[offset + word] = bits;
+        }
+        return true;
+    }
+
+    private boolean normalizeGlyph(Mat binary, int fromRow, int toRow, Mat dst) {
+        final int width = binary.cols();
+
+        int left = width, right = -1;
+        for(int y = fromRow; y < toRow; y++)
+            for(int x = 0; x < width; x++)
+                if(binaryBuffer[y * width + x] != 0) {
+                    if(x < left) left = x;
+                    if(x > right) right = x;
+                }
+
+        if(right < 0)
+            return false;
+
+        final Mat glyph = binary.submat(fromRow, toRow, left, right + 1);
+        resize(glyph, dst, halfSize, 0, 0, INTER_AREA);
+        glyph.release();
+        return true;
+    }
+
+    public void release() {
+        normalizedRank.release();
+        normalizedSuit.release();
+        normalized.release();
+    }
+}
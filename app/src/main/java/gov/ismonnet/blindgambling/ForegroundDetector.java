@@ -0,0 +1,323 @@
+package gov.ismonnet.blindgambling;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.video.BackgroundSubtractorMOG2;
+import org.opencv.video.Video;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.opencv.core.Core.countNonZero;
+import static org.opencv.imgproc.Imgproc.CHAIN_APPROX_SIMPLE;
+import static org.opencv.imgproc.Imgproc.INTER_AREA;
+import static org.opencv.imgproc.Imgproc.MORPH_OPEN;
+import static org.opencv.imgproc.Imgproc.MORPH_RECT;
+import static org.opencv.imgproc.Imgproc.RETR_EXTERNAL;
+import static org.opencv.imgproc.Imgproc.boundingRect;
+import static org.opencv.imgproc.Imgproc.findContours;
+import static org.opencv.imgproc.Imgproc.getStructuringElement;
+import static org.opencv.imgproc.Imgproc.morphologyEx;
+import static org.opencv.imgproc.Imgproc.resize;
+
+/**
+ * Finds the objects which aren't part of the table, like hands, chips and cards just played,
+ * with a MOG2 background model of the felt, so that the cards only need to be searched around them.
+ *
+ * The model is kept at a fraction of the frame resolution and learns slowly, so an object
+ * stays in the foreground for a while after it stops moving before becoming part of the background.
+ * The regions of the foreground are reported like the ones of a {@link MotionDetector}, with the
+ * same results. A region which doesn't change for a few frames, like a card once the hand
+ * which placed it moves away, is reported once as settled.
+ */
+public class ForegroundDetector {
+
+    private static final int DEFAULT_SCALE = 8;
+    private static final double DEFAULT_LEARNING_RATE = 0.002;
+    private static final int HISTORY = 500;
+    private static final double VAR_THRESHOLD = 25;
+    private static final float GLOBAL_FRACTION = 0.5f;
+
+    // Smallest foreground blob, in model pixels, which isn't considered noise
+    private static final int MIN_BLOB_AREA = 12;
+    // Padding, in model pixels, around the foreground blobs
+    private static final int REGION_PADDING = 2;
+    // Number of frames a region has to stay the same to be considered settled
+    private static final int SETTLE_FRAMES = 8;
+    // Maximum movement, in model pixels, of the sides of a region which is settling
+    private static final int SETTLE_SHIFT = 1;
+
+    private final int scale;
+    private volatile double learningRate = DEFAULT_LEARNING_RATE;
+
+    private int width;
+    private int height;
+    private BackgroundSubtractorMOG2 model;
+    private Mat small;
+    private Size smallSize;
+    private Mat foreground;
+    private Mat kernel;
+    private Mat hierarchy;
+    private List<MatOfPoint> contours;
+    private boolean initialized;
+
+    private final Rect[] regions = new Rect[MotionDetector.MAX_REGIONS];
+    private int regionCount;
+    // Regions of the previous frame and for how many frames each one stayed the same
+    private final Rect[] prevRegions = new Rect[MotionDetector.MAX_REGIONS];
+    private final int[] prevStableFrames = new int[MotionDetector.MAX_REGIONS];
+    private final int[] stableFrames = new int[MotionDetector.MAX_REGIONS];
+    private int prevRegionCount;
+    private final Rect[] settledRegions = new Rect[MotionDetector.MAX_REGIONS];
+    private int settledCount;
+
+    private StageProfiler profiler = StageProfiler.DISABLED;
+    private boolean started;
+
+    private volatile long backgroundFrames;
+    private volatile long regionFrames;
+    private volatile long globalFrames;
+    private volatile long settledRegionsCount;
+
+    public ForegroundDetector() {
+        this(DEFAULT_SCALE);
+    }
+
+    /**
+     * @param scale how many times the background model is smaller than the frames on each side
+     */
+    public ForegroundDetector(int scale) {
+        if(scale < 1)
+            throw new IllegalArgumentException("The scale must be at least 1");
+        this.scale = scale;
+        for(int i = 0; i < MotionDetector.MAX_REGIONS; i++) {
+            regions[i] = new Rect();
+            prevRegions[i] = new Rect();
+            settledRegions[i] = new Rect();
+        }
+    }
+
+    public void start(int width, int height) {
+        if(started)
+            stop();
+
+        this.width = width;
+        this.height = height;
+        model = Video.createBackgroundSubtractorMOG2(HISTORY, VAR_THRESHOLD, false);
+        smallSize = new Size(Math.max(1, width / scale), Math.max(1, height / scale));
+        small = new Mat((int) smallSize.height, (int) smallSize.width, CvType.CV_8UC1);
+        foreground = new Mat((int) smallSize.height, (int) smallSize.width, CvType.CV_8UC1);
+        kernel = getStructuringElement(MORPH_RECT, new Size(3, 3));
+        hierarchy = new Mat();
+        contours = new ArrayList<>(64);
+        initialized = false;
+        regionCount = 0;
+        prevRegionCount = 0;
+        settledCount = 0;
+
+        started = true;
+    }
+
+    public void stop() {
+        if(!started)
+            return;
+        started = false;
+
+        releaseContours();
+        hierarchy.release();
+        kernel.release();
+        foreground.release();
+        small.release();
+        model = null;
+    }
+
+    /**
+     * @param profiler where to record how long each update of the model takes
+     */
+    public void setProfiler(StageProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    /**
+     * Sets how fast the objects which stopped moving become part of the background.
+     *
+     * @param learningRate weight of each frame in the model, between 0 and 1
+     */
+    public void setLearningRate(double learningRate) {
+        this.learningRate = learningRate;
+    }
+
+    public double getLearningRate() {
+        return learningRate;
+    }
+
+    /**
+     * Updates the background model with the frame and finds its foreground.
+     * The first frame is always reported as {@link MotionDetector#GLOBAL},
+     * as the cards already on the table become part of the background.
+     *
+     * @param grey frame to process
+     * @return one of {@link MotionDetector#NONE}, {@link MotionDetector#REGIONS} or {@link MotionDetector#GLOBAL}
+     */
+    public int detect(Mat grey) {
+        final long start = profiler.start();
+        resize(grey, small, smallSize, 0, 0, INTER_AREA);
+        // The first frame initializes the model, whatever the learning rate
+        model.apply(small, foreground, initialized ? learningRate : 1);
+        morphologyEx(foreground, foreground, MORPH_OPEN, kernel);
+
+        final int result = findRegions();
+        profiler.stop(StageProfiler.FOREGROUND, start);
+
+        if(result == MotionDetector.NONE)
+            backgroundFrames++;
+        else if(result == MotionDetector.REGIONS)
+            regionFrames++;
+        else
+            globalFrames++;
+        return result;
+    }
+
+    private int findRegions() {
+        regionCount = 0;
+        settledCount = 0;
+        if(!initialized) {
+            initialized = true;
+            prevRegionCount = 0;
+            return MotionDetector.GLOBAL;
+        }
+
+        final int pixels = countNonZero(foreground);
+        if(pixels > GLOBAL_FRACTION * foreground.total()) {
+            prevRegionCount = 0;
+            return MotionDetector.GLOBAL;
+        }
+
+        if(pixels > 0) {
+            releaseContours();
+            findContours(foreground, contours, hierarchy, RETR_EXTERNAL, CHAIN_APPROX_SIMPLE);
+
+            for(int i = 0; i < contours.size(); i++) {
+                final Rect blob = boundingRect(contours.get(i));
+                if(blob.area() < MIN_BLOB_AREA)
+                    continue;
+                if(regionCount == MotionDetector.MAX_REGIONS) {
+                    regionCount = 0;
+                    prevRegionCount = 0;
+                    return MotionDetector.GLOBAL;
+                }
+                toFrame(blob, regions[regionCount++]);
+            }
+            regionCount = MotionDetector.mergeOverlapping(regions, regionCount);
+        }
+
+        updateSettling();
+        return regionCount == 0 ? MotionDetector.NONE : MotionDetector.REGIONS;
+    }
+
+    private void toFrame(Rect blob, Rect out) {
+        out.x = Math.max(0, (blob.x - REGION_PADDING) * width / (int) smallSize.width);
+        out.y = Math.max(0, (blob.y - REGION_PADDING) * height / (int) smallSize.height);
+        out.width = Math.min(width, (blob.x + blob.width + REGION_PADDING) * width / (int) smallSize.width) - out.x;
+        out.height = Math.min(height, (blob.y + blob.height + REGION_PADDING) * height / (int) smallSize.height) - out.y;
+    }
+
+    /**
+     * Matches each region with the one of the previous frame in the same place,
+     * and reports the ones which stayed the same for enough frames.
+     */
+    private void updateSettling() {
+        final int maxShift = SETTLE_SHIFT * width / (int) smallSize.width;
+        for(int i = 0; i < regionCount; i++) {
+            final Rect region = regions[i];
+            stableFrames[i] = 1;
+            for(int j = 0; j < prevRegionCount; j++) {
+                final Rect prev = prevRegions[j];
+                if(Math.abs(region.x - prev.x) <= maxShift && Math.abs(region.y - prev.y) <= maxShift &&
+                        Math.abs(region.width - prev.width) <= maxShift &&
+                        Math.abs(region.height - prev.height) <= maxShift) {
+                    stableFrames[i] = prevStableFrames[j] + 1;
+                    break;
+                }
+            }
+
+            // Only reported once, on the frame it settles
+            if(stableFrames[i] == SETTLE_FRAMES) {
+                copy(region, settledRegions[settledCount++]);
+                settledRegionsCount++;
+            }
+        }
+
+        for(int i = 0; i < regionCount; i++) {
+            copy(regions[i], prevRegions[i]);
+            prevStableFrames[i] = stableFrames[i];
+        }
+        prevRegionCount = regionCount;
+    }
+
+    private static void copy(Rect src, Rect dst) {
+        dst.x = src.x;
+        dst.y = src.y;
+        dst.width = src.width;
+        dst.height = src.height;
+    }
+
+    private void releaseContours() {
+        for(int i = 0; i < contours.size(); i++)
+            contours.get(i).release();
+        contours.clear();
+    }
+
+    /**
+     * @return the foreground regions of the last frame, valid when it returned {@link MotionDetector#REGIONS}
+     */
+    public Rect[] getRegions() {
+        return regions;
+    }
+
+    public int getRegionCount() {
+        return regionCount;
+    }
+
+    /**
+     * @return the regions which settled in the last frame, also part of {@link #getRegions()}
+     */
+    public Rect[] getSettledRegions() {
+        return settledRegions;
+    }
+
+    public int getSettledCount() {
+        return settledCount;
+    }
+
+    /**
+     * @return number of frames without any foreground
+     */
+    public long getBackgroundFrameCount() {
+        return backgroundFrames;
+    }
+
+    /**
+     * @return number of frames where only some regions were in the foreground
+     */
+    public long getRegionFrameCount() {
+        return regionFrames;
+    }
+
+    /**
+     * @return number of frames which had to be processed as a whole
+     */
+    public long getGlobalFrameCount() {
+        return globalFrames;
+    }
+
+    /**
+     * @return number of regions which have been reported as settled
+     */
+    public long getSettledRegionCount() {
+        return settledRegionsCount;
+    }
+}
@@ -0,0 +1,260 @@
+package gov.ismonnet.blindgambling;
+
+import android.graphics.ImageFormat;
+
+import org.opencv.android.CachedYuvFrame;
+import org.opencv.android.CameraBridgeViewBase.CvCameraViewFrame;
+import org.opencv.android.CameraBridgeViewBase.CvCameraViewRoiFrame;
+import org.opencv.android.CameraBridgeViewBase.CvCameraViewYuvFrame;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Splits the frames delivered by the camera worker between a detection stage
+ * and a render stage, each running on its own thread.
+ *
+ * The capture thread copies each frame into a pooled buffer and publishes it
+ * to both stages through {@link LatestValueHandoff}s, so a slow stage only
+ * drops frames instead of stalling the camera or the other stage.
+ *
+ * Frames backed by YUV planes, like the NV21 buffers of the old camera API and the images
+ * of Camera2, only have their planes copied, and are only converted to RGBA by the render
+ * stage, and only in the region it asks for; other frames are copied already converted.
+ *
+ * The dropped and processed frame counts start from 0 each time the pipeline is started.
+ */
+public class FramePipeline {
+
+    // 1 being filled by the capture thread, 1 waiting and 1 being processed for each stage
+    private static final int FRAME_BUFFERS = 5;
+
+    public interface Stage {
+        void process(CvCameraViewFrame frame);
+    }
+
+    private final Stage detectStage;
+    private final Stage renderStage;
+
+    private final LatestValueHandoff<PipelineFrame> detectHandoff = new LatestValueHandoff<>();
+    private final LatestValueHandoff<PipelineFrame> renderHandoff = new LatestValueHandoff<>();
+    private final ArrayBlockingQueue<PipelineFrame> freeFrames = new ArrayBlockingQueue<>(FRAME_BUFFERS);
+    private PipelineFrame[] frames;
+
+    private Thread detectThread;
+    private Thread renderThread;
+    private volatile boolean running;
+
+    private volatile long captureDrops;
+
+    public FramePipeline(Stage detectStage, Stage renderStage) {
+        this.detectStage = detectStage;
+        this.renderStage = renderStage;
+    }
+
+    public void start(int width, int height) {
+        if(running)
+            stop();
+
+        frames = new PipelineFrame[FRAME_BUFFERS];
+        for(int i = 0; i < frames.length; i++) {
+            frames[i] = new PipelineFrame(width, height);
+            freeFrames.offer(frames[i]);
+        }
+
+        captureDrops = 0;
+        detectHandoff.resetCounts();
+        renderHandoff.resetCounts();
+
+        running = true;
+        detectThread = new Thread(new StageWorker(detectHandoff, detectStage), "CardDetectStage");
+        renderThread = new Thread(new StageWorker(renderHandoff, renderStage), "PreviewRenderStage");
+        detectThread.start();
+        renderThread.start();
+    }
+
+    public void stop() {
+        if(!running)
+            return;
+        running = false;
+
+        try {
+            detectThread.interrupt();
+            renderThread.interrupt();
+            detectThread.join();
+            renderThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            detectThread = null;
+            renderThread = null;
+        }
+
+        detectHandoff.poll();
+        renderHandoff.poll();
+        freeFrames.clear();
+        for(PipelineFrame frame : frames)
+            frame.free();
+        frames = null;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Called by the capture thread for each frame delivered by the camera.
+     * The frame is copied, so it can be reused by the camera as soon as this returns.
+     *
+     * @param frame frame to publish to the stages
+     */
+    public void submit(CvCameraViewFrame frame) {
+        final PipelineFrame buffer = freeFrames.poll();
+        if(buffer == null) {
+            captureDrops++;
+            return;
+        }
+
+        buffer.copyFrom(frame);
+        buffer.refs.set(2);
+
+        final PipelineFrame droppedDetect = detectHandoff.offer(buffer);
+        if(droppedDetect != null)
+            droppedDetect.release();
+
+        final PipelineFrame droppedRender = renderHandoff.offer(buffer);
+        if(droppedRender != null)
+            droppedRender.release();
+    }
+
+    public long getCaptureDropCount() {
+        return captureDrops;
+    }
+
+    public int getDetectQueueDepth() {
+        return detectHandoff.getDepth();
+    }
+
+    public long getDetectDropCount() {
+        return detectHandoff.getDropCount();
+    }
+
+    public long getDetectedCount() {
+        return detectHandoff.getTakenCount();
+    }
+
+    public int getRenderQueueDepth() {
+        return renderHandoff.getDepth();
+    }
+
+    public long getRenderDropCount() {
+        return renderHandoff.getDropCount();
+    }
+
+    public long getRenderedCount() {
+        return renderHandoff.getTakenCount();
+    }
+
+    private class StageWorker implements Runnable {
+
+        private final LatestValueHandoff<PipelineFrame> handoff;
+        private final Stage stage;
+
+        StageWorker(LatestValueHandoff<PipelineFrame> handoff, Stage stage) {
+            this.handoff = handoff;
+            this.stage = stage;
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                final PipelineFrame frame;
+                try {
+                    frame = handoff.take();
+                } catch (InterruptedException e) {
+                    break;
+                }
+
+                try {
+                    stage.process(frame);
+                } finally {
+                    frame.release();
+                }
+            }
+        }
+    }
+
+    private class PipelineFrame implements CvCameraViewRoiFrame {
+
+        // Used for frames which can be copied as NV21
+        private final CachedYuvFrame yuv;
+        private boolean yuvValid;
+        // Used for frames in any other format, allocated the first time one is submitted
+        private Mat gray;
+        private Mat rgba;
+        private Mat roiRgba;
+        // Number of stages which still have to process this frame
+        private final AtomicInteger refs = new AtomicInteger();
+
+        PipelineFrame(int width, int height) {
+            yuv = new CachedYuvFrame(new Mat(height + height / 2, width, CvType.CV_8UC1), width, height, ImageFormat.NV21);
+        }
+
+        void copyFrom(CvCameraViewFrame frame) {
+            if(frame instanceof CvCameraViewYuvFrame && ((CvCameraViewYuvFrame) frame).copyNv21To(yuv.yuv())) {
+                yuv.invalidate();
+                yuvValid = true;
+                return;
+            }
+
+            if(gray == null) {
+                gray = new Mat();
+                rgba = new Mat();
+            }
+            frame.gray().copyTo(gray);
+            frame.rgba().copyTo(rgba);
+            yuvValid = false;
+        }
+
+        @Override
+        public Mat gray() {
+            return yuvValid ? yuv.gray() : gray;
+        }
+
+        @Override
+        public Mat rgba() {
+            return yuvValid ? yuv.rgba() : rgba;
+        }
+
+        @Override
+        public Mat rgba(Rect roi) {
+            if(yuvValid)
+                return yuv.rgba(roi);
+
+            if(roiRgba != null)
+                roiRgba.release();
+            roiRgba = rgba.submat(roi);
+            return roiRgba;
+        }
+
+        void release() {
+            if(refs.decrementAndGet() == 0)
+                freeFrames.offer(this);
+        }
+
+        void free() {
+            final Mat yuvData = yuv.yuv();
+            yuv.release();
+            yuvData.release();
+            if(roiRgba != null)
+                roiRgba.release();
+            if(gray != null) {
+                gray.release();
+                rgba.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package gov.ismonnet.blindgambling;
+
+import org.opencv.core.Mat;
+
+/**
+ * Sequence of frames which can be fed to a {@link CardProcessor} without a camera,
+ * for example to benchmark or regression test the detection on a plain JVM.
+ *
+ * The Mats returned by {@link #gray()} and {@link #rgba()} belong to the source
+ * and are only valid until the next call to {@link #next()}.
+ */
+public interface FrameSource {
+
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * Moves to the next frame.
+     *
+     * @return false if there are no more frames
+     */
+    boolean next();
+
+    Mat gray();
+
+    Mat rgba();
+
+    void release();
+}
@@ -0,0 +1,404 @@
+package gov.ismonnet.blindgambling;
+
+import org.opencv.core.Mat;
+
+/**
+ * Single pass version of the {@link Binarizer} stages, giving the same binary image
+ * as the Gaussian blur, the mean adaptive threshold and the opening run one after the other.
+ *
+ * The image is streamed one row at a time through ring buffers holding only the rows each kernel needs,
+ * so the intermediate images are never written and every buffer touched stays in cache.
+ * Mats are read and written a few rows at a time, so the image and the binary image are only touched once:
+ * the blur is split in a horizontal and a vertical pass, the local mean comes from running column sums
+ * and a sliding row sum, and the erosion and the dilation run on rows packed 64 pixels to a word.
+ *
+ * Each stage rounds like the fixed point code OpenCV runs for 8 bit images, which is what makes
+ * the results identical. Regions are binarized as images of their own, without reading the pixels around them.
+ */
+class FusedBinarizer {
+
+    // Gaussian kernels OpenCV uses when sigma is 0, as fixed point numbers with 8 fractional bits
+    private static final int[][] GAUSSIAN_WEIGHTS = {
+            { 256 },
+            { 64, 128, 64 },
+            { 16, 64, 96, 64, 16 },
+            { 8, 28, 56, 72, 56, 28, 8 },
+    };
+
+    // Fractional bits of the fixed point division of the box sums
+    private static final int DIV_SHIFT = 23;
+    // Rows of the full width read from and written to the Mats at a time
+    private static final int CHUNK_ROWS = 8;
+
+    private final int[] gaussianWeights;
+    private final int gaussianRadius;
+    private final int thresholdRadius;
+    private final int thresholdOffset;
+    private final int morphRadius;
+    // Fixed point division by the area of the threshold block
+    private final int divScale;
+    private final int divDelta;
+
+    private boolean morphologyEnabled = true;
+
+    // Rows of the Mats being read and written, as many as fit for the width being binarized
+    private byte[] srcChunk;
+    private byte[] dstChunk;
+    private int chunkRows;
+    // Rows of the horizontal pass of the blur, indexed by input row
+    private int[][] blurRows;
+    private int[] blurSums;
+    // Blurred rows, indexed by input row, one more than the block so the row leaving the sums is still there
+    private int[][] blurredRows;
+    private int[] columnSums;
+    // Thresholded rows eroded horizontally, then eroded rows dilated horizontally, as bits
+    private long[][] erodedRows;
+    private long[][] dilatedRows;
+    private long[] packedRow;
+    private int[] rowPixels;
+    private byte[] rowBuffer;
+
+    FusedBinarizer(int gaussianKernelSize, int thresholdBlockSize, int morphKernelSize, int thresholdOffset) {
+        if(gaussianKernelSize % 2 == 0 || gaussianKernelSize < 1 || gaussianKernelSize > 7)
+            throw new IllegalArgumentException("Only Gaussian kernels of size 1, 3, 5 and 7 can be fused");
+        if(thresholdBlockSize % 2 == 0 || thresholdBlockSize < 3 || thresholdBlockSize * thresholdBlockSize > 256)
+            throw new IllegalArgumentException("Only odd threshold blocks of up to 256 pixels can be fused");
+        if(morphKernelSize % 2 == 0 || morphKernelSize < 1 || morphKernelSize > 127)
+            throw new IllegalArgumentException("Only odd morphology kernels of up to 127 pixels can be fused");
+
+        this.gaussianWeights = GAUSSIAN_WEIGHTS[gaussianKernelSize / 2];
+        this.gaussianRadius = gaussianKernelSize / 2;
+        this.thresholdRadius = thresholdBlockSize / 2;
+        this.thresholdOffset = thresholdOffset;
+        this.morphRadius = morphKernelSize / 2;
+
+        // Same rounding as the 16 bit sums of the normalized box filter
+        final int area = thresholdBlockSize * thresholdBlockSize;
+        final double scale = (double) (1 << DIV_SHIFT) / area;
+        int divScale = (int) Math.floor(scale);
+        int divDelta = area / 2;
+        if(scale - divScale < 0.5)
+            divDelta++;
+        else
+            divScale++;
+        this.divScale = divScale;
+        this.divDelta = divDelta;
+    }
+
+    void setMorphologyEnabled(boolean morphologyEnabled) {
+        this.morphologyEnabled = morphologyEnabled;
+    }
+
+    /**
+     * @return how far, in pixels, each pixel of the binary image depends on the ones around it
+     */
+    int getReach() {
+        return gaussianRadius + thresholdRadius + (morphologyEnabled ? morphRadius * 2 : 0);
+    }
+
+    void start(int width, int height) {
+        srcChunk = new byte[width * Math.min(CHUNK_ROWS, height)];
+        dstChunk = new byte[width * Math.min(CHUNK_ROWS, height)];
+        blurRows = new int[gaussianRadius * 2 + 1][width];
+        blurSums = new int[width];
+        blurredRows = new int[thresholdRadius * 2 + 2][width];
+        columnSums = new int[width];
+        final int words = (width + 63) >>> 6;
+        erodedRows = new long[morphRadius * 2 + 1][words];
+        dilatedRows = new long[morphRadius * 2 + 1][words];
+        packedRow = new long[words];
+        rowPixels = new int[width];
+        rowBuffer = new byte[width];
+    }
+
+    void stop() {
+        srcChunk = dstChunk = null;
+        blurRows = blurredRows = null;
+        erodedRows = dilatedRows = null;
+        packedRow = null;
+        blurSums = columnSums = rowPixels = null;
+        rowBuffer = null;
+    }
+
+    /**
+     * Binarizes an image, or a region of one, no bigger than the size given to {@link #start(int, int)}.
+     *
+     * @param grey image to binarize
+     * @param out where to write the binary image, of the same size
+     */
+    void binarize(Mat grey, Mat out) {
+        binarize(grey, null, out, null, grey.cols(), grey.rows());
+    }
+
+    /**
+     * @param src packed rows of the image to binarize
+     * @param dst where to write the packed rows of the binary image
+     * @param width width of the image
+     * @param height height of the image
+     */
+    void binarize(byte[] src, byte[] dst, int width, int height) {
+        binarize(null, src, null, dst, width, height);
+    }
+
+    /**
+     * Reads the image from the Mat if there's one, otherwise from the array, and writes the same way.
+     * The rows of the Mats are read and written in chunks, packed at the start of the chunk buffers,
+     * as get and put copy a region of a Mat row by row. Get and put copy the whole buffer,
+     * so the part of a row left at its end is read for nothing, and written over by the next chunk.
+     */
+    private void binarize(Mat grey, byte[] src, Mat out, byte[] dst, int width, int height) {
+        if(width == 0 || height == 0)
+            return;
+
+        chunkRows = srcChunk.length / width;
+        final byte[] dstRows = out != null ? dstChunk : dst;
+        final int morphRadius = morphologyEnabled ? this.morphRadius : 0;
+        // Each stage runs on the last row the previous one can give it all the rows it needs for
+        final int lag = gaussianRadius + thresholdRadius + morphRadius * 2;
+        final int words = (width + 63) >>> 6;
+        final long paddingMask = (width & 63) == 0 ? 0 : -1L << (width & 63);
+        for(int row = 0; row < height + lag; row++) {
+            if(row < height) {
+                if(grey != null) {
+                    if(row % chunkRows == 0)
+                        grey.get(row, 0, srcChunk);
+                    blurRow(srcChunk, row % chunkRows * width, blurRows[row % blurRows.length], width);
+                } else {
+                    blurRow(src, row * width, blurRows[row % blurRows.length], width);
+                }
+            }
+
+            final int blurred = row - gaussianRadius;
+            if(blurred >= 0 && blurred < height)
+                blurColumns(blurred, width, height);
+
+            final int thresholded = blurred - thresholdRadius;
+            if(thresholded >= 0 && thresholded < height) {
+                threshold(thresholded, width, height, rowBuffer);
+                if(morphologyEnabled) {
+                    pack(rowBuffer, packedRow, width);
+                    erodeRow(packedRow, erodedRows[thresholded % erodedRows.length], words, morphRadius);
+                } else {
+                    System.arraycopy(rowBuffer, 0, dstRows, rowOffset(out, thresholded, width), width);
+                    flushRow(out, thresholded, height);
+                }
+            }
+            if(!morphologyEnabled)
+                continue;
+
+            final int eroded = thresholded - morphRadius;
+            if(eroded >= 0 && eroded < height) {
+                erodeColumns(erodedRows, eroded, words, height, morphRadius, packedRow);
+                // Past the end of the image as if it were black, for the dilation
+                if(paddingMask != 0)
+                    packedRow[words - 1] &= ~paddingMask;
+                dilateRow(packedRow, dilatedRows[eroded % dilatedRows.length], words, morphRadius);
+            }
+
+            final int dilated = eroded - morphRadius;
+            if(dilated >= 0 && dilated < height) {
+                dilateColumns(dilatedRows, dilated, words, height, morphRadius, packedRow);
+                unpack(packedRow, dstRows, rowOffset(out, dilated, width), width);
+                flushRow(out, dilated, height);
+            }
+        }
+    }
+
+    private int rowOffset(Mat out, int row, int width) {
+        return out != null ? row % chunkRows * width : row * width;
+    }
+
+    // Writes the chunk of binary rows to the Mat once its last row is done
+    private void flushRow(Mat out, int row, int height) {
+        if(out != null && (row % chunkRows == chunkRows - 1 || row == height - 1))
+            out.put(row - row % chunkRows, 0, dstChunk);
+    }
+
+    private void blurRow(byte[] src, int offset, int[] out, int width) {
+        final int radius = gaussianRadius;
+        final int[] weights = gaussianWeights;
+        final int[] pixels = rowPixels;
+        for(int x = 0; x < width; x++)
+            pixels[x] = src[offset + x] & 0xFF;
+
+        // The kernel is symmetric, so each weight multiplies the sum of the two pixels it's applied to
+        final int end = width - radius;
+        for(int x = radius; x < end; x++)
+            out[x] = weights[radius] * pixels[x];
+        for(int k = 1; k <= radius; k++) {
+            final int weight = weights[radius - k];
+            for(int x = radius; x < end; x++)
+                out[x] += weight * (pixels[x - k] + pixels[x + k]);
+        }
+
+        for(int x = 0; x < Math.min(radius, width); x++)
+            out[x] = blurBorder(pixels, x, width);
+        for(int x = Math.max(radius, end); x < width; x++)
+            out[x] = blurBorder(pixels, x, width);
+    }
+
+    private int blurBorder(int[] pixels, int x, int width) {
+        final int radius = gaussianRadius;
+        final int[] weights = gaussianWeights;
+        int sum = 0;
+        for(int k = 0; k < weights.length; k++)
+            sum += weights[k] * pixels[reflect101(x - radius + k, width)];
+        return sum;
+    }
+
+    private void blurColumns(int row, int width, int height) {
+        final int radius = gaussianRadius;
+        final int[] weights = gaussianWeights;
+        final int[] out = blurredRows[row % blurredRows.length];
+        if(radius == 0) {
+            final int[] in = blurRows[row % blurRows.length];
+            for(int x = 0; x < width; x++)
+                out[x] = (in[x] + (1 << 7)) >> 8;
+            return;
+        }
+
+        // Both passes have 8 fractional bits, so the sum has 16
+        final int[] sums = blurSums;
+        final int[] centre = blurRows[row % blurRows.length];
+        for(int x = 0; x < width; x++)
+            sums[x] = weights[radius] * centre[x];
+        for(int k = 0; k < weights.length; k++) {
+            if(k == radius)
+                continue;
+            final int[] in = blurRows[reflect101(row - radius + k, height) % blurRows.length];
+            final int weight = weights[k];
+            for(int x = 0; x < width; x++)
+                sums[x] += weight * in[x];
+        }
+        for(int x = 0; x < width; x++)
+            out[x] = (sums[x] + (1 << 15)) >> 16;
+    }
+
+    private void threshold(int row, int width, int height, byte[] out) {
+        final int radius = thresholdRadius;
+        final int[] sums = columnSums;
+        final int last = height - 1;
+
+        // Sums of the block columns, with the first and last rows replicated
+        if(row == 0) {
+            final int[] first = blurredRows[0];
+            for(int x = 0; x < width; x++)
+                sums[x] = first[x] * (radius + 1);
+            for(int k = 1; k <= radius; k++) {
+                final int[] in = blurredRows[Math.min(k, last) % blurredRows.length];
+                for(int x = 0; x < width; x++)
+                    sums[x] += in[x];
+            }
+        } else {
+            final int[] entering = blurredRows[Math.min(row + radius, last) % blurredRows.length];
+            final int[] leaving = blurredRows[Math.max(row - radius - 1, 0) % blurredRows.length];
+            for(int x = 0; x < width; x++)
+                sums[x] += entering[x] - leaving[x];
+        }
+
+        final int[] blurred = blurredRows[row % blurredRows.length];
+        final int lastColumn = width - 1;
+        final int divDelta = this.divDelta;
+        final int divScale = this.divScale;
+        final int offset = -thresholdOffset;
+        int sum = sums[0] * (radius + 1);
+        for(int k = 1; k <= radius; k++)
+            sum += sums[Math.min(k, lastColumn)];
+
+        // Only the first and last columns of the block need to be clamped
+        final int middleStart = Math.min(radius + 1, width);
+        final int middleEnd = Math.max(middleStart, width - radius - 1);
+        int x = 0;
+        for(; x < middleStart; x++) {
+            final int mean = ((sum + divDelta) * divScale) >>> DIV_SHIFT;
+            out[x] = blurred[x] - mean > offset ? (byte) 255 : 0;
+            sum += sums[Math.min(x + radius + 1, lastColumn)] - sums[Math.max(x - radius, 0)];
+        }
+        for(; x < middleEnd; x++) {
+            final int mean = ((sum + divDelta) * divScale) >>> DIV_SHIFT;
+            out[x] = blurred[x] - mean > offset ? (byte) 255 : 0;
+            sum += sums[x + radius + 1] - sums[x - radius];
+        }
+        for(; x < width; x++) {
+            final int mean = ((sum + divDelta) * divScale) >>> DIV_SHIFT;
+            out[x] = blurred[x] - mean > offset ? (byte) 255 : 0;
+            sum += sums[Math.min(x + radius + 1, lastColumn)] - sums[Math.max(x - radius, 0)];
+        }
+    }
+
+    // The opening works on rows of bits, 64 pixels to a word. As the pixels are either 0 or 255,
+    // the minimum of the erosion is an and of the window, and the maximum of the dilation an or.
+    // The pixels outside the image are ignored, by giving them the value which doesn't change the result
+
+    private static void pack(byte[] in, long[] out, int width) {
+        final int words = (width + 63) >>> 6;
+        for(int i = 0; i < words; i++) {
+            final int start = i << 6;
+            final int end = Math.min(start + 64, width);
+            // Past the end of the image as if it were white, for the erosion
+            long word = end - start < 64 ? -1L << (end - start) : 0;
+            for(int x = start; x < end; x++)
+                word |= (long) (in[x] & 1) << x;
+            out[i] = word;
+        }
+    }
+
+    private static void unpack(long[] in, byte[] out, int offset, int width) {
+        for(int x = 0; x < width; x++)
+            out[offset + x] = (byte) -((in[x >>> 6] >>> x) & 1);
+    }
+
+    private static void erodeRow(long[] in, long[] out, int words, int radius) {
+        for(int i = 0; i < words; i++) {
+            final long word = in[i];
+            final long prev = i > 0 ? in[i - 1] : -1L;
+            final long next = i < words - 1 ? in[i + 1] : -1L;
+            long value = word;
+            for(int k = 1; k <= radius; k++)
+                value &= (word >>> k | next << (64 - k)) & (word << k | prev >>> (64 - k));
+            out[i] = value;
+        }
+    }
+
+    private static void dilateRow(long[] in, long[] out, int words, int radius) {
+        for(int i = 0; i < words; i++) {
+            final long word = in[i];
+            final long prev = i > 0 ? in[i - 1] : 0;
+            final long next = i < words - 1 ? in[i + 1] : 0;
+            long value = word;
+            for(int k = 1; k <= radius; k++)
+                value |= (word >>> k | next << (64 - k)) | (word << k | prev >>> (64 - k));
+            out[i] = value;
+        }
+    }
+
+    private static void erodeColumns(long[][] rows, int row, int words, int height, int radius, long[] out) {
+        final int first = Math.max(0, row - radius);
+        final int last = Math.min(height - 1, row + radius);
+        System.arraycopy(rows[first % rows.length], 0, out, 0, words);
+        for(int k = first + 1; k <= last; k++) {
+            final long[] in = rows[k % rows.length];
+            for(int i = 0; i < words; i++)
+                out[i] &= in[i];
+        }
+    }
+
+    private static void dilateColumns(long[][] rows, int row, int words, int height, int radius, long[] out) {
+        final int first = Math.max(0, row - radius);
+        final int last = Math.min(height - 1, row + radius);
+        System.arraycopy(rows[first % rows.length], 0, out, 0, words);
+        for(int k = first + 1; k <= last; k++) {
+            final long[] in = rows[k % rows.length];
+            for(int i = 0; i < words; i++)
+                out[i] |= in[i];
+        }
+    }
+
+    private static int reflect101(int p, int length) {
+        if(length == 1)
+            return 0;
+        while (p < 0 || p >= length)
+            p = p < 0 ? -p : 2 * length - 2 - p;
+        return p;
+    }
+}
@@ -0,0 +1,113 @@
+package gov.ismonnet.blindgambling;
+
+/**
+ * Feeds the frames of a {@link FrameSource} to a {@link CardProcessor} as fast as possible,
+ * timing the processing separately from the time spent producing the frames.
+ */
+public class HeadlessRunner {
+
+    private final FrameSource source;
+    private final CardProcessor processor;
+    private boolean render = true;
+
+    private final CardQuads cards = new CardQuads();
+
+    public HeadlessRunner(FrameSource source, CardProcessor processor) {
+        this.source = source;
+        this.processor = processor;
+    }
+
+    /**
+     * @param render whether each frame is also rendered, as the preview would
+     */
+    public void setRender(boolean render) {
+        this.render = render;
+    }
+
+    /**
+     * Processes the frames until the source ends or the maximum number of frames is reached.
+     * The processor is started and stopped by the runner.
+     *
+     * @param maxFrames maximum number of frames to process
+     * @return timings of the run
+     */
+    public Report run(int maxFrames) {
+        final Report report = new Report();
+
+        processor.start(source.getWidth(), source.getHeight());
+        try {
+            long sourceStart = System.nanoTime();
+            while (report.frames < maxFrames && source.next()) {
+                final long start = System.nanoTime();
+                report.sourceNanos += start - sourceStart;
+
+                if(render)
+                    processor.process(source.gray(), source.rgba());
+                else
+                    processor.detect(source.gray());
+
+                final long end = System.nanoTime();
+                report.processNanos += end - start;
+                report.maxFrameNanos = Math.max(report.maxFrameNanos, end - start);
+                report.frames++;
+
+                processor.getCards(cards);
+                report.cards += cards.size();
+
+                sourceStart = System.nanoTime();
+            }
+        } finally {
+            processor.stop();
+        }
+        return report;
+    }
+
+    public static class Report {
+
+        private int frames;
+        private long processNanos;
+        private long sourceNanos;
+        private long maxFrameNanos;
+        private long cards;
+
+        public int getFrames() {
+            return frames;
+        }
+
+        /**
+         * @return frames per second counting only the processing time
+         */
+        public double getFps() {
+            return processNanos == 0 ? 0 : frames * 1e9 / processNanos;
+        }
+
+        /**
+         * @return frames per second counting also the time the source took to produce them
+         */
+        public double getWallFps() {
+            return processNanos + sourceNanos == 0 ? 0 : frames * 1e9 / (processNanos + sourceNanos);
+        }
+
+        public double getAverageFrameMillis() {
+            return frames == 0 ? 0 : processNanos / 1e6 / frames;
+        }
+
+        public double getMaxFrameMillis() {
+            return maxFrameNanos / 1e6;
+        }
+
+        /**
+         * @return average number of cards found per frame
+         */
+        public double getAverageCards() {
+            return frames == 0 ? 0 : (double) cards / frames;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(java.util.Locale.ROOT,
+                    "%d frames, %.1f fps (%.1f fps with the source), %.2f ms avg, %.2f ms max, %.2f cards/frame",
+                    frames, getFps(), getWallFps(), getAverageFrameMillis(), getMaxFrameMillis(), getAverageCards());
+        }
+    }
+}
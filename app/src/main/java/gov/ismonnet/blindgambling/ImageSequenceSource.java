@@ -0,0 +1,131 @@
+package gov.ismonnet.blindgambling;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.opencv.imgcodecs.Imgcodecs.IMREAD_COLOR;
+import static org.opencv.imgcodecs.Imgcodecs.imread;
+import static org.opencv.imgproc.Imgproc.COLOR_BGR2GRAY;
+import static org.opencv.imgproc.Imgproc.COLOR_BGR2RGBA;
+import static org.opencv.imgproc.Imgproc.INTER_AREA;
+import static org.opencv.imgproc.Imgproc.cvtColor;
+import static org.opencv.imgproc.Imgproc.resize;
+
+/**
+ * Frames decoded from a sequence of image files, all scaled to the size of the first one.
+ */
+public class ImageSequenceSource implements FrameSource {
+
+    private final List<String> paths;
+    private final int loops;
+
+    private final int width;
+    private final int height;
+    private final Size size;
+
+    private Mat bgr;
+    private final Mat gray;
+    private final Mat rgba;
+    private boolean rgbaReady;
+
+    private int frame = -1;
+
+    /**
+     * @param paths paths of the images, in order
+     * @param loops number of times the sequence is repeated
+     */
+    public ImageSequenceSource(List<String> paths, int loops) {
+        if(paths.isEmpty())
+            throw new IllegalArgumentException("The image sequence is empty");
+
+        this.paths = new ArrayList<>(paths);
+        this.loops = loops;
+
+        bgr = read(paths.get(0));
+        width = bgr.cols();
+        height = bgr.rows();
+        size = new Size(width, height);
+
+        gray = new Mat(height, width, CvType.CV_8UC1);
+        rgba = new Mat(height, width, CvType.CV_8UC4);
+    }
+
+    /**
+     * @param directory directory containing the png and jpg images, sorted by name
+     * @param loops number of times the sequence is repeated
+     */
+    public static ImageSequenceSource fromDirectory(File directory, int loops) {
+        final File[] files = directory.listFiles((dir, name) -> {
+            final String lower = name.toLowerCase();
+            return lower.endsWith(".png") || lower.endsWith(".jpg") || lower.endsWith(".jpeg");
+        });
+        if(files == null)
+            throw new IllegalArgumentException(directory + " is not a directory");
+        Arrays.sort(files);
+
+        final List<String> paths = new ArrayList<>(files.length);
+        for(File file : files)
+            paths.add(file.getPath());
+        return new ImageSequenceSource(paths, loops);
+    }
+
+    private static Mat read(String path) {
+        final Mat image = imread(path, IMREAD_COLOR);
+        if(image.empty())
+            throw new IllegalArgumentException("Couldn't read image " + path);
+        return image;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public boolean next() {
+        if(frame + 1 >= paths.size() * loops)
+            return false;
+        frame++;
+
+        bgr.release();
+        bgr = read(paths.get(frame % paths.size()));
+        if(bgr.cols() != width || bgr.rows() != height)
+            resize(bgr, bgr, size, 0, 0, INTER_AREA);
+
+        cvtColor(bgr, gray, COLOR_BGR2GRAY);
+        rgbaReady = false;
+        return true;
+    }
+
+    @Override
+    public Mat gray() {
+        return gray;
+    }
+
+    @Override
+    public Mat rgba() {
+        if(!rgbaReady) {
+            cvtColor(bgr, rgba, COLOR_BGR2RGBA);
+            rgbaReady = true;
+        }
+        return rgba;
+    }
+
+    @Override
+    public void release() {
+        bgr.release();
+        gray.release();
+        rgba.release();
+    }
+}
@@ -0,0 +1,93 @@
+package gov.ismonnet.blindgambling;
+
+/**
+ * Histogram of durations with log-linear buckets, in the style of HdrHistogram:
+ * each power of two is split in {@value #SUB_BUCKETS} linear buckets, so the
+ * percentiles are accurate to about 3% from 1 microsecond up to {@value #MAX_MICROS} microseconds.
+ *
+ * Recording is a few shifts and an array increment, without allocations or locks.
+ * It's meant to be written by a single thread; other threads can read the percentiles
+ * at any time, seeing a slightly stale but still meaningful distribution.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // About 16 seconds, anything longer is recorded in the last bucket
+    private static final long MAX_MICROS = (1L << 24) - 1;
+    private static final int BUCKETS = bucketOf(MAX_MICROS) + 1;
+
+    private final int[] counts = new int[BUCKETS];
+    private volatile int totalCount;
+    private volatile long maxMicros;
+
+    /**
+     * @param nanos duration to record, in nanoseconds
+     */
+    public void record(long nanos) {
+        final long micros = Math.min(Math.max(nanos / 1000, 0), MAX_MICROS);
+        counts[bucketOf(micros)]++;
+        totalCount++;
+        if(micros > maxMicros)
+            maxMicros = micros;
+    }
+
+    /**
+     * Empties the histogram. Values recorded concurrently by the writer thread may get lost.
+     */
+    public void reset() {
+        for(int i = 0; i < counts.length; i++)
+            counts[i] = 0;
+        totalCount = 0;
+        maxMicros = 0;
+    }
+
+    public int getCount() {
+        return totalCount;
+    }
+
+    public long getMaxMicros() {
+        return maxMicros;
+    }
+
+    /**
+     * @param percentile percentile to compute, between 0 and 100
+     * @return highest value, in microseconds, of the bucket the percentile falls in,
+     *         or 0 if nothing has been recorded
+     */
+    public long getPercentileMicros(double percentile) {
+        int total = 0;
+        for(int i = 0; i < counts.length; i++)
+            total += counts[i];
+        if(total == 0)
+            return 0;
+
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for(int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if(seen >= rank)
+                return Math.min(highestInBucket(i), maxMicros);
+        }
+        return maxMicros;
+    }
+
+    static int bucketOf(long micros) {
+        if(micros < SUB_BUCKETS)
+            return (int) micros;
+
+        // Keep the SUB_BUCKET_BITS + 1 most significant bits, the first one being always set
+        final int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+        final int subBucket = (int) (micros >>> shift);
+        return shift * SUB_BUCKETS + subBucket;
+    }
+
+    static long highestInBucket(int bucket) {
+        if(bucket < SUB_BUCKETS)
+            return bucket;
+
+        final int shift = bucket / SUB_BUCKETS - 1;
+        final int subBucket = bucket - shift * SUB_BUCKETS;
+        return ((long) (subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,92 @@
+package gov.ismonnet.blindgambling;
+
+/**
+ * Bounded handoff between two threads which only ever keeps the latest value.
+ *
+ * When the producer offers a new value while the previous one hasn't been
+ * taken yet, the old value is handed back to the producer and counted as dropped,
+ * so that a slow consumer always gets the most recent value and never builds up a backlog.
+ *
+ * @param <T> type of the values exchanged
+ */
+public class LatestValueHandoff<T> {
+
+    private T value;
+
+    private long offered;
+    private long taken;
+    private long dropped;
+
+    /**
+     * Publishes a new value, replacing the one currently waiting, if any.
+     *
+     * @param newValue value to publish
+     * @return the value which was replaced and never taken, or null
+     */
+    public synchronized T offer(T newValue) {
+        final T old = value;
+        value = newValue;
+
+        offered++;
+        if(old != null)
+            dropped++;
+
+        notifyAll();
+        return old;
+    }
+
+    /**
+     * Waits for a value to be published and removes it from the handoff.
+     *
+     * @return the latest value published
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public synchronized T take() throws InterruptedException {
+        while (value == null)
+            wait();
+
+        final T ret = value;
+        value = null;
+        taken++;
+        return ret;
+    }
+
+    /**
+     * Removes the value currently waiting without blocking.
+     *
+     * @return the value which was waiting, or null
+     */
+    public synchronized T poll() {
+        final T ret = value;
+        value = null;
+        return ret;
+    }
+
+    /**
+     * @return number of values waiting to be taken, either 0 or 1
+     */
+    public synchronized int getDepth() {
+        return value == null ? 0 : 1;
+    }
+
+    public synchronized long getOfferedCount() {
+        return offered;
+    }
+
+    public synchronized long getTakenCount() {
+        return taken;
+    }
+
+    public synchronized long getDropCount() {
+        return dropped;
+    }
+
+    /**
+     * Sets the offered, taken and dropped counts back to 0.
+     */
+    public synchronized void resetCounts() {
+        offered = 0;
+        taken = 0;
+        dropped = 0;
+    }
+}
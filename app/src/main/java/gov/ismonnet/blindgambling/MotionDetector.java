@@ -0,0 +1,324 @@
+package gov.ismonnet.blindgambling;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+
+import static org.opencv.imgproc.Imgproc.INTER_AREA;
+import static org.opencv.imgproc.Imgproc.resize;
+
+/**
+ * Cheap change detector run before the card detection, so that the expensive stages
+ * can be skipped while the table is static and limited to the areas which changed otherwise.
+ *
+ * The frame is shrunk so that each cell of {@value #DEFAULT_CELL_SIZE} pixels becomes a single one,
+ * and the cells are compared in pure Java against the last value motion was reported for.
+ * Only the changed cells move their reference forward, or all of them when the whole frame
+ * is reported, so slow changes elsewhere still add up until they are noticed.
+ * The changed cells are grouped into at most {@value #MAX_REGIONS} padded regions; when there
+ * would be more, or too much of the frame changed, like when the exposure changes,
+ * the whole frame is reported instead.
+ */
+public class MotionDetector {
+
+    // Nothing changed, the last results can be reused
+    public static final int NONE = 0;
+    // Only the regions returned by getRegions changed
+    public static final int REGIONS = 1;
+    // The whole frame needs to be processed again
+    public static final int GLOBAL = 2;
+
+    public static final int MAX_REGIONS = 8;
+
+    private static final int DEFAULT_CELL_SIZE = 16;
+    private static final int DEFAULT_THRESHOLD = 12;
+    private static final float DEFAULT_GLOBAL_FRACTION = 0.25f;
+    // Padding, in cells, around the changed cells of a region
+    private static final int REGION_PADDING = 1;
+
+    private final int cellSize;
+    private volatile int threshold = DEFAULT_THRESHOLD;
+    private volatile float globalFraction = DEFAULT_GLOBAL_FRACTION;
+
+    private int width;
+    private int height;
+    private int cols;
+    private int rows;
+    private Mat small;
+    private Size smallSize;
+    private byte[] current;
+    private byte[] reference;
+    private boolean hasReference;
+    // Per cell: 0 if unchanged, -1 if changed and not yet in a region, 1 once in a region
+    private byte[] cells;
+    private int[] stack;
+
+    private final Rect[] regions = new Rect[MAX_REGIONS];
+    private int regionCount;
+
+    private StageProfiler profiler = StageProfiler.DISABLED;
+    private boolean started;
+
+    private volatile long staticFrames;
+    private volatile long regionFrames;
+    private volatile long globalFrames;
+
+    public MotionDetector() {
+        this(DEFAULT_CELL_SIZE);
+    }
+
+    /**
+     * @param cellSize side, in pixels, of the squares of the frame compared as a single value
+     */
+    public MotionDetector(int cellSize) {
+        if(cellSize < 1)
+            throw new IllegalArgumentException("The cells need to be at least 1 pixel");
+        this.cellSize = cellSize;
+        for(int i = 0; i < MAX_REGIONS; i++)
+            regions[i] = new Rect();
+    }
+
+    public void start(int width, int height) {
+        if(started)
+            stop();
+
+        this.width = width;
+        this.height = height;
+        cols = Math.max(1, width / cellSize);
+        rows = Math.max(1, height / cellSize);
+        smallSize = new Size(cols, rows);
+        small = new Mat(rows, cols, CvType.CV_8UC1);
+        current = new byte[cols * rows];
+        reference = new byte[cols * rows];
+        cells = new byte[cols * rows];
+        stack = new int[cols * rows];
+        hasReference = false;
+        regionCount = 0;
+
+        started = true;
+    }
+
+    public void stop() {
+        if(!started)
+            return;
+        started = false;
+
+        small.release();
+    }
+
+    /**
+     * @param profiler where to record how long each comparison takes
+     */
+    public void setProfiler(StageProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    /**
+     * @param threshold difference in the average grey level of a cell for it to be considered changed
+     */
+    public void setThreshold(int threshold) {
+        this.threshold = threshold;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * @param globalFraction fraction of the cells which need to change for the whole frame to be reported
+     */
+    public void setGlobalFraction(float globalFraction) {
+        this.globalFraction = globalFraction;
+    }
+
+    public float getGlobalFraction() {
+        return globalFraction;
+    }
+
+    /**
+     * Compares each cell of the frame with the last value motion was reported for in it.
+     *
+     * @param grey frame to compare
+     * @return one of {@link #NONE}, {@link #REGIONS} or {@link #GLOBAL}
+     */
+    public int detect(Mat grey) {
+        final long start = profiler.start();
+        resize(grey, small, smallSize, 0, 0, INTER_AREA);
+        small.get(0, 0, current);
+        final int motion = compare();
+        profiler.stop(StageProfiler.MOTION, start);
+
+        if(motion == NONE)
+            staticFrames++;
+        else if(motion == REGIONS)
+            regionFrames++;
+        else
+            globalFrames++;
+        return motion;
+    }
+
+    private int compare() {
+        regionCount = 0;
+        if(!hasReference) {
+            hasReference = true;
+            updateReference();
+            return GLOBAL;
+        }
+
+        final int threshold = this.threshold;
+        int changed = 0;
+        for(int i = 0; i < current.length; i++) {
+            final int diff = (current[i] & 0xFF) - (reference[i] & 0xFF);
+            final boolean cellChanged = diff > threshold || diff < -threshold;
+            cells[i] = cellChanged ? (byte) -1 : 0;
+            if(cellChanged)
+                changed++;
+        }
+
+        if(changed == 0)
+            return NONE;
+
+        if(changed > globalFraction * current.length) {
+            updateReference();
+            return GLOBAL;
+        }
+
+        for(int i = 0; i < cells.length; i++) {
+            if(cells[i] != -1)
+                continue;
+            if(regionCount == MAX_REGIONS) {
+                regionCount = 0;
+                updateReference();
+                return GLOBAL;
+            }
+            fillRegion(i, regions[regionCount++]);
+        }
+
+        updateChangedCells();
+        regionCount = mergeOverlapping(regions, regionCount);
+        return REGIONS;
+    }
+
+    /**
+     * Collects the changed cells 8-connected to the given one,
+     * and stores their padded bounding box in frame coordinates.
+     */
+    private void fillRegion(int seed, Rect out) {
+        int minCol = cols, minRow = rows, maxCol = -1, maxRow = -1;
+
+        int size = 0;
+        stack[size++] = seed;
+        cells[seed] = 1;
+        while (size > 0) {
+            final int cell = stack[--size];
+            final int col = cell % cols;
+            final int row = cell / cols;
+            minCol = Math.min(minCol, col);
+            minRow = Math.min(minRow, row);
+            maxCol = Math.max(maxCol, col);
+            maxRow = Math.max(maxRow, row);
+
+            for(int r = Math.max(0, row - 1); r <= Math.min(rows - 1, row + 1); r++) {
+                for(int c = Math.max(0, col - 1); c <= Math.min(cols - 1, col + 1); c++) {
+                    final int neighbour = r * cols + c;
+                    if(cells[neighbour] == -1) {
+                        cells[neighbour] = 1;
+                        stack[size++] = neighbour;
+                    }
+                }
+            }
+        }
+
+        // The last cells also cover the pixels left over by the integer division
+        final float scaleX = (float) width / cols;
+        final float scaleY = (float) height / rows;
+        out.x = Math.max(0, (int) ((minCol - REGION_PADDING) * scaleX));
+        out.y = Math.max(0, (int) ((minRow - REGION_PADDING) * scaleY));
+        out.width = Math.min(width, (int) Math.ceil((maxCol + 1 + REGION_PADDING) * scaleX)) - out.x;
+        out.height = Math.min(height, (int) Math.ceil((maxRow + 1 + REGION_PADDING) * scaleY)) - out.y;
+    }
+
+    private void updateReference() {
+        final byte[] tmp = reference;
+        reference = current;
+        current = tmp;
+    }
+
+    // The cells which didn't change keep drifting from their reference until they do
+    private void updateChangedCells() {
+        for(int i = 0; i < cells.length; i++) {
+            if(cells[i] != 0)
+                reference[i] = current[i];
+        }
+    }
+
+    /**
+     * Replaces the overlapping rectangles with their bounding box until none overlap.
+     *
+     * @param rects rectangles to merge, the merged ones are moved to the front
+     * @param count number of rectangles
+     * @return number of rectangles left
+     */
+    static int mergeOverlapping(Rect[] rects, int count) {
+        boolean merged = true;
+        while (merged) {
+            merged = false;
+            for(int i = 0; i < count && !merged; i++) {
+                for(int j = i + 1; j < count && !merged; j++) {
+                    final Rect a = rects[i];
+                    final Rect b = rects[j];
+                    if(a.x >= b.x + b.width || b.x >= a.x + a.width ||
+                            a.y >= b.y + b.height || b.y >= a.y + a.height)
+                        continue;
+
+                    final int right = Math.max(a.x + a.width, b.x + b.width);
+                    final int bottom = Math.max(a.y + a.height, b.y + b.height);
+                    a.x = Math.min(a.x, b.x);
+                    a.y = Math.min(a.y, b.y);
+                    a.width = right - a.x;
+                    a.height = bottom - a.y;
+
+                    // Keep the instances, swapping the removed one past the end
+                    rects[j] = rects[count - 1];
+                    rects[count - 1] = b;
+                    count--;
+                    merged = true;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the regions which changed in the last frame, valid when it returned {@link #REGIONS}
+     */
+    public Rect[] getRegions() {
+        return regions;
+    }
+
+    public int getRegionCount() {
+        return regionCount;
+    }
+
+    /**
+     * @return number of frames where nothing changed
+     */
+    public long getStaticFrameCount() {
+        return staticFrames;
+    }
+
+    /**
+     * @return number of frames where only some regions changed
+     */
+    public long getRegionFrameCount() {
+        return regionFrames;
+    }
+
+    /**
+     * @return number of frames which had to be processed as a whole
+     */
+    public long getGlobalFrameCount() {
+        return globalFrames;
+    }
+}
@@ -0,0 +1,117 @@
+package gov.ismonnet.blindgambling;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.opencv.imgproc.Imgproc.COLOR_YUV2RGBA_NV21;
+import static org.opencv.imgproc.Imgproc.cvtColor;
+
+/**
+ * Frames read from a raw dump of NV21 preview buffers, written one after the other,
+ * as delivered by the camera to {@code onPreviewFrame}.
+ */
+public class Nv21DumpSource implements FrameSource {
+
+    private final RandomAccessFile file;
+    private final int width;
+    private final int height;
+    private final int frameCount;
+    private final boolean loop;
+
+    private final byte[] buffer;
+    private final Mat yuv;
+    private final Mat gray;
+    private final Mat rgba;
+    private boolean rgbaReady;
+
+    private int frame = -1;
+
+    /**
+     * @param dump file containing the frames
+     * @param width width of the frames
+     * @param height height of the frames
+     * @param loop whether to start again from the first frame once the last one is reached
+     * @throws IOException if the file can't be opened
+     */
+    public Nv21DumpSource(File dump, int width, int height, boolean loop) throws IOException {
+        this.width = width;
+        this.height = height;
+        this.loop = loop;
+
+        // Full resolution Y plane followed by interleaved half resolution V and U
+        buffer = new byte[width * height * 3 / 2];
+        frameCount = (int) (dump.length() / buffer.length);
+        if(frameCount == 0)
+            throw new IllegalArgumentException(dump + " doesn't contain a whole " + width + "x" + height + " frame");
+        file = new RandomAccessFile(dump, "r");
+
+        yuv = new Mat(height + height / 2, width, CvType.CV_8UC1);
+        gray = yuv.submat(0, height, 0, width);
+        rgba = new Mat(height, width, CvType.CV_8UC4);
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    @Override
+    public boolean next() {
+        try {
+            if(frame + 1 >= frameCount) {
+                if(!loop)
+                    return false;
+                file.seek(0);
+                frame = -1;
+            }
+
+            file.readFully(buffer);
+            frame++;
+        } catch (IOException e) {
+            throw new IllegalStateException("Couldn't read frame " + (frame + 1), e);
+        }
+
+        yuv.put(0, 0, buffer);
+        rgbaReady = false;
+        return true;
+    }
+
+    @Override
+    public Mat gray() {
+        return gray;
+    }
+
+    @Override
+    public Mat rgba() {
+        if(!rgbaReady) {
+            cvtColor(yuv, rgba, COLOR_YUV2RGBA_NV21, 4);
+            rgbaReady = true;
+        }
+        return rgba;
+    }
+
+    @Override
+    public void release() {
+        try {
+            file.close();
+        } catch (IOException ignored) {
+            // Only read from
+        }
+        gray.release();
+        yuv.release();
+        rgba.release();
+    }
+}
@@ -0,0 +1,219 @@
+package gov.ismonnet.blindgambling;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.PorterDuff;
+import android.util.Log;
+import android.view.SurfaceHolder;
+
+import org.opencv.android.CameraBridgeViewBase;
+import org.opencv.android.FpsMeter;
+import org.opencv.android.Utils;
+import org.opencv.core.Mat;
+
+import java.lang.reflect.Field;
+
+import static android.content.ContentValues.TAG;
+
+/**
+ * Draws the processed frames of a camera view rotated to match the display,
+ * together with the overlays on top of them.
+ *
+ * Shared by the camera views so that the preview looks the same whichever camera API delivers the frames.
+ * All the methods drawing are expected to be called by the same thread.
+ */
+public class PreviewRenderer {
+
+    // Transform from the cached bitmap to the surface, only touched by the thread drawing the preview
+    private final Matrix displayMatrix = new Matrix();
+    private volatile boolean displayMatrixDirty = true;
+    private int matrixCanvasWidth;
+    private int matrixCanvasHeight;
+    private int matrixBitmapWidth;
+    private int matrixBitmapHeight;
+    private float matrixScale;
+    private int matrixRotation;
+
+    private volatile RotatingCameraView.CvCameraViewOverlay overlay;
+
+    private StageProfiler profiler = StageProfiler.DISABLED;
+    private ProfilerOverlay profilerOverlay;
+    private volatile boolean profilerOverlayVisible;
+
+    /**
+     * Sets the overlay drawn on top of every frame of the preview.
+     *
+     * @param overlay overlay to draw, or null to only draw the preview
+     */
+    public void setOverlay(RotatingCameraView.CvCameraViewOverlay overlay) {
+        this.overlay = overlay;
+    }
+
+    /**
+     * Sets where to record the time spent converting and drawing each frame,
+     * and whose results are drawn by the profiler overlay.
+     *
+     * @param profiler profiler to record to
+     */
+    public void setProfiler(StageProfiler profiler) {
+        this.profiler = profiler;
+        this.profilerOverlay = new ProfilerOverlay(profiler);
+    }
+
+    /**
+     * Shows or hides the percentiles of the profiler on top of the preview.
+     *
+     * @param visible true to show the overlay
+     */
+    public void setProfilerOverlayVisible(boolean visible) {
+        this.profilerOverlayVisible = visible;
+    }
+
+    public boolean isProfilerOverlayVisible() {
+        return profilerOverlayVisible;
+    }
+
+    /**
+     * Forces the transform of the preview to be computed again on the next frame.
+     * Needs to be called when something it depends on changes without changing its size,
+     * like the display being turned upside down.
+     */
+    public void invalidate() {
+        displayMatrixDirty = true;
+    }
+
+    /**
+     * Converts the frame into the bitmap and draws it on the surface.
+     *
+     * @param holder holder of the surface to draw on
+     * @param modified frame to draw, or null to draw the last one again
+     * @param cacheBitmap bitmap of the size of the frames
+     * @param scale scale of the bitmap on the surface, or 0 not to scale it
+     * @param rotation clockwise rotation of the bitmap on the surface, a multiple of 90 degrees
+     * @param fpsMeter meter to update and draw, or null
+     */
+    public void render(SurfaceHolder holder, Mat modified, Bitmap cacheBitmap,
+                       float scale, int rotation, FpsMeter fpsMeter) {
+
+        Canvas canvas = holder.lockCanvas();
+        if (canvas == null)
+            return;
+
+        boolean bmpValid = true;
+        if (modified != null) {
+            try {
+                final long start = profiler.start();
+                Utils.matToBitmap(modified, cacheBitmap);
+                profiler.stop(StageProfiler.MAT_TO_BITMAP, start);
+            } catch(Exception e) {
+                Log.e(TAG, "Mat type: " + modified);
+                Log.e(TAG, "Bitmap type: " + cacheBitmap.getWidth() + "*" + cacheBitmap.getHeight());
+                Log.e(TAG, "Utils.matToBitmap() throws an exception: " + e.getMessage());
+                bmpValid = false;
+            }
+        }
+
+        final long drawStart = profiler.start();
+        canvas.drawColor(0, PorterDuff.Mode.CLEAR);
+        if (!bmpValid && cacheBitmap == null) {
+            holder.unlockCanvasAndPost(canvas);
+            return;
+        }
+
+        updateDisplayMatrix(canvas.getWidth(), canvas.getHeight(), cacheBitmap, scale, rotation);
+        canvas.drawBitmap(cacheBitmap, displayMatrix, null);
+
+        final RotatingCameraView.CvCameraViewOverlay overlay = this.overlay;
+        if (overlay != null) {
+            canvas.save();
+            canvas.concat(displayMatrix);
+            overlay.draw(canvas);
+            canvas.restore();
+        }
+
+        if (fpsMeter != null) {
+            fpsMeter.measure();
+            fpsMeter.draw(canvas, 20, 30);
+        }
+
+        final ProfilerOverlay profilerOverlay = this.profilerOverlay;
+        if (profilerOverlayVisible && profilerOverlay != null)
+            profilerOverlay.draw(canvas, 20, 60);
+
+        holder.unlockCanvasAndPost(canvas);
+        profiler.stop(StageProfiler.CANVAS_DRAW, drawStart);
+    }
+
+    /**
+     * Recomputes the transform of the preview if the rotation, the surface or the bitmap changed.
+     * In the steady state it only compares a few fields.
+     */
+    private void updateDisplayMatrix(int canvasWidth, int canvasHeight, Bitmap cacheBitmap,
+                                     float scale, int rotation) {
+        final int bitmapWidth = cacheBitmap.getWidth();
+        final int bitmapHeight = cacheBitmap.getHeight();
+        if (scale == 0)
+            scale = 1;
+        if (!displayMatrixDirty &&
+                canvasWidth == matrixCanvasWidth && canvasHeight == matrixCanvasHeight &&
+                bitmapWidth == matrixBitmapWidth && bitmapHeight == matrixBitmapHeight &&
+                scale == matrixScale && rotation == matrixRotation)
+            return;
+
+        displayMatrixDirty = false;
+        matrixCanvasWidth = canvasWidth;
+        matrixCanvasHeight = canvasHeight;
+        matrixBitmapWidth = bitmapWidth;
+        matrixBitmapHeight = bitmapHeight;
+        matrixScale = scale;
+        matrixRotation = rotation;
+
+        final boolean rotate = rotation == 90 || rotation == 270;
+        final float width = !rotate ? canvasWidth : canvasHeight;
+        final float height = !rotate ? canvasHeight : canvasWidth;
+
+        // Scale and center the bitmap in the surface as if it wasn't rotated, then rotate it in place
+        displayMatrix.setScale(scale, scale);
+        displayMatrix.postTranslate((width - scale * bitmapWidth) / 2, (height - scale * bitmapHeight) / 2);
+        if (rotation == 90) {
+            displayMatrix.postRotate(90);
+            displayMatrix.postTranslate(canvasWidth, 0);
+        } else if (rotation == 270) {
+            displayMatrix.postRotate(270);
+            displayMatrix.postTranslate(0, canvasHeight);
+        } else {
+            displayMatrix.postRotate(rotation, canvasWidth / 2f, canvasHeight / 2f);
+        }
+    }
+
+    /**
+     * Gets the bitmap the base view allocated for the frames, which is private to it.
+     */
+    static Bitmap findCacheBitmap(CameraBridgeViewBase view) {
+        try {
+            final Class<CameraBridgeViewBase> clazz = CameraBridgeViewBase.class;
+            final Field field = clazz.getDeclaredField("mCacheBitmap");
+            field.setAccessible(true);
+            return (Bitmap) field.get(view);
+        } catch (Exception ex) {
+            Log.e(TAG, "Couldn't get underlying bitmap instance using reflections", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Gets the listener set on the base view, which is private to it.
+     */
+    static CameraBridgeViewBase.CvCameraViewListener2 findListener(CameraBridgeViewBase view) {
+        try {
+            final Class<CameraBridgeViewBase> clazz = CameraBridgeViewBase.class;
+            final Field field = clazz.getDeclaredField("mListener");
+            field.setAccessible(true);
+            return (CameraBridgeViewBase.CvCameraViewListener2) field.get(view);
+        } catch (Exception ex) {
+            Log.e(TAG, "Couldn't get underlying CvCameraViewListener2 instance using reflections", ex);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package gov.ismonnet.blindgambling;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+
+/**
+ * Draws the percentiles of a {@link StageProfiler} on top of the preview.
+ *
+ * The lines are only formatted again every {@value #REFRESH_FRAMES} frames,
+ * so that the overlay itself doesn't show up in the numbers it draws.
+ */
+public class ProfilerOverlay {
+
+    private static final int REFRESH_FRAMES = 30;
+    private static final float TEXT_SIZE = 20;
+    private static final float LINE_HEIGHT = 24;
+
+    private final StageProfiler profiler;
+    private final Paint textPaint;
+    private final Paint backgroundPaint;
+
+    private final String[] lines = new String[StageProfiler.STAGES];
+    private int lineCount;
+    private float lineWidth;
+    private int frames;
+
+    public ProfilerOverlay(StageProfiler profiler) {
+        this.profiler = profiler;
+
+        textPaint = new Paint();
+        textPaint.setColor(Color.GREEN);
+        textPaint.setTextSize(TEXT_SIZE);
+        textPaint.setTypeface(Typeface.MONOSPACE);
+
+        backgroundPaint = new Paint();
+        backgroundPaint.setColor(Color.argb(160, 0, 0, 0));
+    }
+
+    public void draw(Canvas canvas, float offsetX, float offsetY) {
+        if(frames++ % REFRESH_FRAMES == 0)
+            refresh();
+        if(lineCount == 0)
+            return;
+
+        canvas.drawRect(offsetX - 4, offsetY - LINE_HEIGHT,
+                offsetX + lineWidth + 4, offsetY + (lineCount - 1) * LINE_HEIGHT + 8,
+                backgroundPaint);
+        for(int i = 0; i < lineCount; i++)
+            canvas.drawText(lines[i], offsetX, offsetY + i * LINE_HEIGHT, textPaint);
+    }
+
+    private void refresh() {
+        lineCount = 0;
+        lineWidth = 0;
+        for(int stage = 0; stage < StageProfiler.STAGES; stage++) {
+            if(profiler.getHistogram(stage).getCount() == 0)
+                continue;
+            lines[lineCount] = profiler.format(stage);
+            lineWidth = Math.max(lineWidth, textPaint.measureText(lines[lineCount]));
+            lineCount++;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package gov.ismonnet.blindgambling;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Keeps the time spent on each frame under a target latency by lowering the quality
+ * of the processing when frames overrun it, and raising it again once there's headroom.
+ *
+ * The quality goes down one level at a time, in the order of the constants below,
+ * after {@value #DEFAULT_OVERRUN_FRAMES} frames in a row over the target. It goes back up
+ * one level after {@value #DEFAULT_RECOVERY_FRAMES} frames in a row under the given fraction of it,
+ * so that the governor doesn't keep bouncing between two levels.
+ */
+public class QualityGovernor {
+
+    // Everything at full quality
+    public static final int FULL = 0;
+    // Cards searched on a half resolution image first
+    public static final int REDUCED_RESOLUTION = 1;
+    // No morphological opening after the threshold
+    public static final int NO_MORPHOLOGY = 2;
+    // Cards classified only every few frames
+    public static final int REDUCED_CLASSIFICATION = 3;
+    // Preview rendered only every few frames
+    public static final int REDUCED_PREVIEW = 4;
+
+    public static final int LOWEST = REDUCED_PREVIEW;
+
+    private static final String[] NAMES = {
+            "full", "reduced resolution", "no morphology", "reduced classification", "reduced preview"
+    };
+
+    private static final long DEFAULT_TARGET_NANOS = 33_000_000;
+    private static final float DEFAULT_HEADROOM = 0.7f;
+    private static final int DEFAULT_OVERRUN_FRAMES = 3;
+    private static final int DEFAULT_RECOVERY_FRAMES = 30;
+
+    public interface Listener {
+        /**
+         * Invoked on the thread reporting the frames when the quality level changes.
+         * The listener is expected to apply the new level before the next frame.
+         *
+         * @param oldLevel level used until now
+         * @param newLevel level to use from the next frame
+         * @param frameNanos time of the frame which caused the transition
+         */
+        void onQualityChanged(int oldLevel, int newLevel, long frameNanos);
+    }
+
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile boolean enabled;
+    private volatile long targetNanos = DEFAULT_TARGET_NANOS;
+    private volatile float headroom = DEFAULT_HEADROOM;
+    private int overrunFrames = DEFAULT_OVERRUN_FRAMES;
+    private int recoveryFrames = DEFAULT_RECOVERY_FRAMES;
+
+    private volatile int level = FULL;
+    private int overruns;
+    private int underruns;
+
+    private volatile long transitions;
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Enables or disables the governor. While disabled, frames are ignored and
+     * the level is left where it was; use {@link #reset()} to go back to full quality.
+     *
+     * @param enabled true to enable the governor
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param targetNanos maximum time a frame should take
+     */
+    public void setTargetNanos(long targetNanos) {
+        this.targetNanos = targetNanos;
+    }
+
+    public long getTargetNanos() {
+        return targetNanos;
+    }
+
+    /**
+     * @param headroom fraction of the target the frames need to stay under for the quality to go up
+     */
+    public void setHeadroom(float headroom) {
+        if(headroom <= 0 || headroom > 1)
+            throw new IllegalArgumentException("The headroom must be between 0 and 1");
+        this.headroom = headroom;
+    }
+
+    public float getHeadroom() {
+        return headroom;
+    }
+
+    /**
+     * @param overrunFrames frames in a row over the target after which the quality goes down
+     * @param recoveryFrames frames in a row with headroom after which the quality goes up
+     */
+    public void setHysteresis(int overrunFrames, int recoveryFrames) {
+        if(overrunFrames < 1 || recoveryFrames < 1)
+            throw new IllegalArgumentException("The hysteresis needs to be at least 1 frame");
+        this.overrunFrames = overrunFrames;
+        this.recoveryFrames = recoveryFrames;
+    }
+
+    /**
+     * Reports how long the last frame took. Must always be called by the same thread.
+     *
+     * @param frameNanos time spent on the frame
+     */
+    public void onFrame(long frameNanos) {
+        if(!enabled)
+            return;
+
+        if(frameNanos > targetNanos) {
+            underruns = 0;
+            if(++overruns >= overrunFrames && level < LOWEST)
+                changeLevel(level + 1, frameNanos);
+        } else if(frameNanos < targetNanos * headroom) {
+            overruns = 0;
+            if(++underruns >= recoveryFrames && level > FULL)
+                changeLevel(level - 1, frameNanos);
+        } else {
+            overruns = 0;
+            underruns = 0;
+        }
+    }
+
+    /**
+     * Goes back to full quality, notifying the listeners if the level changes.
+     */
+    public void reset() {
+        if(level != FULL)
+            changeLevel(FULL, 0);
+    }
+
+    private void changeLevel(int newLevel, long frameNanos) {
+        final int oldLevel = level;
+        level = newLevel;
+        overruns = 0;
+        underruns = 0;
+        transitions++;
+
+        for(Listener listener : listeners)
+            listener.onQualityChanged(oldLevel, newLevel, frameNanos);
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public long getTransitionCount() {
+        return transitions;
+    }
+
+    public static String getName(int level) {
+        return NAMES[level];
+    }
+}
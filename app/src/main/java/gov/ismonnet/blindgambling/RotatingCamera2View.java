@@ -0,0 +1,286 @@
+package gov.ismonnet.blindgambling;
+
+import android.app.Activity;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraManager;
+import android.hardware.display.DisplayManager;
+import android.util.AttributeSet;
+import android.util.Log;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+import org.opencv.android.JavaCamera2View;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+
+import java.util.List;
+
+import static android.content.ContentValues.TAG;
+
+/**
+ * Camera2 counterpart of {@link RotatingCameraView}, drawing the preview rotated to match the display.
+ *
+ * The frames are backed directly by the planes of the images delivered by the camera,
+ * so the gray frame given to the detection is the Y plane itself, without any copy.
+ * Camera2 doesn't rotate the images, so the whole rotation is done by the transform of the preview.
+ */
+public class RotatingCamera2View extends JavaCamera2View {
+
+    protected final Activity mActivity;
+
+    protected volatile int mLastDisplayRotation;
+    protected volatile int mActualCameraRotation;
+
+    protected final PreviewRenderer mRenderer = new PreviewRenderer();
+
+    private final DisplayManager.DisplayListener mDisplayListener = new DisplayManager.DisplayListener() {
+        @Override
+        public void onDisplayAdded(int displayId) {
+        }
+
+        @Override
+        public void onDisplayRemoved(int displayId) {
+        }
+
+        @Override
+        public void onDisplayChanged(int displayId) {
+            // When rotating the screen upside down, the surface is the same size
+            // so surfaceChanged does not get invoked and the rotation is still the old one
+            final int rotation = mActivity.getWindowManager().getDefaultDisplay().getRotation();
+            if (rotation != mLastDisplayRotation) {
+                mActualCameraRotation = getCameraDisplayOrientation();
+                mRenderer.invalidate();
+            }
+        }
+    };
+
+    protected Bitmap mCacheBitmap;
+    protected CvCameraViewListener2 mListener;
+
+    protected boolean mPipelined;
+    protected volatile FramePipeline mPipeline;
+
+    public RotatingCamera2View(Context context, int cameraId) {
+        super(context, cameraId);
+        this.mActivity = (Activity) context;
+    }
+
+    public RotatingCamera2View(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        this.mActivity = (Activity) context;
+    }
+
+    @Override
+    protected boolean connectCamera(int width, int height) {
+        if(!super.connectCamera(width, height))
+            return false;
+
+        // Start the stages before the capture session delivers the first frame
+        if(mPipelined && mPipeline == null && mListener instanceof RotatingCameraView.CvCameraViewPipelineListener) {
+            final RotatingCameraView.CvCameraViewPipelineListener listener =
+                    (RotatingCameraView.CvCameraViewPipelineListener) mListener;
+            final FramePipeline pipeline = new FramePipeline(
+                    listener::onDetectFrame,
+                    frame -> renderFrame(listener.onRenderFrame(frame)));
+            pipeline.start(mFrameWidth, mFrameHeight);
+            mPipeline = pipeline;
+        }
+
+        return true;
+    }
+
+    @Override
+    protected void disconnectCamera() {
+        super.disconnectCamera();
+
+        final FramePipeline pipeline = mPipeline;
+        mPipeline = null;
+        if(pipeline != null)
+            pipeline.stop();
+    }
+
+    /**
+     * Enables or disables the pipelined mode, where detection and rendering
+     * are run on separate threads instead of the camera one.
+     * Requires a {@link RotatingCameraView.CvCameraViewPipelineListener} and takes effect
+     * the next time the camera is connected.
+     *
+     * In pipelined mode every frame has to be copied out of the camera image,
+     * so the detection doesn't work on the Y plane directly anymore. Only the planes are copied
+     * though, the conversion to RGBA is still left to the render stage.
+     *
+     * @param pipelined true to enable the pipelined mode
+     */
+    public void setPipelined(boolean pipelined) {
+        mPipelined = pipelined;
+    }
+
+    public boolean isPipelined() {
+        return mPipelined;
+    }
+
+    /**
+     * @return the pipeline currently running, used to inspect the stages queues, or null
+     */
+    public FramePipeline getPipeline() {
+        return mPipeline;
+    }
+
+    /**
+     * @see RotatingCameraView#setOverlay(RotatingCameraView.CvCameraViewOverlay)
+     */
+    public void setOverlay(RotatingCameraView.CvCameraViewOverlay overlay) {
+        mRenderer.setOverlay(overlay);
+    }
+
+    /**
+     * @see RotatingCameraView#setProfiler(StageProfiler)
+     */
+    public void setProfiler(StageProfiler profiler) {
+        mRenderer.setProfiler(profiler);
+    }
+
+    /**
+     * @see RotatingCameraView#setProfilerOverlayVisible(boolean)
+     */
+    public void setProfilerOverlayVisible(boolean visible) {
+        mRenderer.setProfilerOverlayVisible(visible);
+    }
+
+    public boolean isProfilerOverlayVisible() {
+        return mRenderer.isProfilerOverlayVisible();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        final DisplayManager displayManager = (DisplayManager) getContext().getSystemService(Context.DISPLAY_SERVICE);
+        if (displayManager != null)
+            displayManager.registerDisplayListener(mDisplayListener, null);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        final DisplayManager displayManager = (DisplayManager) getContext().getSystemService(Context.DISPLAY_SERVICE);
+        if (displayManager != null)
+            displayManager.unregisterDisplayListener(mDisplayListener);
+    }
+
+    @Override
+    public void surfaceChanged(SurfaceHolder holder, int format, int w, int h) {
+        super.surfaceChanged(holder, format, w, h);
+
+        // Calculate the scale correctly
+
+        final boolean rotated = mActualCameraRotation == 90 || mActualCameraRotation == 270;
+        if (rotated && mScale != 0)
+            mScale = Math.min((float) getWidth() / mFrameHeight, (float) getHeight() / mFrameWidth);
+        mRenderer.invalidate();
+    }
+
+    @Override
+    @SuppressWarnings("SuspiciousNameCombination")
+    protected Size calculateCameraFrameSize(List<?> supportedSizes,
+                                            ListItemAccessor accessor,
+                                            int surfaceWidth,
+                                            int surfaceHeight) {
+
+        mActualCameraRotation = getCameraDisplayOrientation();
+        if(mActualCameraRotation == 90 || mActualCameraRotation == 270)
+            return super.calculateCameraFrameSize(supportedSizes,
+                    accessor,
+                    surfaceHeight,
+                    surfaceWidth);
+        return super.calculateCameraFrameSize(supportedSizes,
+                accessor,
+                surfaceWidth,
+                surfaceHeight);
+    }
+
+    @Override
+    protected void AllocateCache() {
+        super.AllocateCache();
+        mCacheBitmap = PreviewRenderer.findCacheBitmap(this);
+        mRenderer.invalidate();
+    }
+
+    protected int getCameraDisplayOrientation() {
+        final int rotation = mActivity.getWindowManager().getDefaultDisplay().getRotation();
+        mLastDisplayRotation = rotation;
+
+        final String cameraId = getCameraId();
+        if (cameraId == null)
+            return 0;
+
+        final CameraCharacteristics characteristics;
+        try {
+            final CameraManager manager = (CameraManager) getContext().getSystemService(Context.CAMERA_SERVICE);
+            characteristics = manager.getCameraCharacteristics(cameraId);
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "Couldn't get the characteristics of camera " + cameraId, e);
+            return 0;
+        }
+
+        final Integer sensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+        final Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
+        final int orientation = sensorOrientation == null ? 0 : sensorOrientation;
+
+        int degrees = 0;
+        switch (rotation) {
+            case Surface.ROTATION_0: degrees = 0; break;
+            case Surface.ROTATION_90: degrees = 90; break;
+            case Surface.ROTATION_180: degrees = 180; break;
+            case Surface.ROTATION_270: degrees = 270; break;
+        }
+
+        int result;
+        if (facing != null && facing == CameraCharacteristics.LENS_FACING_FRONT) {
+            result = (orientation + degrees) % 360;
+            result = (360 - result) % 360;  // compensate the mirror
+        } else {  // back-facing
+            result = (orientation - degrees + 360) % 360;
+        }
+
+        return result;
+    }
+
+    @Override
+    protected void deliverAndDrawFrame(CvCameraViewFrame frame) {
+
+        final FramePipeline pipeline = mPipeline;
+        if (pipeline != null) {
+            pipeline.submit(frame);
+            return;
+        }
+
+        // The frame is only valid until this returns, and its gray Mat is a view on the image
+        final Mat modified;
+        if (mListener != null) {
+            modified = mListener.onCameraFrame(frame);
+        } else {
+            modified = frame.rgba();
+        }
+
+        renderFrame(modified);
+    }
+
+    protected void renderFrame(Mat modified) {
+        mRenderer.render(getHolder(), modified, mCacheBitmap, mScale, mActualCameraRotation, mFpsMeter);
+    }
+
+    @Override
+    public void setCvCameraViewListener(CvCameraViewListener2 listener) {
+        super.setCvCameraViewListener(listener);
+        mListener = PreviewRenderer.findListener(this);
+    }
+
+    @Override
+    public void setCvCameraViewListener(CvCameraViewListener listener) {
+        super.setCvCameraViewListener(listener);
+        mListener = PreviewRenderer.findListener(this);
+    }
+}
@@ -5,20 +5,17 @@ import android.app.Activity;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
-import android.graphics.Rect;
 import android.hardware.Camera;
+import android.hardware.display.DisplayManager;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.Surface;
 import android.view.SurfaceHolder;
 
-import org.opencv.android.CameraBridgeViewBase;
 import org.opencv.android.JavaCameraView;
-import org.opencv.android.Utils;
 import org.opencv.core.Mat;
 import org.opencv.core.Size;
 
-import java.lang.reflect.Field;
 import java.util.List;
 
 import static android.content.ContentValues.TAG;
@@ -30,12 +27,67 @@ public class RotatingCameraView extends JavaCameraView {
     protected final Activity mActivity;
 
     protected int mCameraId;
-    protected int mLastDisplayRotation;
-    protected int mActualCameraRotation;
+    protected volatile int mLastDisplayRotation;
+    protected volatile int mActualCameraRotation;
+
+    protected final PreviewRenderer mRenderer = new PreviewRenderer();
+
+    private final DisplayManager.DisplayListener mDisplayListener = new DisplayManager.DisplayListener() {
+        @Override
+        public void onDisplayAdded(int displayId) {
+        }
+
+        @Override
+        public void onDisplayRemoved(int displayId) {
+        }
+
+        @Override
+        public void onDisplayChanged(int displayId) {
+            // When rotating the screen upside down, the surface is the same size
+            // so surfaceChanged does not get invoked and the camera orientation is still the old one
+            final int rotation = mActivity.getWindowManager().getDefaultDisplay().getRotation();
+            if (rotation != mLastDisplayRotation) {
+                mActualCameraRotation = getCameraDisplayOrientation();
+                mRenderer.invalidate();
+            }
+        }
+    };
 
     protected Bitmap mCacheBitmap;
     protected CvCameraViewListener2 mListener;
 
+    protected boolean mPipelined;
+    protected volatile FramePipeline mPipeline;
+
+    /**
+     * Listener which splits the processing of a frame between two stages,
+     * used when the view is in pipelined mode.
+     * The two methods are called on two different threads, at their own rate.
+     */
+    public interface CvCameraViewPipelineListener extends CvCameraViewListener2 {
+        /**
+         * Invoked on the detection thread with the latest frame available.
+         */
+        void onDetectFrame(CvCameraViewFrame inputFrame);
+
+        /**
+         * Invoked on the render thread with the latest frame available.
+         * The returned value is the frame which needs to be displayed on the screen.
+         */
+        Mat onRenderFrame(CvCameraViewFrame inputFrame);
+    }
+
+    /**
+     * Vector graphics drawn on top of the preview, in the coordinates of the camera frame.
+     */
+    public interface CvCameraViewOverlay {
+        /**
+         * Invoked on the thread rendering the preview, with the canvas already
+         * rotated and scaled so that one unit is one pixel of the camera frame.
+         */
+        void draw(Canvas canvas);
+    }
+
     public RotatingCameraView(Context context, int cameraId) {
         super(context, cameraId);
         this.mActivity = (Activity) context;
@@ -77,9 +129,101 @@ public class RotatingCameraView extends JavaCameraView {
         if(mCameraId == CAMERA_ID_ANY)
             Log.e(TAG, "Couldn't find the actual camera id");
 
+        // Start the stages before the camera worker delivers the first frame
+
+        if(mPipelined && mListener instanceof CvCameraViewPipelineListener) {
+            final CvCameraViewPipelineListener listener = (CvCameraViewPipelineListener) mListener;
+            final FramePipeline pipeline = new FramePipeline(
+                    listener::onDetectFrame,
+                    frame -> renderFrame(listener.onRenderFrame(frame)));
+            pipeline.start(mFrameWidth, mFrameHeight);
+            mPipeline = pipeline;
+        }
+
         return true;
     }
 
+    @Override
+    protected void disconnectCamera() {
+        super.disconnectCamera();
+
+        final FramePipeline pipeline = mPipeline;
+        mPipeline = null;
+        if(pipeline != null)
+            pipeline.stop();
+    }
+
+    /**
+     * Enables or disables the pipelined mode, where detection and rendering
+     * are run on separate threads instead of the camera worker one.
+     * Requires a {@link CvCameraViewPipelineListener} and takes effect the next time
+     * the camera is connected.
+     *
+     * @param pipelined true to enable the pipelined mode
+     */
+    public void setPipelined(boolean pipelined) {
+        mPipelined = pipelined;
+    }
+
+    public boolean isPipelined() {
+        return mPipelined;
+    }
+
+    /**
+     * @return the pipeline currently running, used to inspect the stages queues, or null
+     */
+    public FramePipeline getPipeline() {
+        return mPipeline;
+    }
+
+    /**
+     * Sets the overlay drawn on top of every frame of the preview.
+     *
+     * @param overlay overlay to draw, or null to only draw the preview
+     */
+    public void setOverlay(CvCameraViewOverlay overlay) {
+        mRenderer.setOverlay(overlay);
+    }
+
+    /**
+     * Sets where to record the time spent converting and drawing each frame,
+     * and whose results are drawn by the profiler overlay.
+     *
+     * @param profiler profiler to record to
+     */
+    public void setProfiler(StageProfiler profiler) {
+        mRenderer.setProfiler(profiler);
+    }
+
+    /**
+     * Shows or hides the percentiles of the profiler on top of the preview.
+     *
+     * @param visible true to show the overlay
+     */
+    public void setProfilerOverlayVisible(boolean visible) {
+        mRenderer.setProfilerOverlayVisible(visible);
+    }
+
+    public boolean isProfilerOverlayVisible() {
+        return mRenderer.isProfilerOverlayVisible();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        final DisplayManager displayManager = (DisplayManager) getContext().getSystemService(Context.DISPLAY_SERVICE);
+        if (displayManager != null)
+            displayManager.registerDisplayListener(mDisplayListener, null);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        final DisplayManager displayManager = (DisplayManager) getContext().getSystemService(Context.DISPLAY_SERVICE);
+        if (displayManager != null)
+            displayManager.unregisterDisplayListener(mDisplayListener);
+    }
+
     @Override
     public void surfaceChanged(SurfaceHolder holder, int format, int w, int h) {
         super.surfaceChanged(holder, format, w, h);
@@ -89,6 +233,7 @@ public class RotatingCameraView extends JavaCameraView {
         final boolean rotated = mActualCameraRotation == 90 || mActualCameraRotation == 270;
         if (rotated && mScale != 0)
             mScale = Math.min((float) getWidth() / mFrameHeight, (float) getHeight() / mFrameWidth);
+        mRenderer.invalidate();
     }
 
     @Override
@@ -116,15 +261,8 @@ public class RotatingCameraView extends JavaCameraView {
 
         // Get access to the allocated cache
 
-        try {
-            final Class<CameraBridgeViewBase> clazz = CameraBridgeViewBase.class;
-            final Field field = clazz.getDeclaredField("mCacheBitmap");
-            field.setAccessible(true);
-            mCacheBitmap = (Bitmap) field.get(this);
-        } catch (Exception ex) {
-            Log.e(TAG, "Couldn't get underlying bitmap instance using reflections", ex);
-            mCacheBitmap = null;
-        }
+        mCacheBitmap = PreviewRenderer.findCacheBitmap(this);
+        mRenderer.invalidate();
 
         // This is called just before starting the camera preview,
         // so I can use it to set parameters
@@ -165,9 +303,11 @@ public class RotatingCameraView extends JavaCameraView {
     @Override
     protected void deliverAndDrawFrame(CvCameraViewFrame frame) {
 
-        Canvas canvas = getHolder().lockCanvas();
-        if (canvas == null)
+        final FramePipeline pipeline = mPipeline;
+        if (pipeline != null) {
+            pipeline.submit(frame);
             return;
+        }
 
         final Mat modified;
         if (mListener != null) {
@@ -176,62 +316,11 @@ public class RotatingCameraView extends JavaCameraView {
             modified = frame.rgba();
         }
 
-        boolean bmpValid = true;
-        if (modified != null) {
-            try {
-                Utils.matToBitmap(modified, mCacheBitmap);
-            } catch(Exception e) {
-                Log.e(TAG, "Mat type: " + modified);
-                Log.e(TAG, "Bitmap type: " + mCacheBitmap.getWidth() + "*" + mCacheBitmap.getHeight());
-                Log.e(TAG, "Utils.matToBitmap() throws an exception: " + e.getMessage());
-                bmpValid = false;
-            }
-        }
-
-        canvas.drawColor(0, android.graphics.PorterDuff.Mode.CLEAR);
-        if (!bmpValid && mCacheBitmap == null)
-            return;
-
-        // When rotating the screen upside down, the surface is the same size
-        // so surfaceChanged does not get invoked and the camera orientation is still the old one
-        // This forcefully sets it
-        final int display = mActivity.getWindowManager().getDefaultDisplay().getRotation();
-        if(mLastDisplayRotation != display)
-            mActualCameraRotation = getCameraDisplayOrientation();
-
-        final float scale = mScale == 0 ? 1 : mScale;
-
-        final boolean rotate = mActualCameraRotation == 90 || mActualCameraRotation == 270;
-        final float width = !rotate ? getWidth() : getHeight();
-        final float height = !rotate ? getHeight() : getWidth();
-
-        final int xToDraw = (int)((width - scale * mCacheBitmap.getWidth()) / 2);
-        final int yToDraw = (int)((height - scale * mCacheBitmap.getHeight()) / 2);
-        final int wToDraw = (int)((width - scale * mCacheBitmap.getWidth()) / 2 + scale * mCacheBitmap.getWidth());
-        final int hToDraw = (int)((height - scale * mCacheBitmap.getHeight()) / 2 + scale * mCacheBitmap.getHeight());
-
-        canvas.drawColor(0, android.graphics.PorterDuff.Mode.CLEAR);
-
-        if(rotate) {
-            canvas.translate(canvas.getWidth(), 0);
-            canvas.rotate(mActualCameraRotation);
-        } else {
-            canvas.rotate(mActualCameraRotation,
-                    getWidth() / 2f,
-                    getHeight() / 2f);
-        }
-
-        canvas.drawBitmap(mCacheBitmap,
-                new Rect(0, 0, mCacheBitmap.getWidth(), mCacheBitmap.getHeight()),
-                new Rect(xToDraw, yToDraw, xToDraw + wToDraw, yToDraw + hToDraw),
-                null);
-
-        if (mFpsMeter != null) {
-            mFpsMeter.measure();
-            mFpsMeter.draw(canvas, 20, 30);
-        }
+        renderFrame(modified);
+    }
 
-        getHolder().unlockCanvasAndPost(canvas);
+    protected void renderFrame(Mat modified) {
+        mRenderer.render(getHolder(), modified, mCacheBitmap, mScale, mActualCameraRotation, mFpsMeter);
     }
 
     @Override
@@ -247,15 +336,7 @@ public class RotatingCameraView extends JavaCameraView {
     }
 
     protected CvCameraViewListener2 getSuperListener() {
-        try {
-            final Class<CameraBridgeViewBase> clazz = CameraBridgeViewBase.class;
-            final Field field = clazz.getDeclaredField("mListener");
-            field.setAccessible(true);
-            return (CvCameraViewListener2) field.get(this);
-        } catch (Exception ex) {
-            Log.e(TAG, "Couldn't get underlying CvCameraViewListener2 instance using reflections", ex);
-            return null;
-        }
+        return PreviewRenderer.findListener(this);
     }
 
     protected void changeParams(Camera.Parameters params) {
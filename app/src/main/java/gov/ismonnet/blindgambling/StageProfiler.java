@@ -0,0 +1,119 @@
+package gov.ismonnet.blindgambling;
+
+import java.util.Locale;
+
+/**
+ * Latency histograms of each stage of the frame processing, from the binarization
+ * of the camera frame to the preview being drawn on the screen.
+ *
+ * Each stage is timed with {@link #start()} and {@link #stop(int, long)}. While the profiler
+ * is disabled, both only read a boolean, so the calls can stay in the pipeline.
+ * A stage is always recorded by the same thread, while any thread can read the results.
+ */
+public class StageProfiler {
+
+    public static final int BLUR = 0;
+    public static final int THRESHOLD = 1;
+    public static final int MORPHOLOGY = 2;
+    public static final int CONTOURS = 3;
+    public static final int CARD_FILTER = 4;
+    public static final int MASK = 5;
+    public static final int DETECT = 6;
+    public static final int TRACK = 7;
+    public static final int RECOGNIZE = 8;
+    public static final int RENDER = 9;
+    public static final int MAT_TO_BITMAP = 10;
+    public static final int CANVAS_DRAW = 11;
+    public static final int MOTION = 12;
+    public static final int FOREGROUND = 13;
+    public static final int BINARIZE = 14;
+    public static final int COMPONENTS = 15;
+
+    public static final int STAGES = 16;
+
+    private static final String[] NAMES = {
+            "blur", "threshold", "morphology", "contours", "card filter", "mask",
+            "detect", "track", "recognize", "render", "matToBitmap", "canvas draw",
+            "motion", "foreground", "binarize", "components"
+    };
+
+    // Default of the components which haven't been given a profiler, never enabled
+    static final StageProfiler DISABLED = new StageProfiler();
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[STAGES];
+    private volatile boolean enabled;
+
+    public StageProfiler() {
+        for(int i = 0; i < STAGES; i++)
+            histograms[i] = new LatencyHistogram();
+    }
+
+    public void setEnabled(boolean enabled) {
+        if(this == DISABLED)
+            throw new UnsupportedOperationException("The default profiler can't be enabled");
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return start time to pass to {@link #stop(int, long)}, or 0 if the profiler is disabled
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the time elapsed since the given start.
+     *
+     * @param stage stage which has just been completed
+     * @param start value returned by {@link #start()} before the stage
+     */
+    public void stop(int stage, long start) {
+        if(enabled && start != 0)
+            histograms[stage].record(System.nanoTime() - start);
+    }
+
+    public void reset() {
+        for(LatencyHistogram histogram : histograms)
+            histogram.reset();
+    }
+
+    public LatencyHistogram getHistogram(int stage) {
+        return histograms[stage];
+    }
+
+    public static String getName(int stage) {
+        return NAMES[stage];
+    }
+
+    /**
+     * @param stage stage to describe
+     * @return one line with the percentiles of the stage, in milliseconds
+     */
+    public String format(int stage) {
+        final LatencyHistogram histogram = histograms[stage];
+        return String.format(Locale.ROOT, "%-12s p50 %6.2f  p95 %6.2f  p99 %6.2f  max %6.2f  (%d)",
+                NAMES[stage],
+                histogram.getPercentileMicros(50) / 1000f,
+                histogram.getPercentileMicros(95) / 1000f,
+                histogram.getPercentileMicros(99) / 1000f,
+                histogram.getMaxMicros() / 1000f,
+                histogram.getCount());
+    }
+
+    /**
+     * @return the percentiles of all the stages which recorded something, one per line
+     */
+    public String format() {
+        final StringBuilder sb = new StringBuilder();
+        for(int stage = 0; stage < STAGES; stage++) {
+            if(histograms[stage].getCount() == 0)
+                continue;
+            sb.append(format(stage)).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,221 @@
+package gov.ismonnet.blindgambling;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+
+import java.util.Random;
+
+import static org.opencv.imgproc.Imgproc.COLOR_GRAY2RGBA;
+import static org.opencv.imgproc.Imgproc.FILLED;
+import static org.opencv.imgproc.Imgproc.INTER_LINEAR;
+import static org.opencv.imgproc.Imgproc.circle;
+import static org.opencv.imgproc.Imgproc.cvtColor;
+import static org.opencv.imgproc.Imgproc.getPerspectiveTransform;
+import static org.opencv.imgproc.Imgproc.warpPerspective;
+
+/**
+ * Procedurally generated table with cards slowly moving and rotating around
+ * their place, drawn with the same rank and suit symbols as the rendered templates.
+ *
+ * The scene only depends on the seed, so the same frames can be generated again
+ * to compare the results of two builds.
+ */
+public class SyntheticTableSource implements FrameSource {
+
+    // Size of a card on the table, big enough for the minimum area of the detector
+    private static final int CARD_WIDTH = 150;
+    private static final int CARD_HEIGHT = 210;
+    // Size of the image each card is drawn on before being warped on the table
+    private static final int CARD_IMAGE_WIDTH = 200;
+    private static final int CARD_IMAGE_HEIGHT = 280;
+
+    private static final int TABLE_GREY = 40;
+    private static final int CARD_GREY = 230;
+    private static final int INK_GREY = 20;
+
+    private final int width;
+    private final int height;
+    private final int frameCount;
+
+    private final int[] cardIds;
+    private final double[] homeX;
+    private final double[] homeY;
+    private final double[] phase;
+
+    private final Mat gray;
+    private final Mat rgba;
+    private boolean rgbaReady;
+    private final Mat[] cardImages;
+    private final Scalar tableColor = new Scalar(TABLE_GREY);
+
+    private final MatOfPoint2f srcCorners = new MatOfPoint2f(
+            new Point(0, 0),
+            new Point(CARD_IMAGE_WIDTH, 0),
+            new Point(CARD_IMAGE_WIDTH, CARD_IMAGE_HEIGHT),
+            new Point(0, CARD_IMAGE_HEIGHT));
+    private final MatOfPoint2f dstCorners = new MatOfPoint2f();
+    private final float[] dstBuffer = new float[8];
+    private final Rect bounds = new Rect();
+    private final Size boundsSize = new Size();
+
+    private int frame = -1;
+
+    /**
+     * @param width width of the frames
+     * @param height height of the frames
+     * @param cards number of cards on the table, laid on a grid
+     * @param frames number of frames to generate
+     * @param seed seed choosing the cards and their motion
+     */
+    public SyntheticTableSource(int width, int height, int cards, int frames, long seed) {
+        this.width = width;
+        this.height = height;
+        this.frameCount = frames;
+
+        final Random random = new Random(seed);
+        final int columns = Math.max(1, width / (CARD_WIDTH + CARD_WIDTH / 2));
+        final int rows = Math.max(1, height / (CARD_HEIGHT + CARD_HEIGHT / 3));
+        cards = Math.min(cards, columns * rows);
+
+        cardIds = new int[cards];
+        homeX = new double[cards];
+        homeY = new double[cards];
+        phase = new double[cards];
+        cardImages = new Mat[cards];
+
+        for(int i = 0; i < cards; i++) {
+            cardIds[i] = random.nextInt(CardTemplateIndex.CARDS);
+            homeX[i] = (i % columns + 0.5) * width / columns;
+            homeY[i] = (i / columns + 0.5) * height / rows;
+            phase[i] = random.nextDouble() * 2 * Math.PI;
+            cardImages[i] = drawCard(cardIds[i]);
+        }
+
+        dstCorners.alloc(4);
+        gray = new Mat(height, width, CvType.CV_8UC1);
+        rgba = new Mat(height, width, CvType.CV_8UC4);
+    }
+
+    private static Mat drawCard(int card) {
+        final Mat image = new Mat(CARD_IMAGE_HEIGHT, CARD_IMAGE_WIDTH, CvType.CV_8UC1, new Scalar(CARD_GREY));
+        final Scalar ink = new Scalar(INK_GREY);
+
+        // Index in the top left corner, repeated upside down in the bottom right one
+        final Mat topCorner = image.submat(8, 8 + CornerEncoder.HEIGHT, 6, 6 + CornerEncoder.WIDTH);
+        CardTemplateIndex.drawCorner(topCorner, card, ink);
+        final Mat bottomCorner = image.submat(
+                CARD_IMAGE_HEIGHT - 8 - CornerEncoder.HEIGHT, CARD_IMAGE_HEIGHT - 8,
+                CARD_IMAGE_WIDTH - 6 - CornerEncoder.WIDTH, CARD_IMAGE_WIDTH - 6);
+        Core.rotate(topCorner, bottomCorner, Core.ROTATE_180);
+        topCorner.release();
+        bottomCorner.release();
+
+        circle(image, new Point(CARD_IMAGE_WIDTH / 2.0, CARD_IMAGE_HEIGHT / 2.0), 30, ink, FILLED);
+        return image;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return id of each card on the table, in the order they are laid out
+     */
+    public int[] getCardIds() {
+        return cardIds.clone();
+    }
+
+    @Override
+    public boolean next() {
+        if(frame + 1 >= frameCount)
+            return false;
+        frame++;
+
+        gray.setTo(tableColor);
+        for(int i = 0; i < cardImages.length; i++)
+            drawOnTable(i);
+        rgbaReady = false;
+        return true;
+    }
+
+    private void drawOnTable(int card) {
+        final double t = frame / 30.0 + phase[card];
+        final double centerX = homeX[card] + 20 * Math.sin(t * 0.7);
+        final double centerY = homeY[card] + 10 * Math.cos(t * 0.5);
+        final double angle = 0.15 * Math.sin(t * 0.3);
+        final double cos = Math.cos(angle), sin = Math.sin(angle);
+
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        for(int corner = 0; corner < 4; corner++) {
+            final double dx = (corner == 1 || corner == 2 ? 0.5 : -0.5) * CARD_WIDTH;
+            final double dy = (corner >= 2 ? 0.5 : -0.5) * CARD_HEIGHT;
+            dstBuffer[corner * 2] = (float) (centerX + dx * cos - dy * sin);
+            dstBuffer[corner * 2 + 1] = (float) (centerY + dx * sin + dy * cos);
+            minX = Math.min(minX, dstBuffer[corner * 2]);
+            minY = Math.min(minY, dstBuffer[corner * 2 + 1]);
+            maxX = Math.max(maxX, dstBuffer[corner * 2]);
+            maxY = Math.max(maxY, dstBuffer[corner * 2 + 1]);
+        }
+
+        // Only warp the region covered by the card
+        bounds.x = Math.max(0, (int) minX);
+        bounds.y = Math.max(0, (int) minY);
+        bounds.width = Math.min(width, (int) Math.ceil(maxX) + 1) - bounds.x;
+        bounds.height = Math.min(height, (int) Math.ceil(maxY) + 1) - bounds.y;
+        if(bounds.width <= 0 || bounds.height <= 0)
+            return;
+
+        for(int corner = 0; corner < 4; corner++) {
+            dstBuffer[corner * 2] -= bounds.x;
+            dstBuffer[corner * 2 + 1] -= bounds.y;
+        }
+        dstCorners.put(0, 0, dstBuffer);
+
+        boundsSize.width = bounds.width;
+        boundsSize.height = bounds.height;
+
+        final Mat transform = getPerspectiveTransform(srcCorners, dstCorners);
+        final Mat region = gray.submat(bounds);
+        warpPerspective(cardImages[card], region, transform, boundsSize,
+                INTER_LINEAR, Core.BORDER_TRANSPARENT);
+        region.release();
+        transform.release();
+    }
+
+    @Override
+    public Mat gray() {
+        return gray;
+    }
+
+    @Override
+    public Mat rgba() {
+        if(!rgbaReady) {
+            cvtColor(gray, rgba, COLOR_GRAY2RGBA);
+            rgbaReady = true;
+        }
+        return rgba;
+    }
+
+    @Override
+    public void release() {
+        for(Mat image : cardImages)
+            image.release();
+        srcCorners.release();
+        dstCorners.release();
+        gray.release();
+        rgba.release();
+    }
+}
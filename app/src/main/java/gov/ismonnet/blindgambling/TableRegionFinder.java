@@ -0,0 +1,108 @@
+package gov.ismonnet.blindgambling;
+
+import org.opencv.core.Rect;
+
+/**
+ * Finds the play area of the table from the cards detected on it, so that the camera
+ * can be made to crop its field of view to it.
+ *
+ * The bounds of the cards are accumulated over a number of frames with cards in them,
+ * then padded by a few card sizes on each side, so that cards played next to the
+ * ones already on the table still fall inside the area.
+ */
+public class TableRegionFinder {
+
+    private static final int DEFAULT_FRAMES = 30;
+    private static final float DEFAULT_MARGIN_CARDS = 1.5f;
+
+    private final int frames;
+    private final float marginCards;
+
+    private int seenFrames;
+    private float minX, minY, maxX, maxY;
+    private float maxCardSide;
+
+    public TableRegionFinder() {
+        this(DEFAULT_FRAMES, DEFAULT_MARGIN_CARDS);
+    }
+
+    /**
+     * @param frames number of frames with cards to accumulate before the area is found
+     * @param marginCards padding around the cards, in multiples of the longest card side
+     */
+    public TableRegionFinder(int frames, float marginCards) {
+        if(frames < 1)
+            throw new IllegalArgumentException("At least one frame is needed");
+        if(marginCards < 0)
+            throw new IllegalArgumentException("The margin can't be negative");
+        this.frames = frames;
+        this.marginCards = marginCards;
+        reset();
+    }
+
+    public void reset() {
+        seenFrames = 0;
+        minX = minY = Float.POSITIVE_INFINITY;
+        maxX = maxY = Float.NEGATIVE_INFINITY;
+        maxCardSide = 0;
+    }
+
+    /**
+     * Adds the cards of a frame. Frames without cards are ignored.
+     *
+     * @param cards cards detected in the frame
+     * @return true once enough frames have been seen for the area to be found
+     */
+    public boolean update(CardQuads cards) {
+        if(cards.size() == 0)
+            return isFound();
+
+        for(int card = 0; card < cards.size(); card++) {
+            for(int corner = 0; corner < 4; corner++) {
+                final float x = cards.getX(card, corner);
+                final float y = cards.getY(card, corner);
+                minX = Math.min(minX, x);
+                minY = Math.min(minY, y);
+                maxX = Math.max(maxX, x);
+                maxY = Math.max(maxY, y);
+
+                final int next = (corner + 1) % 4;
+                final float dx = cards.getX(card, next) - x;
+                final float dy = cards.getY(card, next) - y;
+                maxCardSide = Math.max(maxCardSide, (float) Math.sqrt(dx * dx + dy * dy));
+            }
+        }
+
+        seenFrames++;
+        return isFound();
+    }
+
+    public boolean isFound() {
+        return seenFrames >= frames;
+    }
+
+    /**
+     * Copies the play area, padded and clamped to the frame.
+     *
+     * @param width width of the frames the cards were detected in
+     * @param height height of the frames the cards were detected in
+     * @param out where to copy the area to
+     * @return false if the area hasn't been found yet, in which case out is left untouched
+     */
+    public boolean getRegion(int width, int height, Rect out) {
+        if(!isFound())
+            return false;
+
+        final float margin = maxCardSide * marginCards;
+        final int left = Math.max(0, (int) Math.floor(minX - margin));
+        final int top = Math.max(0, (int) Math.floor(minY - margin));
+        final int right = Math.min(width, (int) Math.ceil(maxX + margin));
+        final int bottom = Math.min(height, (int) Math.ceil(maxY + margin));
+
+        out.x = left;
+        out.y = top;
+        out.width = Math.max(0, right - left);
+        out.height = Math.max(0, bottom - top);
+        return true;
+    }
+}
@@ -0,0 +1,51 @@
+package gov.ismonnet.blindgambling;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CardDetectorTest {
+
+    private static void addCard(CardQuads cards, float x, float y, float width, float height) {
+        cards.add(new float[] { x, y, x + width, y, x + width, y + height, x, y + height }, 0);
+    }
+
+    @Test
+    public void adjacentCardsOfTheSameSizeAreMatchedByPosition() {
+        // Two cards side by side, both found in the region of each candidate
+        final CardQuads candidates = new CardQuads();
+        addCard(candidates, 100, 100, 150, 210);
+        addCard(candidates, 262, 101, 150, 210);
+
+        final CardQuads refined = new CardQuads();
+        addCard(refined, 261, 100, 151, 211);
+        addCard(refined, 99, 100, 151, 211);
+
+        assertEquals(1, CardDetector.matchCard(refined, candidates, 0));
+        assertEquals(0, CardDetector.matchCard(refined, candidates, 1));
+    }
+
+    @Test
+    public void areaChoosesBetweenQuadsAsClose() {
+        final CardQuads candidates = new CardQuads();
+        addCard(candidates, 100, 100, 150, 210);
+
+        // A symbol on the card, centred like the card itself
+        final CardQuads refined = new CardQuads();
+        addCard(refined, 150, 180, 50, 50);
+        addCard(refined, 100, 100, 150, 210);
+
+        assertEquals(1, CardDetector.matchCard(refined, candidates, 0));
+    }
+
+    @Test
+    public void quadsAwayFromTheCandidateAreNotMatched() {
+        final CardQuads candidates = new CardQuads();
+        addCard(candidates, 100, 100, 150, 210);
+
+        final CardQuads refined = new CardQuads();
+        addCard(refined, 262, 100, 150, 210);
+
+        assertEquals(-1, CardDetector.matchCard(refined, candidates, 0));
+    }
+}
@@ -0,0 +1,93 @@
+package gov.ismonnet.blindgambling;
+
+import org.junit.Test;
+import org.opencv.core.Rect;
+
+import static org.junit.Assert.*;
+
+public class ContourAnalyzerTest {
+
+    // A card, one of its holes (the ink of a symbol) and a card shaped blob inside the hole,
+    // plus a second card with extra points along its sides
+    private static final int[] POINTS = {
+            // 0: card
+            10, 10, 10, 150, 110, 150, 110, 10,
+            // 1: hole in the card
+            30, 30, 90, 30, 90, 130, 30, 130,
+            // 2: region inside the hole
+            40, 40, 40, 120, 80, 120, 80, 40,
+            // 3: second card, with almost collinear points
+            150, 10, 151, 80, 150, 150, 200, 151, 250, 150, 250, 10, 200, 11,
+    };
+    private static final int[] OFFSETS = { 0, 8, 16, 24, 38 };
+    private static final int[] HIERARCHY = {
+            3, -1, 1, -1,
+            -1, -1, 2, 0,
+            -1, -1, -1, 1,
+            -1, 0, -1, -1,
+    };
+
+    private ContourAnalyzer analyzer() {
+        final ContourAnalyzer analyzer = new ContourAnalyzer();
+        analyzer.set(4, OFFSETS, POINTS, HIERARCHY);
+        return analyzer;
+    }
+
+    @Test
+    public void areaAndPerimeter() {
+        final ContourAnalyzer analyzer = analyzer();
+
+        assertEquals(100 * 140, analyzer.area(0), 0);
+        assertEquals(2 * (100 + 140), analyzer.perimeter(0), 1e-9);
+        assertEquals(60 * 100, analyzer.area(1), 0);
+        assertEquals(4, analyzer.length(0));
+        assertEquals(7, analyzer.length(3));
+    }
+
+    @Test
+    public void hierarchy() {
+        final ContourAnalyzer analyzer = analyzer();
+
+        assertFalse(analyzer.isHole(0));
+        assertTrue(analyzer.isHole(1));
+        assertFalse(analyzer.isHole(2));
+        assertEquals(0, analyzer.enclosingRegion(2));
+        assertEquals(-1, analyzer.enclosingRegion(0));
+        assertTrue(analyzer.isLeaf(2));
+        assertFalse(analyzer.isLeaf(0));
+    }
+
+    @Test
+    public void approxPolyDPRemovesAlmostCollinearPoints() {
+        final ContourAnalyzer analyzer = analyzer();
+        final int[] out = new int[14];
+
+        assertEquals(4, analyzer.approxPolyDP(3, 0.01 * analyzer.perimeter(3), out));
+        assertEquals(7, analyzer.approxPolyDP(3, 0, out));
+    }
+
+    @Test
+    public void findQuadsSkipsRegionsInsideCards() {
+        final ContourAnalyzer analyzer = analyzer();
+        final CardQuads quads = new CardQuads();
+
+        analyzer.findQuads(1000, 0.01, new Rect(0, 0, 300, 200), 1, quads);
+
+        assertEquals(2, quads.size());
+        assertEquals(100 * 140, quads.area(0), 1e-3);
+        assertEquals(100 * 140, quads.area(1), 1e-3);
+        assertEquals(10, quads.getX(0, 0), 0);
+        assertEquals(150, quads.getX(1, 0), 0);
+    }
+
+    @Test
+    public void findQuadsSkipsQuadsTouchingBounds() {
+        final ContourAnalyzer analyzer = analyzer();
+        final CardQuads quads = new CardQuads();
+
+        analyzer.findQuads(1000, 0.01, new Rect(0, 0, 200, 200), 2, quads);
+
+        assertEquals(1, quads.size());
+        assertEquals(20, quads.getX(0, 0), 0);
+    }
+}
@@ -0,0 +1,52 @@
+package gov.ismonnet.blindgambling;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class FusedBinarizerTest {
+
+    private static byte[] binarize(byte[] src, int width, int height, boolean morphologyEnabled) {
+        final FusedBinarizer binarizer = new FusedBinarizer(5, 15, 5, 8);
+        binarizer.setMorphologyEnabled(morphologyEnabled);
+        binarizer.start(width, height);
+        final byte[] dst = new byte[width * height];
+        binarizer.binarize(src, dst, width, height);
+        return dst;
+    }
+
+    private static byte[] square(int width, int height, int x, int y, int side) {
+        final byte[] image = new byte[width * height];
+        Arrays.fill(image, (byte) 200);
+        for(int row = y; row < y + side; row++)
+            Arrays.fill(image, row * width + x, row * width + x + side, (byte) 40);
+        return image;
+    }
+
+    @Test
+    public void uniformImageIsWhite() {
+        for(int[] size : new int[][] { { 1, 1 }, { 5, 3 }, { 64, 2 }, { 130, 40 } }) {
+            final byte[] src = new byte[size[0] * size[1]];
+            Arrays.fill(src, (byte) 120);
+            for(byte pixel : binarize(src, size[0], size[1], true))
+                assertEquals(-1, pixel);
+        }
+    }
+
+    @Test
+    public void resultMovesWithTheImageAcrossWords() {
+        final int width = 200, height = 60;
+        for(boolean morphologyEnabled : new boolean[] { true, false }) {
+            // The outline of the square crosses the 64 pixels words at every position
+            final byte[] expected = binarize(square(width, height, 40, 20, 20), width, height, morphologyEnabled);
+            for(int shift = 1; shift <= 70; shift += 3) {
+                final byte[] shifted = binarize(square(width, height, 40 + shift, 20, 20), width, height, morphologyEnabled);
+                for(int row = 0; row < height; row++)
+                    for(int x = 20; x < 100; x++)
+                        assertEquals(expected[row * width + x], shifted[row * width + x + shift]);
+            }
+        }
+    }
+}
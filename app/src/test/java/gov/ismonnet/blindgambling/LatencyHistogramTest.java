@@ -0,0 +1,51 @@
+package gov.ismonnet.blindgambling;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsAreContiguous() {
+        long expectedLowest = 0;
+        for(int bucket = 0; bucket <= LatencyHistogram.bucketOf((1L << 24) - 1); bucket++) {
+            assertEquals(bucket, LatencyHistogram.bucketOf(expectedLowest));
+
+            final long highest = LatencyHistogram.highestInBucket(bucket);
+            assertEquals(bucket, LatencyHistogram.bucketOf(highest));
+            // At most about 3% wider than the values they hold
+            assertTrue(highest - expectedLowest <= Math.max(0, expectedLowest / 32));
+            expectedLowest = highest + 1;
+        }
+    }
+
+    @Test
+    public void percentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for(int micros = 1; micros <= 1000; micros++)
+            histogram.record(micros * 1000L);
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMaxMicros());
+        assertEquals(500, histogram.getPercentileMicros(50), 500 / 32);
+        assertEquals(950, histogram.getPercentileMicros(95), 950 / 32);
+        assertEquals(990, histogram.getPercentileMicros(99), 990 / 32);
+        assertEquals(1000, histogram.getPercentileMicros(100));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentileMicros(50));
+    }
+
+    @Test
+    public void outOfRangeValuesAreClamped() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(2, histogram.getCount());
+        assertEquals(0, histogram.getPercentileMicros(50));
+        assertEquals((1L << 24) - 1, histogram.getPercentileMicros(100));
+    }
+}
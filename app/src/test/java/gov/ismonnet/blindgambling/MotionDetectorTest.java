@@ -0,0 +1,34 @@
+package gov.ismonnet.blindgambling;
+
+import org.junit.Test;
+import org.opencv.core.Rect;
+
+import static org.junit.Assert.*;
+
+public class MotionDetectorTest {
+
+    @Test
+    public void overlappingRegionsAreMerged() {
+        final Rect[] regions = {
+                new Rect(0, 0, 100, 100),
+                new Rect(500, 500, 50, 50),
+                new Rect(90, 50, 100, 100),
+                // Only overlaps the first two once they are merged
+                new Rect(150, 140, 20, 20),
+        };
+
+        assertEquals(2, MotionDetector.mergeOverlapping(regions, regions.length));
+        assertEquals(new Rect(0, 0, 190, 160), regions[0]);
+        assertEquals(new Rect(500, 500, 50, 50), regions[1]);
+    }
+
+    @Test
+    public void touchingRegionsAreKept() {
+        final Rect[] regions = {
+                new Rect(0, 0, 100, 100),
+                new Rect(100, 0, 100, 100),
+        };
+
+        assertEquals(2, MotionDetector.mergeOverlapping(regions, regions.length));
+    }
+}
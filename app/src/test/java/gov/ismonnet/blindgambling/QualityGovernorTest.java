@@ -0,0 +1,77 @@
+package gov.ismonnet.blindgambling;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class QualityGovernorTest {
+
+    private static final long TARGET = 30_000_000;
+
+    private QualityGovernor governor(List<Integer> levels) {
+        final QualityGovernor governor = new QualityGovernor();
+        governor.setTargetNanos(TARGET);
+        governor.setHeadroom(0.5f);
+        governor.setHysteresis(2, 3);
+        governor.addListener((oldLevel, newLevel, frameNanos) -> levels.add(newLevel));
+        governor.setEnabled(true);
+        return governor;
+    }
+
+    @Test
+    public void stepsDownAfterConsecutiveOverruns() {
+        final List<Integer> levels = new ArrayList<>();
+        final QualityGovernor governor = governor(levels);
+
+        governor.onFrame(TARGET * 2);
+        governor.onFrame(TARGET / 2 + 1);
+        governor.onFrame(TARGET * 2);
+        assertEquals(QualityGovernor.FULL, governor.getLevel());
+
+        governor.onFrame(TARGET * 2);
+        assertEquals(QualityGovernor.REDUCED_RESOLUTION, governor.getLevel());
+
+        for(int i = 0; i < 20; i++)
+            governor.onFrame(TARGET * 2);
+        assertEquals(QualityGovernor.LOWEST, governor.getLevel());
+        assertEquals(QualityGovernor.LOWEST, levels.size());
+    }
+
+    @Test
+    public void stepsUpOnlyWithHeadroom() {
+        final List<Integer> levels = new ArrayList<>();
+        final QualityGovernor governor = governor(levels);
+        governor.onFrame(TARGET * 2);
+        governor.onFrame(TARGET * 2);
+        assertEquals(QualityGovernor.REDUCED_RESOLUTION, governor.getLevel());
+
+        // Under the target, but not under the headroom
+        for(int i = 0; i < 10; i++)
+            governor.onFrame(TARGET - 1);
+        assertEquals(QualityGovernor.REDUCED_RESOLUTION, governor.getLevel());
+
+        for(int i = 0; i < 3; i++)
+            governor.onFrame(TARGET / 4);
+        assertEquals(QualityGovernor.FULL, governor.getLevel());
+
+        final List<Integer> expected = new ArrayList<>();
+        expected.add(QualityGovernor.REDUCED_RESOLUTION);
+        expected.add(QualityGovernor.FULL);
+        assertEquals(expected, levels);
+    }
+
+    @Test
+    public void disabledIgnoresFrames() {
+        final List<Integer> levels = new ArrayList<>();
+        final QualityGovernor governor = governor(levels);
+        governor.setEnabled(false);
+
+        for(int i = 0; i < 10; i++)
+            governor.onFrame(TARGET * 2);
+        assertEquals(QualityGovernor.FULL, governor.getLevel());
+        assertTrue(levels.isEmpty());
+    }
+}
@@ -0,0 +1,49 @@
+package gov.ismonnet.blindgambling;
+
+import org.junit.Test;
+import org.opencv.core.Rect;
+
+import static org.junit.Assert.*;
+
+public class TableRegionFinderTest {
+
+    private static CardQuads card(float x, float y, float width, float height) {
+        final CardQuads cards = new CardQuads();
+        cards.add(new float[] { x, y, x + width, y, x + width, y + height, x, y + height }, 0);
+        return cards;
+    }
+
+    @Test
+    public void regionIsFoundAfterEnoughFramesWithCards() {
+        final TableRegionFinder finder = new TableRegionFinder(3, 0);
+        final Rect region = new Rect();
+
+        assertFalse(finder.update(card(100, 100, 50, 70)));
+        assertFalse(finder.update(new CardQuads()));
+        assertFalse(finder.update(card(300, 200, 50, 70)));
+        assertFalse(finder.getRegion(1280, 720, region));
+
+        assertTrue(finder.update(card(200, 150, 50, 70)));
+        assertTrue(finder.getRegion(1280, 720, region));
+        assertEquals(new Rect(100, 100, 250, 170), region);
+
+        finder.reset();
+        assertFalse(finder.isFound());
+    }
+
+    @Test
+    public void regionIsPaddedAndClamped() {
+        final TableRegionFinder finder = new TableRegionFinder(1, 1);
+        final Rect region = new Rect();
+
+        // Padded by the longest side of the card, 70 pixels
+        finder.update(card(100, 100, 50, 70));
+        finder.getRegion(1280, 720, region);
+        assertEquals(new Rect(30, 30, 190, 210), region);
+
+        finder.reset();
+        finder.update(card(10, 600, 50, 70));
+        finder.getRegion(1280, 720, region);
+        assertEquals(new Rect(0, 530, 130, 190), region);
+    }
+}
@@ -0,0 +1,97 @@
+package gov.ismonnet.blindgambling;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.opencv.core.Core.CMP_NE;
+import static org.opencv.core.Core.compare;
+import static org.opencv.core.Core.countNonZero;
+
+/**
+ * Time per frame of the binarization split in bands over a number of threads,
+ * against the separate calls over the whole frame.
+ *
+ * OpenCV's own threads are limited to {@code opencvThreads}, 1 by default,
+ * so that the scaling only comes from the bands. The bands are checked against
+ * the whole frame binarization on every frame before being timed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BandBinarizerBenchmark {
+
+    @Param({ "1280x720", "1920x1080" })
+    public String resolution;
+
+    @Param({ "1", "2", "4", "8" })
+    public int threads;
+    // 0 for one band per thread
+    @Param({ "0" })
+    public int bandHeight;
+
+    @Param({ "1" })
+    public int opencvThreads;
+
+    private BenchmarkCorpus corpus;
+    private Binarizer binarizer;
+    private Binarizer bandBinarizer;
+    private int prevOpencvThreads;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        nu.pattern.OpenCV.loadLocally();
+        prevOpencvThreads = Core.getNumThreads();
+        Core.setNumThreads(opencvThreads);
+
+        corpus = new BenchmarkCorpus(resolution);
+        final int width = corpus.gray.get(0).cols();
+        final int height = corpus.gray.get(0).rows();
+
+        binarizer = Binarizer.forFullResolution();
+        binarizer.start(width, height);
+        bandBinarizer = Binarizer.forFullResolution();
+        bandBinarizer.setStrategy(Binarizer.STRATEGY_BANDS);
+        bandBinarizer.setBands(threads, bandHeight);
+        bandBinarizer.start(width, height);
+
+        final Mat diff = new Mat();
+        for(int i = 0; i < corpus.gray.size(); i++) {
+            final Mat expected = binarizer.binarize(corpus.gray.get(i));
+            compare(bandBinarizer.binarize(corpus.gray.get(i)), expected, diff, CMP_NE);
+            final int pixels = countNonZero(diff);
+            if(pixels != 0)
+                throw new IllegalStateException("The bands differ on " + pixels + " pixels of frame " + i);
+        }
+        diff.release();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        bandBinarizer.stop();
+        binarizer.stop();
+        corpus.release();
+        Core.setNumThreads(prevOpencvThreads);
+    }
+
+    @Benchmark
+    public Mat separate() {
+        return binarizer.binarize(corpus.gray.get(corpus.next()));
+    }
+
+    @Benchmark
+    public Mat bands() {
+        return bandBinarizer.binarize(corpus.gray.get(corpus.next()));
+    }
+}
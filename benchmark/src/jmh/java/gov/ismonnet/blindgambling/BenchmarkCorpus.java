@@ -0,0 +1,79 @@
+package gov.ismonnet.blindgambling;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.opencv.imgproc.Imgproc.INTER_AREA;
+import static org.opencv.imgproc.Imgproc.resize;
+
+/**
+ * Fixed set of frames the benchmarks cycle through.
+ *
+ * The frames are read from the directory in the {@value #CORPUS_PROPERTY} system property,
+ * if set, otherwise they are generated by a {@link SyntheticTableSource} with a fixed seed,
+ * so that every build is measured on the same frames.
+ */
+class BenchmarkCorpus {
+
+    static final String CORPUS_PROPERTY = "blindgambling.corpus";
+
+    private static final int SYNTHETIC_FRAMES = 16;
+    private static final int SYNTHETIC_CARDS = 8;
+
+    final List<Mat> gray = new ArrayList<>();
+    final List<Mat> rgba = new ArrayList<>();
+
+    private int next;
+
+    /**
+     * @param resolution resolution of the frames, as width x height
+     */
+    BenchmarkCorpus(String resolution) {
+        final String[] size = resolution.split("x");
+        final int width = Integer.parseInt(size[0]);
+        final int height = Integer.parseInt(size[1]);
+
+        final String directory = System.getProperty(CORPUS_PROPERTY);
+        final FrameSource source = directory == null ?
+                new SyntheticTableSource(width, height, SYNTHETIC_CARDS, SYNTHETIC_FRAMES, 0) :
+                ImageSequenceSource.fromDirectory(new File(directory), 1);
+
+        final Size frameSize = new Size(width, height);
+        while (source.next()) {
+            final Mat frameGray = new Mat();
+            final Mat frameRgba = new Mat();
+            resize(source.gray(), frameGray, frameSize, 0, 0, INTER_AREA);
+            resize(source.rgba(), frameRgba, frameSize, 0, 0, INTER_AREA);
+            gray.add(frameGray);
+            rgba.add(frameRgba);
+        }
+        source.release();
+
+        if(gray.isEmpty())
+            throw new IllegalStateException("The benchmark corpus is empty");
+    }
+
+    int size() {
+        return gray.size();
+    }
+
+    /**
+     * @return index of the frame to use in the next invocation
+     */
+    int next() {
+        final int frame = next;
+        next = (next + 1) % gray.size();
+        return frame;
+    }
+
+    void release() {
+        for(Mat frame : gray)
+            frame.release();
+        for(Mat frame : rgba)
+            frame.release();
+    }
+}
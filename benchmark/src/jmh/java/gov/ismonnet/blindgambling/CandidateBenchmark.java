@@ -0,0 +1,180 @@
+package gov.ismonnet.blindgambling;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.opencv.core.Core.CMP_LT;
+import static org.opencv.core.Core.compare;
+import static org.opencv.imgproc.Imgproc.CHAIN_APPROX_SIMPLE;
+import static org.opencv.imgproc.Imgproc.FILLED;
+import static org.opencv.imgproc.Imgproc.MORPH_RECT;
+import static org.opencv.imgproc.Imgproc.RETR_TREE;
+import static org.opencv.imgproc.Imgproc.circle;
+import static org.opencv.imgproc.Imgproc.erode;
+import static org.opencv.imgproc.Imgproc.findContours;
+import static org.opencv.imgproc.Imgproc.getStructuringElement;
+import static org.opencv.imgproc.Imgproc.line;
+
+/**
+ * Time per frame to go from the binary image to the cards, extracting the contours of the whole image
+ * against extracting them only around the candidates of {@link ComponentCandidates}.
+ *
+ * The table of the corpus frames is cluttered with {@code clutter} random specks and strokes,
+ * like crumbs, chips and the texture of the felt, each one a contour of its own.
+ * Both ways are checked to find the same cards on every frame before being timed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CandidateBenchmark {
+
+    private static final double MIN_AREA = 25000;
+    private static final double QUAD_EPSILON = 0.01;
+    // Anything darker is the table, which is where the clutter goes
+    private static final int TABLE_MAX_GREY = 60;
+
+    @Param({ "1280x720" })
+    public String resolution;
+
+    @Param({ "0", "500", "2000", "5000" })
+    public int clutter;
+
+    private BenchmarkCorpus corpus;
+    private final List<Mat> binary = new ArrayList<>();
+    private Rect frameBounds;
+
+    private final List<MatOfPoint> contours = new ArrayList<>();
+    private Mat hierarchy;
+    private final ContourAnalyzer analyzer = new ContourAnalyzer();
+    private final ComponentCandidates components = new ComponentCandidates();
+    private final CardQuads quadsOut = new CardQuads();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        nu.pattern.OpenCV.loadLocally();
+
+        corpus = new BenchmarkCorpus(resolution);
+        final int width = corpus.gray.get(0).cols();
+        final int height = corpus.gray.get(0).rows();
+        frameBounds = new Rect(0, 0, width, height);
+
+        final Binarizer binarizer = Binarizer.forFullResolution();
+        binarizer.start(width, height);
+        final Random random = new Random(0);
+        for(Mat gray : corpus.gray) {
+            final Mat cluttered = gray.clone();
+            addClutter(cluttered, random);
+            binary.add(binarizer.binarize(cluttered).clone());
+            cluttered.release();
+        }
+        binarizer.stop();
+
+        hierarchy = new Mat();
+        components.start(width, height);
+
+        final CardQuads expected = new CardQuads();
+        for(int i = 0; i < binary.size(); i++) {
+            treeContours(binary.get(i));
+            expected.copyFrom(quadsOut);
+            componentCandidates(binary.get(i));
+            if(expected.size() != quadsOut.size())
+                throw new IllegalStateException("The candidates found " + quadsOut.size() +
+                        " cards instead of " + expected.size() + " on frame " + i);
+        }
+    }
+
+    private void addClutter(Mat gray, Random random) {
+        final Mat table = new Mat();
+        compare(gray, new Scalar(TABLE_MAX_GREY), table, CMP_LT);
+        // Keeps the clutter off the border of the cards
+        erode(table, table, getStructuringElement(MORPH_RECT, new Size(15, 15)));
+
+        final Mat cluttered = gray.clone();
+        for(int i = 0; i < clutter; i++) {
+            final Point point = new Point(random.nextInt(gray.cols()), random.nextInt(gray.rows()));
+            final Scalar color = new Scalar(random.nextInt(256));
+            if(random.nextInt(3) == 0)
+                line(cluttered, point, new Point(point.x + random.nextInt(40) - 20, point.y + random.nextInt(40) - 20),
+                        color, 1 + random.nextInt(2));
+            else
+                circle(cluttered, point, 1 + random.nextInt(6), color, FILLED);
+        }
+        cluttered.copyTo(gray, table);
+
+        cluttered.release();
+        table.release();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        releaseContours();
+        hierarchy.release();
+        components.stop();
+        for(Mat mat : binary)
+            mat.release();
+        corpus.release();
+    }
+
+    private void releaseContours() {
+        for(MatOfPoint contour : contours)
+            contour.release();
+        contours.clear();
+    }
+
+    @Benchmark
+    public int treeContours() {
+        return treeContours(binary.get(corpus.next()));
+    }
+
+    @Benchmark
+    public int componentCandidates() {
+        return componentCandidates(binary.get(corpus.next()));
+    }
+
+    private int treeContours(Mat frame) {
+        quadsOut.clear();
+        releaseContours();
+        findContours(frame, contours, hierarchy, RETR_TREE, CHAIN_APPROX_SIMPLE);
+        analyzer.load(contours, hierarchy);
+        analyzer.findQuads(MIN_AREA, QUAD_EPSILON, frameBounds, 1, quadsOut);
+        return quadsOut.size();
+    }
+
+    private int componentCandidates(Mat frame) {
+        quadsOut.clear();
+        final int count = components.find(frame, MIN_AREA);
+        if(count == ComponentCandidates.TOO_MANY)
+            throw new IllegalStateException("Too many candidates");
+
+        final Rect[] regions = components.getRegions();
+        for(int i = 0; i < count; i++) {
+            final Mat region = frame.submat(regions[i]);
+            releaseContours();
+            findContours(region, contours, hierarchy, RETR_TREE, CHAIN_APPROX_SIMPLE,
+                    new Point(regions[i].x, regions[i].y));
+            analyzer.load(contours, hierarchy);
+            analyzer.findQuads(MIN_AREA, QUAD_EPSILON, regions[i], 1, quadsOut);
+            region.release();
+        }
+        return quadsOut.size();
+    }
+}
@@ -0,0 +1,226 @@
+package gov.ismonnet.blindgambling;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Rect;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.opencv.core.Core.CMP_NE;
+import static org.opencv.core.Core.compare;
+import static org.opencv.core.Core.countNonZero;
+import static org.opencv.imgproc.Imgproc.CHAIN_APPROX_SIMPLE;
+import static org.opencv.imgproc.Imgproc.RETR_TREE;
+import static org.opencv.imgproc.Imgproc.findContours;
+
+/**
+ * Time per frame of each stage of the card pipeline, and of the whole detection,
+ * over the frames of a {@link BenchmarkCorpus} at several resolutions.
+ *
+ * Each stage is fed the output of the previous one, computed once in the setup.
+ * The binarization parameters can be changed from the command line, e.g.
+ * {@code -p thresholdBlockSize=21}, to see how they affect the stages.
+ * The fused binarization is checked against the separate stages on every frame before being timed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PipelineBenchmark {
+
+    @Param({ "640x480", "1280x720", "1920x1080" })
+    public String resolution;
+
+    @Param({ "5" })
+    public int gaussianKernelSize;
+    @Param({ "15" })
+    public int thresholdBlockSize;
+    @Param({ "5" })
+    public int morphKernelSize;
+
+    private BenchmarkCorpus corpus;
+
+    private Binarizer binarizer;
+    private Binarizer fusedBinarizer;
+    private final List<Mat> blurred = new ArrayList<>();
+    private final List<Mat> thresholded = new ArrayList<>();
+    private final List<Mat> binary = new ArrayList<>();
+    private final List<List<MatOfPoint>> contours = new ArrayList<>();
+    private final List<Mat> hierarchies = new ArrayList<>();
+    private final List<CardQuads> cards = new ArrayList<>();
+
+    private final List<MatOfPoint> contoursOut = new ArrayList<>();
+    private Mat hierarchyOut;
+    private final ContourAnalyzer analyzer = new ContourAnalyzer();
+    private final CardQuads quadsOut = new CardQuads();
+    private Rect frameBounds;
+
+    private CardDetector fullDetector;
+    private CardDetector pyramidDetector;
+    private CardRecognizer recognizer;
+    private CardProcessor processor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        nu.pattern.OpenCV.loadLocally();
+
+        corpus = new BenchmarkCorpus(resolution);
+        final int width = corpus.gray.get(0).cols();
+        final int height = corpus.gray.get(0).rows();
+        frameBounds = new Rect(0, 0, width, height);
+
+        binarizer = new Binarizer(gaussianKernelSize, thresholdBlockSize, morphKernelSize);
+        binarizer.start(width, height);
+        fusedBinarizer = new Binarizer(gaussianKernelSize, thresholdBlockSize, morphKernelSize);
+        fusedBinarizer.setStrategy(Binarizer.STRATEGY_FUSED);
+        fusedBinarizer.start(width, height);
+
+        fullDetector = new CardDetector();
+        fullDetector.start(width, height);
+        pyramidDetector = new CardDetector();
+        pyramidDetector.start(width, height);
+        pyramidDetector.setPyramidMode(true);
+
+        recognizer = new CardRecognizer();
+        recognizer.start();
+        recognizer.setBudgetNanos(Long.MAX_VALUE);
+
+        processor = new CardProcessor();
+        processor.start(width, height);
+
+        // Inputs of each stage
+
+        for(Mat gray : corpus.gray) {
+            blurred.add(binarizer.blur(gray).clone());
+            thresholded.add(binarizer.threshold(blurred.get(blurred.size() - 1)).clone());
+            binary.add(binarizer.open(thresholded.get(thresholded.size() - 1)).clone());
+
+            final List<MatOfPoint> frameContours = new ArrayList<>();
+            final Mat hierarchy = new Mat();
+            findContours(binary.get(binary.size() - 1), frameContours, hierarchy, RETR_TREE, CHAIN_APPROX_SIMPLE);
+            contours.add(frameContours);
+            hierarchies.add(hierarchy);
+
+            final CardQuads frameCards = new CardQuads();
+            fullDetector.detect(gray);
+            fullDetector.getCards(frameCards);
+            cards.add(frameCards);
+        }
+
+        checkFusedBinarization();
+        hierarchyOut = new Mat();
+    }
+
+    private void checkFusedBinarization() {
+        final Mat diff = new Mat();
+        for(int i = 0; i < corpus.gray.size(); i++) {
+            compare(fusedBinarizer.binarize(corpus.gray.get(i)), binary.get(i), diff, CMP_NE);
+            final int pixels = countNonZero(diff);
+            if(pixels != 0)
+                throw new IllegalStateException("The fused binarization differs on " + pixels + " pixels of frame " + i);
+        }
+        diff.release();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        processor.stop();
+        recognizer.stop();
+        pyramidDetector.stop();
+        fullDetector.stop();
+        binarizer.stop();
+        fusedBinarizer.stop();
+
+        for(Mat mat : blurred)
+            mat.release();
+        for(Mat mat : thresholded)
+            mat.release();
+        for(Mat mat : binary)
+            mat.release();
+        for(List<MatOfPoint> frameContours : contours)
+            for(MatOfPoint contour : frameContours)
+                contour.release();
+        for(Mat mat : hierarchies)
+            mat.release();
+        hierarchyOut.release();
+        corpus.release();
+    }
+
+    @Benchmark
+    public Mat gaussianBlur() {
+        return binarizer.blur(corpus.gray.get(corpus.next()));
+    }
+
+    @Benchmark
+    public Mat adaptiveThreshold() {
+        return binarizer.threshold(blurred.get(corpus.next()));
+    }
+
+    @Benchmark
+    public Mat morphologyOpen() {
+        return binarizer.open(thresholded.get(corpus.next()));
+    }
+
+    @Benchmark
+    public Mat binarize() {
+        return binarizer.binarize(corpus.gray.get(corpus.next()));
+    }
+
+    @Benchmark
+    public Mat binarizeFused() {
+        return fusedBinarizer.binarize(corpus.gray.get(corpus.next()));
+    }
+
+    @Benchmark
+    public int findContoursStage() {
+        for(MatOfPoint contour : contoursOut)
+            contour.release();
+        contoursOut.clear();
+
+        findContours(binary.get(corpus.next()), contoursOut, hierarchyOut, RETR_TREE, CHAIN_APPROX_SIMPLE);
+        return contoursOut.size();
+    }
+
+    @Benchmark
+    public int contourAnalysis() {
+        final int frame = corpus.next();
+        analyzer.load(contours.get(frame), hierarchies.get(frame));
+
+        quadsOut.clear();
+        analyzer.findQuads(25000, 0.01, frameBounds, 1, quadsOut);
+        return quadsOut.size();
+    }
+
+    @Benchmark
+    public void findCards() {
+        fullDetector.detect(corpus.gray.get(corpus.next()));
+    }
+
+    @Benchmark
+    public void findCardsPyramid() {
+        pyramidDetector.detect(corpus.gray.get(corpus.next()));
+    }
+
+    @Benchmark
+    public void recognize() {
+        final int frame = corpus.next();
+        recognizer.recognize(corpus.gray.get(frame), cards.get(frame));
+    }
+
+    @Benchmark
+    public Mat detectAndRender() {
+        final int frame = corpus.next();
+        return processor.process(corpus.gray.get(frame), corpus.rgba.get(frame));
+    }
+}
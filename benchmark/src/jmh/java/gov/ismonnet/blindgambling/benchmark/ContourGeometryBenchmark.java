@@ -0,0 +1,120 @@
+package gov.ismonnet.blindgambling.benchmark;
+
+import gov.ismonnet.blindgambling.ContourGeometry;
+
+import org.opencv.core.CvType;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the {@link ContourGeometry} kernels with the Imgproc functions they replace,
+ * for contours of increasing size, to find the size above which JNI pays off.
+ *
+ * The JNI versions start from the MatOfPoint returned by findContours and include
+ * the conversion to MatOfPoint2f, as the detector used to do.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ContourGeometryBenchmark {
+
+    @Param({ "4", "8", "16", "32", "64", "128", "256", "1024" })
+    public int points;
+
+    private int[] contour;
+    private MatOfPoint contourMat;
+    private MatOfPoint2f contour2f;
+    private MatOfPoint2f approx2f;
+
+    private final ContourGeometry geometry = new ContourGeometry();
+    private final int[] approx = new int[2 * 1024];
+    private final float[] box = new float[8];
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        nu.pattern.OpenCV.loadLocally();
+
+        // Noisy circle, like the border of a blob
+        final Random random = new Random(points);
+        contour = new int[2 * points];
+        for(int i = 0; i < points; i++) {
+            final double angle = 2 * Math.PI * i / points;
+            final double radius = 100 + random.nextInt(5);
+            contour[2 * i] = (int) (200 + radius * Math.cos(angle));
+            contour[2 * i + 1] = (int) (200 + radius * Math.sin(angle));
+        }
+
+        contourMat = new MatOfPoint();
+        contourMat.alloc(points);
+        contourMat.put(0, 0, contour);
+        contour2f = new MatOfPoint2f();
+        approx2f = new MatOfPoint2f();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        contourMat.release();
+        contour2f.release();
+        approx2f.release();
+    }
+
+    @Benchmark
+    public double contourAreaJava() {
+        return ContourGeometry.contourArea(contour, 0, points);
+    }
+
+    @Benchmark
+    public double contourAreaJni() {
+        return Imgproc.contourArea(contourMat);
+    }
+
+    @Benchmark
+    public double arcLengthJava() {
+        return ContourGeometry.arcLength(contour, 0, points, true);
+    }
+
+    @Benchmark
+    public double arcLengthJni() {
+        contourMat.convertTo(contour2f, CvType.CV_32F);
+        return Imgproc.arcLength(contour2f, true);
+    }
+
+    @Benchmark
+    public int approxPolyDPJava() {
+        final double epsilon = 0.01 * ContourGeometry.arcLength(contour, 0, points, true);
+        return geometry.approxPolyDP(contour, 0, points, epsilon, approx);
+    }
+
+    @Benchmark
+    public long approxPolyDPJni() {
+        contourMat.convertTo(contour2f, CvType.CV_32F);
+        Imgproc.approxPolyDP(contour2f, approx2f, 0.01 * Imgproc.arcLength(contour2f, true), true);
+        return approx2f.total();
+    }
+
+    @Benchmark
+    public float minAreaRectJava() {
+        geometry.minAreaRect(contour, 0, points, box);
+        return box[0];
+    }
+
+    @Benchmark
+    public double minAreaRectJni() {
+        contourMat.convertTo(contour2f, CvType.CV_32F);
+        return Imgproc.minAreaRect(contour2f).angle;
+    }
+}
@@ -0,0 +1,62 @@
+package gov.ismonnet.blindgambling.benchmark;
+
+import gov.ismonnet.blindgambling.CardProcessor;
+import gov.ismonnet.blindgambling.FrameSource;
+import gov.ismonnet.blindgambling.HeadlessRunner;
+import gov.ismonnet.blindgambling.ImageSequenceSource;
+import gov.ismonnet.blindgambling.Nv21DumpSource;
+import gov.ismonnet.blindgambling.SyntheticTableSource;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Runs the card processing on a JVM, without a camera, and prints the frames per second.
+ *
+ * Usage:
+ * <pre>
+ *   synthetic [width height cards frames]
+ *   images &lt;directory&gt; [loops]
+ *   nv21 &lt;file&gt; &lt;width&gt; &lt;height&gt;
+ * </pre>
+ */
+public class HeadlessMain {
+
+    public static void main(String[] args) throws IOException {
+        nu.pattern.OpenCV.loadLocally();
+
+        final FrameSource source = createSource(args);
+        try {
+            final HeadlessRunner runner = new HeadlessRunner(source, new CardProcessor());
+            System.out.println(runner.run(Integer.MAX_VALUE));
+        } finally {
+            source.release();
+        }
+    }
+
+    private static FrameSource createSource(String[] args) throws IOException {
+        final String type = args.length == 0 ? "synthetic" : args[0];
+        switch (type) {
+            case "synthetic":
+                return new SyntheticTableSource(
+                        intArg(args, 1, 1280),
+                        intArg(args, 2, 720),
+                        intArg(args, 3, 8),
+                        intArg(args, 4, 600),
+                        0);
+            case "images":
+                return ImageSequenceSource.fromDirectory(new File(args[1]), intArg(args, 2, 1));
+            case "nv21":
+                return new Nv21DumpSource(new File(args[1]),
+                        Integer.parseInt(args[2]),
+                        Integer.parseInt(args[3]),
+                        false);
+            default:
+                throw new IllegalArgumentException("Unknown frame source " + type);
+        }
+    }
+
+    private static int intArg(String[] args, int index, int defaultValue) {
+        return args.length > index ? Integer.parseInt(args[index]) : defaultValue;
+    }
+}
@@ -0,0 +1,161 @@
+package org.opencv.android;
+
+import android.graphics.ImageFormat;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Camera frame backed by a YUV buffer in NV21 or YV12 format, which memoizes its conversions.
+ *
+ * The gray Mat is a view on the Y plane created once, and the RGBA conversion is done
+ * at most once per frame generation, i.e. until {@link #invalidate()} is called
+ * after new data has been written to the buffer. For NV21 frames, {@link #rgba(Rect)}
+ * can convert only a region, so that a frame whose colors are only needed around
+ * a few objects never pays for the conversion of the whole image. The last converted region
+ * is remembered, so asking again for any part of it doesn't convert it twice.
+ */
+public class CachedYuvFrame implements CameraBridgeViewBase.CvCameraViewRoiFrame,
+        CameraBridgeViewBase.CvCameraViewYuvFrame {
+
+    private final Mat mYuvFrameData;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mFormat;
+
+    private final Mat mGray;
+    private final Mat mRgba;
+    private boolean mRgbaValid;
+
+    private final Rect mAlignedRoi = new Rect();
+    // Region of the RGBA buffer converted for the current data, empty if none
+    private final Rect mConvertedRoi = new Rect();
+    private Mat mRoiRgba;
+
+    /**
+     * @param yuv buffer holding the frames, height * 3 / 2 rows of width single channel bytes
+     * @param width width of the frames
+     * @param height height of the frames
+     * @param format format of the frames, either {@link ImageFormat#NV21} or {@link ImageFormat#YV12}
+     */
+    public CachedYuvFrame(Mat yuv, int width, int height, int format) {
+        if (format != ImageFormat.NV21 && format != ImageFormat.YV12)
+            throw new IllegalArgumentException("Preview Format can be NV21 or YV12");
+
+        mYuvFrameData = yuv;
+        mWidth = width;
+        mHeight = height;
+        mFormat = format;
+        mGray = yuv.submat(0, height, 0, width);
+        mRgba = new Mat();
+    }
+
+    /**
+     * Marks the conversions done until now as stale. Needs to be called whenever
+     * new data is written into the YUV buffer.
+     */
+    public void invalidate() {
+        mRgbaValid = false;
+        mConvertedRoi.width = mConvertedRoi.height = 0;
+    }
+
+    public Mat yuv() {
+        return mYuvFrameData;
+    }
+
+    public int getFormat() {
+        return mFormat;
+    }
+
+    /**
+     * Copies the buffer as it is, if the frames are NV21.
+     */
+    @Override
+    public boolean copyNv21To(Mat yuv) {
+        if (mFormat != ImageFormat.NV21)
+            return false;
+        mYuvFrameData.copyTo(yuv);
+        return true;
+    }
+
+    @Override
+    public Mat gray() {
+        return mGray;
+    }
+
+    @Override
+    public Mat rgba() {
+        if (mRgbaValid)
+            return mRgba;
+
+        if (mFormat == ImageFormat.NV21)
+            Imgproc.cvtColor(mYuvFrameData, mRgba, Imgproc.COLOR_YUV2RGBA_NV21, 4);
+        else
+            Imgproc.cvtColor(mYuvFrameData, mRgba, Imgproc.COLOR_YUV2RGB_I420, 4);  // COLOR_YUV2RGBA_YV12 produces inverted colors
+        mRgbaValid = true;
+        return mRgba;
+    }
+
+    /**
+     * Returns the region of the RGBA frame, converting only that region if the whole frame
+     * hasn't been converted yet. The rest of the RGBA buffer is left with stale data.
+     * The returned Mat is a view valid until the next call, and shouldn't be released.
+     */
+    @Override
+    public Mat rgba(Rect roi) {
+        if (mRoiRgba != null)
+            mRoiRgba.release();
+
+        if (mRgbaValid || mFormat != ImageFormat.NV21) {
+            mRoiRgba = rgba().submat(roi);
+            return mRoiRgba;
+        }
+
+        mRgba.create(mHeight, mWidth, CvType.CV_8UC4);
+        if (roi.width > 0 && roi.height > 0) {
+            // Chroma is subsampled 2x2, so the converted region needs to start and end on even pixels
+            mAlignedRoi.x = roi.x & ~1;
+            mAlignedRoi.y = roi.y & ~1;
+            mAlignedRoi.width = Math.min(mWidth, (roi.x + roi.width + 1) & ~1) - mAlignedRoi.x;
+            mAlignedRoi.height = Math.min(mHeight, (roi.y + roi.height + 1) & ~1) - mAlignedRoi.y;
+            if (!contains(mConvertedRoi, mAlignedRoi)) {
+                Mat y = mYuvFrameData.submat(mAlignedRoi.y, mAlignedRoi.y + mAlignedRoi.height,
+                        mAlignedRoi.x, mAlignedRoi.x + mAlignedRoi.width);
+                Mat vuBytes = mYuvFrameData.submat(mHeight + mAlignedRoi.y / 2, mHeight + (mAlignedRoi.y + mAlignedRoi.height) / 2,
+                        mAlignedRoi.x, mAlignedRoi.x + mAlignedRoi.width);
+                Mat vu = vuBytes.reshape(2);
+                Mat dst = mRgba.submat(mAlignedRoi);
+
+                Imgproc.cvtColorTwoPlane(y, vu, dst, Imgproc.COLOR_YUV2RGBA_NV21);
+
+                dst.release();
+                vu.release();
+                vuBytes.release();
+                y.release();
+
+                mConvertedRoi.x = mAlignedRoi.x;
+                mConvertedRoi.y = mAlignedRoi.y;
+                mConvertedRoi.width = mAlignedRoi.width;
+                mConvertedRoi.height = mAlignedRoi.height;
+                // Converting the whole frame region by region is the same as converting it at once
+                mRgbaValid = mAlignedRoi.width == mWidth && mAlignedRoi.height == mHeight;
+            }
+        }
+
+        mRoiRgba = mRgba.submat(roi);
+        return mRoiRgba;
+    }
+
+    private static boolean contains(Rect a, Rect b) {
+        return b.x >= a.x && b.y >= a.y && b.x + b.width <= a.x + a.width && b.y + b.height <= a.y + a.height;
+    }
+
+    public void release() {
+        if (mRoiRgba != null)
+            mRoiRgba.release();
+        mGray.release();
+        mRgba.release();
+    }
+}
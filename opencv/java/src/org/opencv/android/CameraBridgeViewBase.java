@@ -191,6 +191,30 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
         public Mat gray();
     };
 
+    /**
+     * Frame which can convert only a region of itself to RGBA.
+     */
+    public interface CvCameraViewRoiFrame extends CvCameraViewFrame {
+
+        /**
+         * This method returns RGBA Mat with the given region of the frame,
+         * valid until the next call on the same frame
+         */
+        public Mat rgba(org.opencv.core.Rect roi);
+    };
+
+    /**
+     * Frame backed by YUV planes, which can be copied without converting it to RGBA.
+     */
+    public interface CvCameraViewYuvFrame extends CvCameraViewFrame {
+
+        /**
+         * This method copies the frame into a buffer of height * 3 / 2 rows of width bytes
+         * in NV21 format, returning false if it can't be copied without converting it
+         */
+        public boolean copyNv21To(Mat yuv);
+    };
+
     public void surfaceChanged(SurfaceHolder arg0, int arg1, int arg2, int arg3) {
         Log.d(TAG, "call surfaceChanged event");
         synchronized(mSyncObject) {
@@ -1,33 +1,49 @@
 package org.opencv.android;
 
-import java.text.DecimalFormat;
-
-import org.opencv.core.Core;
-
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
-import android.util.Log;
 
+/**
+ * Rolling frame time tracker drawn on top of the camera preview.
+ *
+ * The intervals between the last {@link #WINDOW} frames are kept in a ring buffer,
+ * from which the FPS, the number of janky frames (taking more than {@link #JANK_FACTOR}
+ * times the average) and the worst frame time are computed. The text is formatted
+ * into a reused char buffer every {@link #STEP} frames, so measuring and drawing
+ * don't allocate anything or log on the render path.
+ */
 public class FpsMeter {
-    private static final String TAG               = "FpsMeter";
+    private static final int    WINDOW            = 64;
     private static final int    STEP              = 20;
-    private static final DecimalFormat FPS_FORMAT = new DecimalFormat("0.00");
+    private static final int    JANK_FACTOR       = 2;
 
+    private final long[]        mIntervals = new long[WINDOW];
+    private int                 mNext;
+    private int                 mCount;
+    private long                mPrevFrameTime;
     private int                 mFramesCounter;
-    private double              mFrequency;
-    private long                mprevFrameTime;
-    private String              mStrfps;
+
+    private float               mFps;
+    private int                 mJankCount;
+    private long                mWorstInterval;
+
+    private final char[]        mText = new char[64];
+    private int                 mTextLength;
     Paint                       mPaint;
     boolean                     mIsInitialized = false;
     int                         mWidth = 0;
     int                         mHeight = 0;
 
     public void init() {
+        mNext = 0;
+        mCount = 0;
         mFramesCounter = 0;
-        mFrequency = Core.getTickFrequency();
-        mprevFrameTime = Core.getTickCount();
-        mStrfps = "";
+        mPrevFrameTime = System.nanoTime();
+        mFps = 0;
+        mJankCount = 0;
+        mWorstInterval = 0;
+        mTextLength = 0;
 
         mPaint = new Paint();
         mPaint.setColor(Color.BLUE);
@@ -38,29 +54,119 @@ public class FpsMeter {
         if (!mIsInitialized) {
             init();
             mIsInitialized = true;
-        } else {
-            mFramesCounter++;
-            if (mFramesCounter % STEP == 0) {
-                long time = Core.getTickCount();
-                double fps = STEP * mFrequency / (time - mprevFrameTime);
-                mprevFrameTime = time;
-                if (mWidth != 0 && mHeight != 0)
-                    mStrfps = FPS_FORMAT.format(fps) + " FPS@" + Integer.valueOf(mWidth) + "x" + Integer.valueOf(mHeight);
-                else
-                    mStrfps = FPS_FORMAT.format(fps) + " FPS";
-                Log.i(TAG, mStrfps);
-            }
+            return;
+        }
+
+        long time = System.nanoTime();
+        mIntervals[mNext] = time - mPrevFrameTime;
+        mNext = (mNext + 1) % WINDOW;
+        if (mCount < WINDOW)
+            mCount++;
+        mPrevFrameTime = time;
+
+        mFramesCounter++;
+        if (mFramesCounter % STEP == 0) {
+            update();
+            format();
         }
     }
 
     public void setResolution(int width, int height) {
         mWidth = width;
         mHeight = height;
+        if (mIsInitialized)
+            format();
+    }
+
+    /**
+     * @return frames per second over the last {@link #WINDOW} frames, updated every {@link #STEP} frames
+     */
+    public float getFps() {
+        return mFps;
+    }
+
+    /**
+     * @return number of frames in the window which took more than twice the average frame time
+     */
+    public int getJankCount() {
+        return mJankCount;
+    }
+
+    /**
+     * @return longest frame time in the window, in milliseconds
+     */
+    public float getWorstFrameMillis() {
+        return mWorstInterval / 1e6f;
     }
 
     public void draw(Canvas canvas, float offsetx, float offsety) {
-        Log.d(TAG, mStrfps);
-        canvas.drawText(mStrfps, offsetx, offsety, mPaint);
+        if (mTextLength > 0)
+            canvas.drawText(mText, 0, mTextLength, offsetx, offsety, mPaint);
     }
 
+    private void update() {
+        long total = 0;
+        long worst = 0;
+        for (int i = 0; i < mCount; i++) {
+            total += mIntervals[i];
+            worst = Math.max(worst, mIntervals[i]);
+        }
+
+        int jank = 0;
+        for (int i = 0; i < mCount; i++)
+            if (mIntervals[i] * mCount > JANK_FACTOR * total)
+                jank++;
+
+        mFps = total == 0 ? 0 : mCount * 1e9f / total;
+        mJankCount = jank;
+        mWorstInterval = worst;
+    }
+
+    // "29.97 FPS@1280x720 jank 2 worst 45.3 ms"
+    private void format() {
+        mTextLength = 0;
+        appendFixed(Math.round(mFps * 100), 2);
+        append(" FPS");
+        if (mWidth != 0 && mHeight != 0) {
+            append("@");
+            appendFixed(mWidth, 0);
+            append("x");
+            appendFixed(mHeight, 0);
+        }
+        append(" jank ");
+        appendFixed(mJankCount, 0);
+        append(" worst ");
+        appendFixed(mWorstInterval / 100000, 1);
+        append(" ms");
+    }
+
+    private void append(String str) {
+        int length = Math.min(str.length(), mText.length - mTextLength);
+        str.getChars(0, length, mText, mTextLength);
+        mTextLength += length;
+    }
+
+    /**
+     * Appends a positive number with the given number of decimal digits,
+     * the last of which are the least significant digits of the value.
+     */
+    private void appendFixed(long value, int decimals) {
+        int digits = 1;
+        for (long v = value / 10; v > 0; v /= 10)
+            digits++;
+        digits = Math.max(digits, decimals + 1);
+
+        int length = digits + (decimals > 0 ? 1 : 0);
+        if (mTextLength + length > mText.length)
+            return;
+
+        int pos = mTextLength + length - 1;
+        for (int i = 0; i < digits; i++) {
+            if (decimals > 0 && i == decimals)
+                mText[pos--] = '.';
+            mText[pos--] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        mTextLength += length;
+    }
 }
@@ -0,0 +1,29 @@
+package org.opencv.android;
+
+/**
+ * Hands the index of the latest frame from the camera callback thread
+ * to the thread processing the frames.
+ * Only one slot is available: offering a new index while the previous one
+ * hasn't been taken yet replaces it.
+ * Implementations are meant to be used by a single producer and a single consumer.
+ */
+public interface FrameExchange {
+
+    /**
+     * Publishes the index of a new frame.
+     * @param idx - the index of the frame, non negative
+     * @return the index of the frame which was replaced and never taken, or -1
+     */
+    public int offer(int idx);
+
+    /**
+     * Waits until a frame is available or the exchange is stopped.
+     * @return the index of the latest frame, or -1 if the exchange has been stopped
+     */
+    public int take();
+
+    /**
+     * Stops the exchange, waking up the consumer if it is waiting.
+     */
+    public void stop();
+}
@@ -1,8 +1,10 @@
 package org.opencv.android;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import android.annotation.TargetApi;
 import android.content.Context;
@@ -12,6 +14,7 @@ import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureFailure;
 import android.hardware.camera2.CaptureRequest;
 import android.hardware.camera2.params.StreamConfigurationMap;
 import android.media.Image;
@@ -23,8 +26,11 @@ import android.util.Log;
 import android.view.Surface;
 import android.view.ViewGroup.LayoutParams;
 
+import org.opencv.core.Core;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.Rect;
 import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
 
@@ -52,9 +58,40 @@ public class JavaCamera2View extends CameraBridgeViewBase {
     private String mCameraID;
     private android.util.Size mPreviewSize = new android.util.Size(-1, -1);
 
+    // Reused for all the images delivered by the reader, only touched by the background thread
+    private JavaCamera2Frame mFrame;
+
+    // Optional second stream, only captured on request
+    private CvCameraViewHighResolutionListener mHighResListener;
+    private int mHighResMaxWidth;
+    private int mHighResMaxHeight;
+    private volatile ImageReader mHighResImageReader;
+    private CaptureRequest mHighResRequest;
+    private JavaCamera2Frame mHighResFrame;
+    private final AtomicBoolean mHighResPending = new AtomicBoolean();
+    private Surface mHighResSurface;
+
+    // Region of the field of view the camera crops the frames to, in uncropped frame coordinates
+    private volatile Rect mCropRegion;
+    // Region actually applied, grown to the aspect ratio of the frames
+    private volatile Rect mAppliedCropRegion;
+    private android.graphics.Rect mActiveArraySize;
+    private float mMaxDigitalZoom = 1;
+
     private HandlerThread mBackgroundThread;
     private Handler mBackgroundHandler;
 
+    /**
+     * Listener for the frames of the high resolution stream.
+     */
+    public interface CvCameraViewHighResolutionListener {
+        /**
+         * Invoked on the camera thread with a frame captured after {@link #requestHighResolutionFrame()}.
+         * The frame is backed by the camera image and is only valid until this method returns.
+         */
+        void onHighResolutionFrame(CvCameraViewRoiFrame frame);
+    }
+
     public JavaCamera2View(Context context, int cameraId) {
         super(context, cameraId);
     }
@@ -170,6 +207,7 @@ public class JavaCamera2View extends CameraBridgeViewBase {
                 return;
             }
 
+            mFrame = new JavaCamera2Frame();
             mImageReader = ImageReader.newInstance(w, h, mPreviewFormat, 2);
             mImageReader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
                 @Override
@@ -183,18 +221,30 @@ public class JavaCamera2View extends CameraBridgeViewBase {
                     assert (planes.length == 3);
                     assert (image.getFormat() == mPreviewFormat);
 
-                    JavaCamera2Frame tempFrame = new JavaCamera2Frame(image);
-                    deliverAndDrawFrame(tempFrame);
-                    tempFrame.release();
+                    mFrame.setImage(image);
+                    deliverAndDrawFrame(mFrame);
+                    mFrame.setImage(null);
                     image.close();
                 }
             }, mBackgroundHandler);
             Surface surface = mImageReader.getSurface();
 
+            final Surface highResSurface = createHighResolutionReader(w, h);
+            mHighResSurface = highResSurface;
+
+            CameraManager manager = (CameraManager) getContext().getSystemService(Context.CAMERA_SERVICE);
+            CameraCharacteristics characteristics = manager.getCameraCharacteristics(mCameraID);
+            mActiveArraySize = characteristics.get(CameraCharacteristics.SENSOR_INFO_ACTIVE_ARRAY_SIZE);
+            Float maxDigitalZoom = characteristics.get(CameraCharacteristics.SCALER_AVAILABLE_MAX_DIGITAL_ZOOM);
+            mMaxDigitalZoom = maxDigitalZoom == null ? 1 : maxDigitalZoom;
+
             mPreviewRequestBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
             mPreviewRequestBuilder.addTarget(surface);
 
-            mCameraDevice.createCaptureSession(Arrays.asList(surface),
+            List<Surface> outputs = highResSurface == null ?
+                    Arrays.asList(surface) :
+                    Arrays.asList(surface, highResSurface);
+            mCameraDevice.createCaptureSession(outputs,
                 new CameraCaptureSession.StateCallback() {
                     @Override
                     public void onConfigured(CameraCaptureSession cameraCaptureSession) {
@@ -209,7 +259,7 @@ public class JavaCamera2View extends CameraBridgeViewBase {
                             mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE,
                                     CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH);
 
-                            mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(), null, mBackgroundHandler);
+                            updateRequests();
                             Log.i(LOGTAG, "CameraPreviewSession has been started");
                         } catch (Exception e) {
                             Log.e(LOGTAG, "createCaptureSession failed", e);
@@ -228,6 +278,252 @@ public class JavaCamera2View extends CameraBridgeViewBase {
         }
     }
 
+    /**
+     * Submits the preview request again with the current crop region,
+     * and builds the high resolution one with the same settings.
+     * Must be called on the camera thread once the session is configured.
+     */
+    private void updateRequests() throws CameraAccessException {
+        android.graphics.Rect crop = computeSensorCropRegion(mCropRegion, mPreviewSize.getWidth(), mPreviewSize.getHeight());
+        if (crop != null)
+            mPreviewRequestBuilder.set(CaptureRequest.SCALER_CROP_REGION, crop);
+        mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(), null, mBackgroundHandler);
+
+        if (mHighResSurface != null) {
+            // Same settings as the preview, so that the preview doesn't skip a beat
+            mPreviewRequestBuilder.addTarget(mHighResSurface);
+            mHighResRequest = mPreviewRequestBuilder.build();
+            mPreviewRequestBuilder.removeTarget(mHighResSurface);
+        }
+    }
+
+    /**
+     * Converts a region of the uncropped frames to the crop region of the sensor.
+     * The region is grown around its centre to the aspect ratio of the frames, so that
+     * the camera doesn't crop it any further, and to the maximum zoom the camera supports.
+     *
+     * @return the crop region, in active array coordinates, or null if the active array size is unknown
+     */
+    private android.graphics.Rect computeSensorCropRegion(Rect region, int width, int height) {
+        android.graphics.Rect active = mActiveArraySize;
+        if (active == null)
+            return null;
+        if (region == null || width <= 0 || height <= 0) {
+            mAppliedCropRegion = null;
+            return new android.graphics.Rect(0, 0, active.width(), active.height());
+        }
+
+        // The uncropped frames show the centre of the active array, with their own aspect ratio
+        float scale = Math.min((float) active.width() / width, (float) active.height() / height);
+        float offsetX = (active.width() - width * scale) / 2;
+        float offsetY = (active.height() - height * scale) / 2;
+
+        float regionWidth = Math.max(1, region.width);
+        float regionHeight = Math.max(1, region.height);
+        if (regionWidth * height < regionHeight * width)
+            regionWidth = regionHeight * width / height;
+        else
+            regionHeight = regionWidth * height / width;
+        if (regionWidth < width / mMaxDigitalZoom) {
+            regionWidth = width / mMaxDigitalZoom;
+            regionHeight = height / mMaxDigitalZoom;
+        }
+        if (regionWidth > width) {
+            regionWidth = width;
+            regionHeight = height;
+        }
+
+        float left = region.x + region.width / 2f - regionWidth / 2;
+        float top = region.y + region.height / 2f - regionHeight / 2;
+        left = Math.max(0, Math.min(width - regionWidth, left));
+        top = Math.max(0, Math.min(height - regionHeight, top));
+
+        mAppliedCropRegion = new Rect(Math.round(left), Math.round(top), Math.round(regionWidth), Math.round(regionHeight));
+        return new android.graphics.Rect(
+                Math.round(offsetX + left * scale),
+                Math.round(offsetY + top * scale),
+                Math.round(offsetX + (left + regionWidth) * scale),
+                Math.round(offsetY + (top + regionHeight) * scale));
+    }
+
+    /**
+     * Makes the camera crop its field of view to the given region and scale it to the size
+     * of the frames, so that the frames delivered only contain the region, at a higher density,
+     * without any cropping done on the CPU. Applies to the high resolution stream too.
+     *
+     * The region is grown to the aspect ratio of the frames and limited by the maximum zoom
+     * of the camera; {@link #getCropRegion()} returns the region actually applied.
+     * Can be called from any thread, and is kept when the camera is connected again.
+     *
+     * @param region region in the coordinates of the uncropped frames, or null for the whole field of view
+     */
+    public void setCropRegion(Rect region) {
+        mCropRegion = region == null ? null : region.clone();
+
+        Handler handler = mBackgroundHandler;
+        if (handler == null)
+            return;
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mCaptureSession == null || mPreviewRequestBuilder == null)
+                    return;
+                try {
+                    updateRequests();
+                } catch (CameraAccessException e) {
+                    Log.e(LOGTAG, "setCropRegion", e);
+                } catch (IllegalStateException e) {
+                    // The session has been closed in the meantime
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the region the frames are cropped to, in the coordinates of the uncropped frames,
+     *         or null if they show the whole field of view
+     */
+    public Rect getCropRegion() {
+        return mAppliedCropRegion;
+    }
+
+    /**
+     * Creates the reader of the high resolution stream, if a listener is set and the camera
+     * supports a YUV size bigger than the preview with the same aspect ratio.
+     *
+     * @return the surface of the reader, or null if there's no high resolution stream
+     */
+    private Surface createHighResolutionReader(int previewWidth, int previewHeight) throws CameraAccessException {
+        if (mHighResImageReader != null) {
+            mHighResImageReader.close();
+            mHighResImageReader = null;
+        }
+        mHighResRequest = null;
+        mHighResPending.set(false);
+        if (mHighResListener == null)
+            return null;
+
+        CameraManager manager = (CameraManager) getContext().getSystemService(Context.CAMERA_SERVICE);
+        StreamConfigurationMap map = manager.getCameraCharacteristics(mCameraID)
+                .get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        android.util.Size best = null;
+        for (android.util.Size size : map.getOutputSizes(mPreviewFormat)) {
+            int sw = size.getWidth(), sh = size.getHeight();
+            // Same field of view as the preview, so that its coordinates only need to be scaled
+            if ((long) sw * previewHeight != (long) sh * previewWidth)
+                continue;
+            if (sw <= previewWidth ||
+                    (mHighResMaxWidth > 0 && sw > mHighResMaxWidth) ||
+                    (mHighResMaxHeight > 0 && sh > mHighResMaxHeight))
+                continue;
+            if (best == null || sw > best.getWidth())
+                best = size;
+        }
+        if (best == null) {
+            Log.w(LOGTAG, "No high resolution size with the aspect ratio of " + previewWidth + "x" + previewHeight);
+            return null;
+        }
+
+        Log.i(LOGTAG, "High resolution stream: " + best.getWidth() + "x" + best.getHeight());
+        if (mHighResFrame == null)
+            mHighResFrame = new JavaCamera2Frame();
+        mHighResImageReader = ImageReader.newInstance(best.getWidth(), best.getHeight(), mPreviewFormat, 1);
+        mHighResImageReader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
+            @Override
+            public void onImageAvailable(ImageReader reader) {
+                Image image = reader.acquireLatestImage();
+                if (image == null)
+                    return;
+
+                CvCameraViewHighResolutionListener listener = mHighResListener;
+                if (listener != null) {
+                    mHighResFrame.setImage(image);
+                    listener.onHighResolutionFrame(mHighResFrame);
+                    mHighResFrame.setImage(null);
+                }
+                image.close();
+                mHighResPending.set(false);
+            }
+        }, mBackgroundHandler);
+        return mHighResImageReader.getSurface();
+    }
+
+    /**
+     * Sets the listener of a second, high resolution stream which is only captured on request,
+     * in addition to the preview stream. Takes effect the next time the camera is connected.
+     *
+     * @param listener listener receiving the high resolution frames, or null not to create the stream
+     */
+    public void setHighResolutionListener(CvCameraViewHighResolutionListener listener) {
+        mHighResListener = listener;
+    }
+
+    /**
+     * Limits the size of the high resolution stream. Takes effect the next time the camera is connected.
+     *
+     * @param maxWidth maximum width, 0 for no limit
+     * @param maxHeight maximum height, 0 for no limit
+     */
+    public void setMaxHighResolutionSize(int maxWidth, int maxHeight) {
+        mHighResMaxWidth = maxWidth;
+        mHighResMaxHeight = maxHeight;
+    }
+
+    /**
+     * @return true if the current session has a high resolution stream
+     */
+    public boolean hasHighResolutionStream() {
+        return mHighResImageReader != null;
+    }
+
+    /**
+     * Captures a single frame of the high resolution stream, together with a preview one,
+     * and delivers it to the high resolution listener. Can be called from any thread.
+     *
+     * @return false if there's no high resolution stream or a frame is already being captured
+     */
+    public boolean requestHighResolutionFrame() {
+        Handler handler = mBackgroundHandler;
+        if (handler == null || mHighResImageReader == null)
+            return false;
+        if (!mHighResPending.compareAndSet(false, true))
+            return false;
+
+        // Session and request are only touched by the camera thread
+        boolean posted = handler.post(new Runnable() {
+            @Override
+            public void run() {
+                CameraCaptureSession session = mCaptureSession;
+                if (session == null || mHighResRequest == null) {
+                    mHighResPending.set(false);
+                    return;
+                }
+                try {
+                    session.capture(mHighResRequest, new CameraCaptureSession.CaptureCallback() {
+                        @Override
+                        public void onCaptureFailed(CameraCaptureSession cameraCaptureSession, CaptureRequest request, CaptureFailure failure) {
+                            mHighResPending.set(false);
+                        }
+
+                        @Override
+                        public void onCaptureBufferLost(CameraCaptureSession cameraCaptureSession, CaptureRequest request, Surface target, long frameNumber) {
+                            mHighResPending.set(false);
+                        }
+                    }, mBackgroundHandler);
+                } catch (CameraAccessException e) {
+                    Log.e(LOGTAG, "requestHighResolutionFrame", e);
+                    mHighResPending.set(false);
+                } catch (IllegalStateException e) {
+                    // The session has been closed in the meantime
+                    mHighResPending.set(false);
+                }
+            }
+        });
+        if (!posted)
+            mHighResPending.set(false);
+        return posted;
+    }
+
     @Override
     protected void disconnectCamera() {
         Log.i(LOGTAG, "closeCamera");
@@ -245,8 +541,23 @@ public class JavaCamera2View extends CameraBridgeViewBase {
                 mImageReader.close();
                 mImageReader = null;
             }
+            if (null != mHighResImageReader) {
+                mHighResImageReader.close();
+                mHighResImageReader = null;
+            }
         } finally {
             stopBackgroundThread();
+            if (null != mFrame) {
+                mFrame.release();
+                mFrame = null;
+            }
+            if (null != mHighResFrame) {
+                mHighResFrame.release();
+                mHighResFrame = null;
+            }
+            mHighResRequest = null;
+            mHighResSurface = null;
+            mHighResPending.set(false);
         }
     }
 
@@ -264,6 +575,13 @@ public class JavaCamera2View extends CameraBridgeViewBase {
         }
     }
 
+    /**
+     * @return id of the opened camera, to query its characteristics, or null if none has been opened yet
+     */
+    protected String getCameraId() {
+        return mCameraID;
+    }
+
     boolean calcPreviewSize(final int width, final int height) {
         Log.i(LOGTAG, "calcPreviewSize: " + width + "x" + height);
         if (mCameraID == null) {
@@ -326,19 +644,33 @@ public class JavaCamera2View extends CameraBridgeViewBase {
         return true;
     }
 
-    private class JavaCamera2Frame implements CvCameraViewFrame {
+    private class JavaCamera2Frame implements CvCameraViewRoiFrame, CvCameraViewYuvFrame {
         @Override
         public Mat gray() {
-            Image.Plane[] planes = mImage.getPlanes();
-            int w = mImage.getWidth();
-            int h = mImage.getHeight();
-            ByteBuffer y_plane = planes[0].getBuffer();
-            mGray = new Mat(h, w, CvType.CV_8UC1, y_plane);
+            if (mGray == null) {
+                Image.Plane[] planes = mImage.getPlanes();
+                int w = mImage.getWidth();
+                int h = mImage.getHeight();
+                ByteBuffer y_plane = planes[0].getBuffer();
+                int yRowStride = planes[0].getRowStride();
+                if (yRowStride == w) {
+                    mGray = new Mat(h, w, CvType.CV_8UC1, y_plane);
+                } else {
+                    // Rows are padded: map the whole stride and keep only the visible columns.
+                    // The last row may be shorter than the stride, but is never read past w
+                    Mat padded = new Mat(h, yRowStride, CvType.CV_8UC1, y_plane);
+                    mGray = padded.colRange(0, w);
+                    padded.release();
+                }
+            }
             return mGray;
         }
 
         @Override
         public Mat rgba() {
+            if (mRgbaValid)
+                return mRgba;
+
             Image.Plane[] planes = mImage.getPlanes();
             int w = mImage.getWidth();
             int h = mImage.getHeight();
@@ -346,81 +678,235 @@ public class JavaCamera2View extends CameraBridgeViewBase {
 
 
             if (chromaPixelStride == 2) { // Chroma channels are interleaved
+                Imgproc.cvtColorTwoPlane(gray(), chroma(), mRgba, mChromaCode);
+            } else { // Chroma channels are not interleaved
+                Mat yuv = i420();
+                Mat y = yuv.rowRange(0, h);
+                gray().copyTo(y);
+                y.release();
+
+                // U and V planes follow the Y plane, each h/2 rows of w/2 bytes
+                ByteBuffer yuv_buffer = mI420Buffer;
+                yuv_buffer.clear();
+                yuv_buffer.position(w*h);
+                copyPlane(planes[1], yuv_buffer, w/2, h/2);
+                copyPlane(planes[2], yuv_buffer, w/2, h/2);
+
+                Imgproc.cvtColor(yuv, mRgba, Imgproc.COLOR_YUV2RGBA_I420, 4);
+            }
+            mRgbaValid = true;
+            return mRgba;
+        }
+
+        /**
+         * Converts only the given region when the chroma channels are interleaved,
+         * otherwise falls back to the conversion of the whole frame.
+         * Asking again for any part of the last converted region doesn't convert it twice.
+         */
+        @Override
+        public Mat rgba(Rect roi) {
+            if (mRoiRgba != null)
+                mRoiRgba.release();
+
+            if (mRgbaValid || mImage.getPlanes()[1].getPixelStride() != 2) {
+                mRoiRgba = rgba().submat(roi);
+                return mRoiRgba;
+            }
+
+            int w = mImage.getWidth();
+            int h = mImage.getHeight();
+            mRgba.create(h, w, CvType.CV_8UC4);
+            if (roi.width > 0 && roi.height > 0) {
+                // Chroma is subsampled 2x2, so the converted region needs to start and end on even pixels
+                int x0 = roi.x & ~1;
+                int y0 = roi.y & ~1;
+                int x1 = Math.min(w, (roi.x + roi.width + 1) & ~1);
+                int y1 = Math.min(h, (roi.y + roi.height + 1) & ~1);
+                if (x0 >= mConvertedRoi.x && y0 >= mConvertedRoi.y &&
+                        x1 <= mConvertedRoi.x + mConvertedRoi.width && y1 <= mConvertedRoi.y + mConvertedRoi.height) {
+                    mRoiRgba = mRgba.submat(roi);
+                    return mRoiRgba;
+                }
+
+                Mat y = gray().submat(y0, y1, x0, x1);
+                Mat uv = chroma().submat(y0 / 2, y1 / 2, x0 / 2, x1 / 2);
+                Mat dst = mRgba.submat(y0, y1, x0, x1);
+
+                Imgproc.cvtColorTwoPlane(y, uv, dst, mChromaCode);
+
+                dst.release();
+                uv.release();
+                y.release();
+
+                mConvertedRoi.x = x0;
+                mConvertedRoi.y = y0;
+                mConvertedRoi.width = x1 - x0;
+                mConvertedRoi.height = y1 - y0;
+                // Converting the whole frame region by region is the same as converting it at once
+                mRgbaValid = x0 == 0 && y0 == 0 && x1 == w && y1 == h;
+            }
+
+            mRoiRgba = mRgba.submat(roi);
+            return mRoiRgba;
+        }
+
+        /**
+         * Copies the Y plane and the interleaved chroma as they are, swapping the chroma channels
+         * when the image is NV12. Images whose chroma channels aren't interleaved aren't copied.
+         */
+        @Override
+        public boolean copyNv21To(Mat yuv) {
+            if (mImage.getPlanes()[1].getPixelStride() != 2)
+                return false;
+
+            int w = mImage.getWidth();
+            int h = mImage.getHeight();
+            if (yuv.rows() != h + h / 2 || yuv.cols() != w || yuv.type() != CvType.CV_8UC1)
+                throw new IllegalArgumentException("The NV21 buffer needs to be " + w + "x" + (h + h / 2));
+
+            Mat y = yuv.rowRange(0, h);
+            gray().copyTo(y);
+            Mat vuBytes = yuv.rowRange(h, h + h / 2);
+            Mat vu = vuBytes.reshape(2);
+
+            Mat chroma = chroma();
+            if (mChromaCode == Imgproc.COLOR_YUV2RGBA_NV21) {
+                chroma.copyTo(vu);
+            } else {
+                mSwapSrc.add(chroma);
+                mSwapDst.add(vu);
+                Core.mixChannels(mSwapSrc, mSwapDst, mSwapChannels);
+                mSwapSrc.clear();
+                mSwapDst.clear();
+            }
+
+            vu.release();
+            vuBytes.release();
+            y.release();
+            return true;
+        }
+
+        /**
+         * Returns the I420 buffer the planes are packed into when the chroma channels
+         * aren't interleaved. It's allocated once and reused until the size of the images changes.
+         */
+        private Mat i420() {
+            int w = mImage.getWidth();
+            int h = mImage.getHeight();
+            if (mI420 == null || mI420.rows() != h+h/2 || mI420.cols() != w) {
+                if (mI420 != null)
+                    mI420.release();
+                mI420Buffer = ByteBuffer.allocateDirect(w*(h+h/2));
+                mI420 = new Mat(h+h/2, w, CvType.CV_8UC1, mI420Buffer);
+            }
+            return mI420;
+        }
+
+        private void copyPlane(Image.Plane plane, ByteBuffer dst, int width, int height) {
+            ByteBuffer src = plane.getBuffer();
+            int rowStride = plane.getRowStride();
+            if (rowStride == width) {
+                // When the row stride of the chroma channel equals its width, we can copy it in one go
+                src.limit(src.position() + width*height);
+                dst.put(src);
+                return;
+            }
+
+            // When not equal, we need to copy the channel row by row
+            int start = src.position();
+            for (int i = 0; i < height; i++) {
+                src.limit(start + i*rowStride + width);
+                src.position(start + i*rowStride);
+                dst.put(src);
+            }
+        }
+
+        private Mat chroma() {
+            if (mChroma == null) {
+                Image.Plane[] planes = mImage.getPlanes();
+                int w = mImage.getWidth();
+                int h = mImage.getHeight();
                 assert(planes[0].getPixelStride() == 1);
                 assert(planes[2].getPixelStride() == 2);
-                ByteBuffer y_plane = planes[0].getBuffer();
                 ByteBuffer uv_plane1 = planes[1].getBuffer();
                 ByteBuffer uv_plane2 = planes[2].getBuffer();
-                Mat y_mat = new Mat(h, w, CvType.CV_8UC1, y_plane);
                 Mat uv_mat1 = new Mat(h / 2, w / 2, CvType.CV_8UC2, uv_plane1);
                 Mat uv_mat2 = new Mat(h / 2, w / 2, CvType.CV_8UC2, uv_plane2);
                 long addr_diff = uv_mat2.dataAddr() - uv_mat1.dataAddr();
                 if (addr_diff > 0) {
                     assert(addr_diff == 1);
-                    Imgproc.cvtColorTwoPlane(y_mat, uv_mat1, mRgba, Imgproc.COLOR_YUV2RGBA_NV12);
+                    mChroma = uv_mat1;
+                    mChromaCode = Imgproc.COLOR_YUV2RGBA_NV12;
+                    uv_mat2.release();
                 } else {
                     assert(addr_diff == -1);
-                    Imgproc.cvtColorTwoPlane(y_mat, uv_mat2, mRgba, Imgproc.COLOR_YUV2RGBA_NV21);
+                    mChroma = uv_mat2;
+                    mChromaCode = Imgproc.COLOR_YUV2RGBA_NV21;
+                    uv_mat1.release();
                 }
-                return mRgba;
-            } else { // Chroma channels are not interleaved
-                byte[] yuv_bytes = new byte[w*(h+h/2)];
-                ByteBuffer y_plane = planes[0].getBuffer();
-                ByteBuffer u_plane = planes[1].getBuffer();
-                ByteBuffer v_plane = planes[2].getBuffer();
-
-                y_plane.get(yuv_bytes, 0, w*h);
-
-                int chromaRowStride = planes[1].getRowStride();
-                int chromaRowPadding = chromaRowStride - w/2;
+            }
+            return mChroma;
+        }
 
-                int offset = w*h;
-                if (chromaRowPadding == 0){
-                    // When the row stride of the chroma channels equals their width, we can copy
-                    // the entire channels in one go
-                    u_plane.get(yuv_bytes, offset, w*h/4);
-                    offset += w*h/4;
-                    v_plane.get(yuv_bytes, offset, w*h/4);
-                } else {
-                    // When not equal, we need to copy the channels row by row
-                    for (int i = 0; i < h/2; i++){
-                        u_plane.get(yuv_bytes, offset, w/2);
-                        offset += w/2;
-                        if (i < h/2-1){
-                            u_plane.position(u_plane.position() + chromaRowPadding);
-                        }
-                    }
-                    for (int i = 0; i < h/2; i++){
-                        v_plane.get(yuv_bytes, offset, w/2);
-                        offset += w/2;
-                        if (i < h/2-1){
-                            v_plane.position(v_plane.position() + chromaRowPadding);
-                        }
-                    }
-                }
+        /**
+         * Points the frame to a new image, invalidating the conversions of the previous one.
+         * The RGBA buffer is kept and reused across images.
+         */
+        public void setImage(Image image) {
+            mImage = image;
+            mRgbaValid = false;
+            mConvertedRoi.width = mConvertedRoi.height = 0;
+            releaseImageViews();
+        }
 
-                Mat yuv_mat = new Mat(h+h/2, w, CvType.CV_8UC1);
-                yuv_mat.put(0, 0, yuv_bytes);
-                Imgproc.cvtColor(yuv_mat, mRgba, Imgproc.COLOR_YUV2RGBA_I420, 4);
-                return mRgba;
+        private void releaseImageViews() {
+            if (mRoiRgba != null) {
+                mRoiRgba.release();
+                mRoiRgba = null;
+            }
+            if (mGray != null) {
+                mGray.release();
+                mGray = null;
+            }
+            if (mChroma != null) {
+                mChroma.release();
+                mChroma = null;
             }
         }
 
-
-        public JavaCamera2Frame(Image image) {
+        public JavaCamera2Frame() {
             super();
-            mImage = image;
             mRgba = new Mat();
-            mGray = new Mat();
         }
 
         public void release() {
+            releaseImageViews();
+            mImage = null;
             mRgba.release();
-            mGray.release();
+            mSwapChannels.release();
+            if (mI420 != null) {
+                mI420.release();
+                mI420 = null;
+                mI420Buffer = null;
+            }
         }
 
         private Image mImage;
         private Mat mRgba;
+        private boolean mRgbaValid;
+        private Mat mRoiRgba;
+        // Region of the RGBA buffer converted for the current image, empty if none
+        private final Rect mConvertedRoi = new Rect();
+        // Views on the planes of the current image
         private Mat mGray;
+        private Mat mChroma;
+        private int mChromaCode;
+        // Reused across images to pack planes which aren't interleaved
+        private ByteBuffer mI420Buffer;
+        private Mat mI420;
+        // Reused across images to copy NV12 chroma as NV21
+        private final List<Mat> mSwapSrc = new ArrayList<>(1);
+        private final List<Mat> mSwapDst = new ArrayList<>(1);
+        private final MatOfInt mSwapChannels = new MatOfInt(0, 1, 1, 0);
     };
 }
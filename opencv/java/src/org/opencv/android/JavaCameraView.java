@@ -16,7 +16,6 @@ import org.opencv.BuildConfig;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.Size;
-import org.opencv.imgproc.Imgproc;
 
 /**
  * This class is an implementation of the Bridge View between OpenCV and Java Camera.
@@ -31,15 +30,28 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
 
     private static final int MAGIC_TEXTURE_ID = 10;
     private static final String TAG = "JavaCameraView";
+    private static final int DEFAULT_CALLBACK_BUFFERS = 3;
 
-    private byte mBuffer[];
+    public static final int FRAME_DELIVERY_MONITOR = 0;
+    public static final int FRAME_DELIVERY_LOCK_FREE = 1;
+
+    private volatile byte mBuffers[][];
+    private long[] mBufferTimestamps;
     private Mat[] mFrameChain;
-    private int mChainIdx = 0;
+    private int mCallbackBufferCount = DEFAULT_CALLBACK_BUFFERS;
+    private int mFrameDeliveryStrategy = FRAME_DELIVERY_MONITOR;
+    private volatile FrameExchange mFrameExchange;
     private Thread mThread;
-    private boolean mStopThread;
+    private volatile boolean mStopThread;
+
+    private volatile long mProducedFrames;
+    private volatile long mProcessedFrames;
+    private volatile long mDroppedFrames;
+    private volatile long mDeliveryLatencySum;
+    private volatile long mDeliveryLatencyMax;
 
     protected Camera mCamera;
-    protected JavaCameraFrame[] mCameraFrame;
+    protected CachedYuvFrame[] mCameraFrame;
     private SurfaceTexture mSurfaceTexture;
     private int mPreviewFormat = ImageFormat.NV21;
 
@@ -66,6 +78,80 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         super(context, attrs);
     }
 
+    /**
+     * Sets the number of buffers handed to the camera for the preview callbacks.
+     * Each buffer has its own frame Mat; a buffer is owned by the camera until its callback
+     * is delivered, then by the processing thread until its content has been copied into its Mat.
+     * The more buffers, the less likely is the camera to drop frames when processing stalls.
+     * Takes effect the next time the camera is connected.
+     * @param count - the number of buffers, at least 2
+     */
+    public void setCallbackBufferCount(int count) {
+        if (count < 2)
+            throw new IllegalArgumentException("At least 2 callback buffers are needed");
+        mCallbackBufferCount = count;
+    }
+
+    public int getCallbackBufferCount() {
+        return mCallbackBufferCount;
+    }
+
+    /**
+     * Sets how frames are handed from the camera callback to the processing thread:
+     * FRAME_DELIVERY_MONITOR uses wait()/notify() on a monitor,
+     * FRAME_DELIVERY_LOCK_FREE uses an atomic slot and parks the processing thread.
+     * Takes effect the next time the camera is connected.
+     * @param strategy - one of FRAME_DELIVERY_MONITOR or FRAME_DELIVERY_LOCK_FREE
+     */
+    public void setFrameDeliveryStrategy(int strategy) {
+        if (strategy != FRAME_DELIVERY_MONITOR && strategy != FRAME_DELIVERY_LOCK_FREE)
+            throw new IllegalArgumentException("Unknown frame delivery strategy " + strategy);
+        mFrameDeliveryStrategy = strategy;
+    }
+
+    public int getFrameDeliveryStrategy() {
+        return mFrameDeliveryStrategy;
+    }
+
+    /**
+     * @return the average time in nanoseconds between the preview callback of a frame
+     * and the moment it is passed to deliverAndDrawFrame
+     */
+    public long getAverageDeliveryLatencyNanos() {
+        long processed = mProcessedFrames;
+        return processed == 0 ? 0 : mDeliveryLatencySum / processed;
+    }
+
+    /**
+     * @return the maximum time in nanoseconds between the preview callback of a frame
+     * and the moment it is passed to deliverAndDrawFrame
+     */
+    public long getMaxDeliveryLatencyNanos() {
+        return mDeliveryLatencyMax;
+    }
+
+    /**
+     * @return the number of frames delivered by the camera since it was connected
+     */
+    public long getProducedFrameCount() {
+        return mProducedFrames;
+    }
+
+    /**
+     * @return the number of frames delivered to the listener since the camera was connected
+     */
+    public long getProcessedFrameCount() {
+        return mProcessedFrames;
+    }
+
+    /**
+     * @return the number of frames delivered by the camera which were replaced by a newer one
+     * before the processing thread could pick them up
+     */
+    public long getDroppedFrameCount() {
+        return mDroppedFrames;
+    }
+
     protected boolean initializeCamera(int width, int height) {
         Log.d(TAG, "Initialize java camera");
         boolean result = true;
@@ -190,20 +276,22 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
 
                     int size = mFrameWidth * mFrameHeight;
                     size  = size * ImageFormat.getBitsPerPixel(params.getPreviewFormat()) / 8;
-                    mBuffer = new byte[size];
 
-                    mCamera.addCallbackBuffer(mBuffer);
+                    mBufferTimestamps = new long[mCallbackBufferCount];
+                    mBuffers = new byte[mCallbackBufferCount][];
+                    mFrameChain = new Mat[mCallbackBufferCount];
+                    for (int i = 0; i < mCallbackBufferCount; i++) {
+                        mBuffers[i] = new byte[size];
+                        mFrameChain[i] = new Mat(mFrameHeight + (mFrameHeight/2), mFrameWidth, CvType.CV_8UC1);
+                        mCamera.addCallbackBuffer(mBuffers[i]);
+                    }
                     mCamera.setPreviewCallbackWithBuffer(this);
 
-                    mFrameChain = new Mat[2];
-                    mFrameChain[0] = new Mat(mFrameHeight + (mFrameHeight/2), mFrameWidth, CvType.CV_8UC1);
-                    mFrameChain[1] = new Mat(mFrameHeight + (mFrameHeight/2), mFrameWidth, CvType.CV_8UC1);
-
                     AllocateCache();
 
-                    mCameraFrame = new JavaCameraFrame[2];
-                    mCameraFrame[0] = new JavaCameraFrame(mFrameChain[0], mFrameWidth, mFrameHeight);
-                    mCameraFrame[1] = new JavaCameraFrame(mFrameChain[1], mFrameWidth, mFrameHeight);
+                    mCameraFrame = new CachedYuvFrame[mCallbackBufferCount];
+                    for (int i = 0; i < mCallbackBufferCount; i++)
+                        mCameraFrame[i] = new CachedYuvFrame(mFrameChain[i], mFrameWidth, mFrameHeight, mPreviewFormat);
 
                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
                         mSurfaceTexture = new SurfaceTexture(MAGIC_TEXTURE_ID);
@@ -236,18 +324,17 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
             }
             mCamera = null;
             if (mFrameChain != null) {
-                mFrameChain[0].release();
-                mFrameChain[1].release();
+                for (Mat frame : mFrameChain)
+                    frame.release();
             }
             if (mCameraFrame != null) {
-                mCameraFrame[0].release();
-                mCameraFrame[1].release();
+                for (CachedYuvFrame frame : mCameraFrame)
+                    frame.release();
             }
+            mBuffers = null;
         }
     }
 
-    private boolean mCameraFrameReady = false;
-
     @Override
     protected boolean connectCamera(int width, int height) {
 
@@ -259,12 +346,20 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         if (!initializeCamera(width, height))
             return false;
 
-        mCameraFrameReady = false;
+        mProducedFrames = 0;
+        mProcessedFrames = 0;
+        mDroppedFrames = 0;
+        mDeliveryLatencySum = 0;
+        mDeliveryLatencyMax = 0;
 
         /* now we can start update thread */
         Log.d(TAG, "Starting processing thread");
         mStopThread = false;
-        mThread = new Thread(new CameraWorker());
+        if (mFrameDeliveryStrategy == FRAME_DELIVERY_LOCK_FREE)
+            mFrameExchange = new LockFreeFrameExchange();
+        else
+            mFrameExchange = new MonitorFrameExchange();
+        mThread = new Thread(new CameraWorker(mFrameExchange));
         mThread.start();
 
         return true;
@@ -279,9 +374,9 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         try {
             mStopThread = true;
             Log.d(TAG, "Notify thread");
-            synchronized (this) {
-                this.notify();
-            }
+            FrameExchange exchange = mFrameExchange;
+            if (exchange != null)
+                exchange.stop();
             Log.d(TAG, "Waiting for thread");
             if (mThread != null)
                 mThread.join();
@@ -289,89 +384,85 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
             e.printStackTrace();
         } finally {
             mThread =  null;
+            mFrameExchange = null;
         }
 
         /* Now release camera */
         releaseCamera();
-
-        mCameraFrameReady = false;
     }
 
     @Override
     public void onPreviewFrame(byte[] frame, Camera arg1) {
         if (BuildConfig.DEBUG)
             Log.d(TAG, "Preview Frame received. Frame size: " + frame.length);
-        synchronized (this) {
-            mFrameChain[mChainIdx].put(0, 0, frame);
-            mCameraFrameReady = true;
-            this.notify();
+
+        /* The buffer is not copied here: its ownership is handed to the processing thread,
+         * which gives it back to the camera once it's done copying it */
+        FrameExchange exchange = mFrameExchange;
+        int idx = indexOfBuffer(frame);
+        if (exchange == null || idx < 0)
+            return;
+
+        mProducedFrames++;
+        mBufferTimestamps[idx] = System.nanoTime();
+        int droppedIdx = exchange.offer(idx);
+
+        /* The processing thread didn't pick up the previous frame in time, give its buffer back */
+        if (droppedIdx >= 0) {
+            mDroppedFrames++;
+            recycleBuffer(droppedIdx);
         }
-        if (mCamera != null)
-            mCamera.addCallbackBuffer(mBuffer);
     }
 
-    private class JavaCameraFrame implements CvCameraViewFrame {
-        @Override
-        public Mat gray() {
-            return mYuvFrameData.submat(0, mHeight, 0, mWidth);
-        }
+    private int indexOfBuffer(byte[] buffer) {
+        byte[][] buffers = mBuffers;
+        if (buffers == null)
+            return -1;
+        for (int i = 0; i < buffers.length; i++)
+            if (buffers[i] == buffer)
+                return i;
+        return -1;
+    }
 
-        @Override
-        public Mat rgba() {
-            if (mPreviewFormat == ImageFormat.NV21)
-                Imgproc.cvtColor(mYuvFrameData, mRgba, Imgproc.COLOR_YUV2RGBA_NV21, 4);
-            else if (mPreviewFormat == ImageFormat.YV12)
-                Imgproc.cvtColor(mYuvFrameData, mRgba, Imgproc.COLOR_YUV2RGB_I420, 4);  // COLOR_YUV2RGBA_YV12 produces inverted colors
-            else
-                throw new IllegalArgumentException("Preview Format can be NV21 or YV12");
-
-            return mRgba;
-        }
+    private void recycleBuffer(int idx) {
+        Camera camera = mCamera;
+        byte[][] buffers = mBuffers;
+        if (camera != null && buffers != null)
+            camera.addCallbackBuffer(buffers[idx]);
+    }
 
-        public JavaCameraFrame(Mat Yuv420sp, int width, int height) {
-            super();
-            mWidth = width;
-            mHeight = height;
-            mYuvFrameData = Yuv420sp;
-            mRgba = new Mat();
-        }
+    private void recordDeliveryLatency(int idx) {
+        long latency = System.nanoTime() - mBufferTimestamps[idx];
+        mDeliveryLatencySum += latency;
+        if (latency > mDeliveryLatencyMax)
+            mDeliveryLatencyMax = latency;
+    }
 
-        public void release() {
-            mRgba.release();
-        }
+    private class CameraWorker implements Runnable {
 
-        private Mat mYuvFrameData;
-        private Mat mRgba;
-        private int mWidth;
-        private int mHeight;
-    };
+        private final FrameExchange mExchange;
 
-    private class CameraWorker implements Runnable {
+        CameraWorker(FrameExchange exchange) {
+            mExchange = exchange;
+        }
 
         @Override
         public void run() {
             do {
-                boolean hasFrame = false;
-                synchronized (JavaCameraView.this) {
-                    try {
-                        while (!mCameraFrameReady && !mStopThread) {
-                            JavaCameraView.this.wait();
-                        }
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                    if (mCameraFrameReady)
-                    {
-                        mChainIdx = 1 - mChainIdx;
-                        mCameraFrameReady = false;
-                        hasFrame = true;
+                int idx = mExchange.take();
+
+                if (idx >= 0) {
+                    /* The worker owns the buffer now: copy it and give it back */
+                    mFrameChain[idx].put(0, 0, mBuffers[idx]);
+                    mCameraFrame[idx].invalidate();
+                    recycleBuffer(idx);
+
+                    if (!mStopThread && !mFrameChain[idx].empty()) {
+                        recordDeliveryLatency(idx);
+                        deliverAndDrawFrame(mCameraFrame[idx]);
+                        mProcessedFrames++;
                     }
                 }
-
-                if (!mStopThread && hasFrame) {
-                    if (!mFrameChain[1 - mChainIdx].empty())
-                        deliverAndDrawFrame(mCameraFrame[1 - mChainIdx]);
-                }
             } while (!mStopThread);
             Log.d(TAG, "Finish processing thread");
         }
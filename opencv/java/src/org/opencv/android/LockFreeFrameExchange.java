@@ -0,0 +1,58 @@
+package org.opencv.android;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * FrameExchange based on an atomic slot, where the consumer parks itself when
+ * there is nothing to take. The producer never blocks and only pays for an unpark
+ * when the consumer is actually waiting.
+ */
+public class LockFreeFrameExchange implements FrameExchange {
+
+    private final AtomicInteger mSlot = new AtomicInteger(-1);
+    private volatile Thread mConsumer;
+    private volatile boolean mWaiting;
+    private volatile boolean mStopped;
+
+    @Override
+    public int offer(int idx) {
+        int prev = mSlot.getAndSet(idx);
+        if (mWaiting)
+            LockSupport.unpark(mConsumer);
+        return prev;
+    }
+
+    @Override
+    public int take() {
+        mConsumer = Thread.currentThread();
+        for (;;) {
+            if (mStopped)
+                return -1;
+
+            int idx = mSlot.getAndSet(-1);
+            if (idx >= 0)
+                return idx;
+
+            /* Announce that we are going to park, then check again, so that
+             * an offer happening in between either is seen or unparks us */
+            mWaiting = true;
+            idx = mSlot.getAndSet(-1);
+            if (idx >= 0 || mStopped) {
+                mWaiting = false;
+                return mStopped ? -1 : idx;
+            }
+
+            LockSupport.park(this);
+            mWaiting = false;
+        }
+    }
+
+    @Override
+    public void stop() {
+        mStopped = true;
+        Thread consumer = mConsumer;
+        if (consumer != null)
+            LockSupport.unpark(consumer);
+    }
+}
@@ -0,0 +1,39 @@
+package org.opencv.android;
+
+/**
+ * FrameExchange based on an object monitor, using wait() and notify().
+ */
+public class MonitorFrameExchange implements FrameExchange {
+
+    private int mIdx = -1;
+    private boolean mStopped;
+
+    @Override
+    public synchronized int offer(int idx) {
+        int prev = mIdx;
+        mIdx = idx;
+        this.notify();
+        return prev;
+    }
+
+    @Override
+    public synchronized int take() {
+        try {
+            while (mIdx < 0 && !mStopped) {
+                this.wait();
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+
+        int idx = mIdx;
+        mIdx = -1;
+        return mStopped ? -1 : idx;
+    }
+
+    @Override
+    public synchronized void stop() {
+        mStopped = true;
+        this.notify();
+    }
+}